@@ -21,7 +21,6 @@ package eu.ehri.project.commands;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
@@ -44,7 +43,6 @@ public class ListEntities extends BaseCommand {
     final static String NAME = "list";
 
     private static final JsonFactory jsonFactory = new JsonFactory();
-    private static final ObjectMapper mapper = new ObjectMapper();
 
     @Override
     protected void setCustomOptions(Options options) {
@@ -100,7 +98,7 @@ public class ListEntities extends BaseCommand {
              JsonGenerator generator = jsonFactory.createGenerator(System.out)) {
             generator.writeStartArray();
             for (Vertex v : vertices) {
-                mapper.writeValue(generator, serializer.vertexToData(v));
+                serializer.vertexToJson(v, generator);
                 generator.writeRaw('\n');
             }
             generator.writeEndArray();
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.acl;
+
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.definitions.Ontology;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Set;
+
+/**
+ * An immutable set containing the graph-internal ids of an accessor
+ * and all the groups to which it belongs, either directly or by
+ * inheritance. The ids are held in a sorted primitive array so the
+ * set is cheap to share and to test for membership.
+ */
+final class AccessorClosure {
+
+    static final AccessorClosure EMPTY = new AccessorClosure(new long[0]);
+
+    private final long[] ids;
+
+    private AccessorClosure(long[] ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Compute the closure of an accessor vertex by ascending its
+     * group hierarchy.
+     *
+     * @param accessor an accessor vertex
+     * @return the accessor's closure, including itself
+     */
+    static AccessorClosure of(Vertex accessor) {
+        Set<Long> seen = Sets.newHashSet(nodeId(accessor));
+        Deque<Vertex> queue = new ArrayDeque<>();
+        queue.add(accessor);
+        while (!queue.isEmpty()) {
+            for (Vertex parent : queue.poll().getVertices(Direction.OUT,
+                    Ontology.ACCESSOR_BELONGS_TO_GROUP)) {
+                if (seen.add(nodeId(parent))) {
+                    queue.add(parent);
+                }
+            }
+        }
+        long[] ids = seen.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(ids);
+        return new AccessorClosure(ids);
+    }
+
+    /**
+     * Test whether the given vertex is in this closure.
+     *
+     * @param vertex a vertex
+     * @return whether the vertex is the accessor or one of its groups
+     */
+    boolean contains(Vertex vertex) {
+        Object id = vertex.getId();
+        return id instanceof Number && contains(((Number) id).longValue());
+    }
+
+    /**
+     * Test whether the given node id is in this closure.
+     *
+     * @param id a graph-internal node id
+     * @return whether the id is that of the accessor or one of its groups
+     */
+    boolean contains(long id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /**
+     * Get a copy of this closure without the given vertex.
+     *
+     * @param vertex a vertex
+     * @return a closure without that vertex
+     */
+    AccessorClosure without(Vertex vertex) {
+        int i = Arrays.binarySearch(ids, nodeId(vertex));
+        if (i < 0) {
+            return this;
+        }
+        long[] others = new long[ids.length - 1];
+        System.arraycopy(ids, 0, others, 0, i);
+        System.arraycopy(ids, i + 1, others, i, ids.length - i - 1);
+        return new AccessorClosure(others);
+    }
+
+    /**
+     * Get the number of accessors in this closure.
+     *
+     * @return the closure size
+     */
+    int size() {
+        return ids.length;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(ids);
+    }
+
+    private static long nodeId(Vertex vertex) {
+        return ((Number) vertex.getId()).longValue();
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.acl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Vertex;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.base.Accessor;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.txstate.TxStateHolder;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of access-control data derived from the graph which is
+ * shared between requests, with one instance per database.
+ * <p>
+ * Cached values are discarded when the data they were derived from
+ * changes. This happens both explicitly, when a change is made via
+ * the API, and when any transaction that touches the relevant
+ * relationships is committed, so that data modified by other means
+ * (fixture loading, command-line tools, etc) is also accounted for.
+ * Values computed by a transaction which has made changes may depend
+ * on data which is never committed, so they are not cached.
+ * <p>
+ * Graphs which are not backed by Neo4j share an instance which
+ * caches nothing.
+ */
+public final class AclCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AclCache.class);
+
+    private static final int MAX_ENTRIES = 10000;
+
+    private static final Set<String> GRANTS = ImmutableSet.of(
+            Ontology.PERMISSION_GRANT_HAS_SUBJECT,
+            Ontology.PERMISSION_GRANT_HAS_PERMISSION,
+            Ontology.PERMISSION_GRANT_HAS_TARGET,
+            Ontology.PERMISSION_GRANT_HAS_SCOPE);
+
+    private static final AclCache UNCACHED = new AclCache(0, null);
+
+    private static final LoadingCache<GraphDatabaseService, AclCache> instances = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<GraphDatabaseService, AclCache>() {
+                @Override
+                public AclCache load(GraphDatabaseService database) {
+                    AclCache cache = new AclCache(MAX_ENTRIES, database instanceof GraphDatabaseAPI
+                            ? ((GraphDatabaseAPI) database).getDependencyResolver()
+                            .resolveDependency(ThreadToStatementContextBridge.class)
+                            : null);
+                    database.registerTransactionEventHandler(cache.new InvalidationHandler());
+                    return cache;
+                }
+            });
+
+    /**
+     * A cached value stamped with the version of the data it
+     * was computed from. Stale values are ignored, which avoids
+     * a value computed concurrently with a change being re-cached
+     * after the change has invalidated it.
+     */
+    private static final class Stamped<T> {
+        private final T value;
+        private final long version;
+
+        private Stamped(T value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The kind of change made by a transaction. Since compiled
+     * permissions include those inherited from groups, a change
+     * of membership also invalidates permissions.
+     */
+    private enum Change {
+        NONE, PERMISSIONS, MEMBERSHIP
+    }
+
+    private final AtomicLong membershipVersion = new AtomicLong();
+    private final AtomicLong permissionsVersion = new AtomicLong();
+    private final Cache<String, Stamped<AccessorClosure>> closures;
+    private final Cache<String, Stamped<CompiledPermissions>> permissions;
+    private final ThreadToStatementContextBridge transactions;
+
+    private AclCache(int maxEntries, ThreadToStatementContextBridge transactions) {
+        this.transactions = transactions;
+        this.closures = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+        this.permissions = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    /**
+     * Obtain the cache for the database to which the given vertex
+     * belongs.
+     *
+     * @param vertex a vertex
+     * @return the cache instance
+     */
+    public static AclCache getInstance(Vertex vertex) {
+        if (vertex instanceof Neo4j2Vertex) {
+            return instances.getUnchecked(((Neo4j2Vertex) vertex).getRawVertex().getGraphDatabase());
+        }
+        return UNCACHED;
+    }
+
+    /**
+     * Discard all cached accessor closures. This must be called
+     * when a user or group is added to or removed from a group.
+     */
+    public void invalidateMembership() {
+        membershipVersion.incrementAndGet();
+        closures.invalidateAll();
+        invalidatePermissions();
+    }
+
+    /**
+     * Discard all compiled permissions. This must be called when
+     * a permission grant is created or removed.
+     */
+    public void invalidatePermissions() {
+        permissionsVersion.incrementAndGet();
+        permissions.invalidateAll();
+    }
+
+    /**
+     * Fetch the closure of an accessor and the groups it belongs to,
+     * computing it if necessary.
+     *
+     * @param accessor a (non-anonymous) accessor
+     * @return the accessor's closure
+     */
+    AccessorClosure getAccessorClosure(Accessor accessor) {
+        long version = membershipVersion.get();
+        Stamped<AccessorClosure> entry = closures.getIfPresent(accessor.getId());
+        if (entry != null && entry.version == version) {
+            return entry.value;
+        }
+        AccessorClosure closure = AccessorClosure.of(accessor.asVertex());
+        if (canPopulate()) {
+            closures.put(accessor.getId(), new Stamped<>(closure, version));
+        }
+        return closure;
+    }
+
+    /**
+     * Fetch the compiled permissions of an accessor, computing
+     * them if necessary.
+     *
+     * @param accessor a (non-anonymous) accessor
+     * @return the accessor's compiled permissions
+     */
+    CompiledPermissions getCompiledPermissions(Accessor accessor) {
+        long version = permissionsVersion.get();
+        Stamped<CompiledPermissions> entry = permissions.getIfPresent(accessor.getId());
+        if (entry != null && entry.version == version) {
+            return entry.value;
+        }
+        CompiledPermissions compiled = CompiledPermissions.of(accessor.asVertex());
+        if (canPopulate()) {
+            permissions.put(accessor.getId(), new Stamped<>(compiled, version));
+        }
+        return compiled;
+    }
+
+    // Determine if values computed by the current thread can be cached,
+    // which they cannot if its transaction, if any, has made changes.
+    private boolean canPopulate() {
+        if (transactions == null) {
+            return true;
+        }
+        KernelTransaction tx = transactions.getKernelTransactionBoundToThisThread(false);
+        return tx == null || !(tx instanceof TxStateHolder) || !((TxStateHolder) tx).hasTxStateWithChanges();
+    }
+
+    private class InvalidationHandler extends TransactionEventHandler.Adapter<Change> {
+        @Override
+        public Change beforeCommit(TransactionData data) {
+            Change created = classify(data.createdRelationships());
+            return created == Change.MEMBERSHIP
+                    ? created
+                    : max(created, classify(data.deletedRelationships()));
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, Change change) {
+            if (change == Change.MEMBERSHIP) {
+                logger.trace("Group membership changed: invalidating ACL cache");
+                invalidateMembership();
+            } else if (change == Change.PERMISSIONS) {
+                logger.trace("Permission grants changed: invalidating compiled permissions");
+                invalidatePermissions();
+            }
+        }
+
+        @Override
+        public void afterRollback(TransactionData data, Change change) {
+            // Values computed while the transaction was being committed
+            // may have seen its changes, and if our own handler did not
+            // get as far as classifying them, they might be anything.
+            logger.trace("Transaction rolled back: invalidating ACL cache");
+            if (change == null || change == Change.MEMBERSHIP) {
+                invalidateMembership();
+            } else if (change == Change.PERMISSIONS) {
+                invalidatePermissions();
+            }
+        }
+    }
+
+    private static Change max(Change a, Change b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private static Change classify(Iterable<Relationship> relationships) {
+        try {
+            Change change = Change.NONE;
+            for (Relationship relationship : relationships) {
+                String type = relationship.getType().name();
+                if (Ontology.ACCESSOR_BELONGS_TO_GROUP.equals(type)) {
+                    return Change.MEMBERSHIP;
+                } else if (GRANTS.contains(type)) {
+                    change = Change.PERMISSIONS;
+                }
+            }
+            return change;
+        } catch (RuntimeException e) {
+            // If we can't tell what changed, err on the side of caution.
+            logger.warn("Unable to inspect transaction data: {}", e.getMessage());
+            return Change.MEMBERSHIP;
+        }
+    }
+}
@@ -29,11 +29,14 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
 import com.tinkerpop.pipes.PipeFunction;
 import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Edge;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Vertex;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.IntegrityError;
 import eu.ehri.project.exceptions.PermissionDenied;
@@ -47,23 +50,34 @@ import eu.ehri.project.models.base.Accessor;
 import eu.ehri.project.models.base.PermissionGrantTarget;
 import eu.ehri.project.models.base.PermissionScope;
 
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Helper class for checking and asserting access and write permissions.
  */
 public final class AclManager {
 
+    private static final int VISIBILITY_BATCH_SIZE = 100;
+
+    private static final String[] VISIBILITY_LABELS = {
+            Ontology.IS_ACCESSIBLE_TO, Ontology.PROMOTED_BY, Ontology.DEMOTED_BY
+    };
+
     private final FramedGraph<?> graph;
     private final GraphManager manager;
     private final PermissionScope scope;
     private final Set<PermissionScope> scopes;
+    private final List<Object> scopeIds;
 
     // Lookups to convert between the enum and node representations
     // of content and permission types.
@@ -107,6 +121,7 @@ public final class AclManager {
         this.manager = GraphManagerFactory.getInstance(graph);
         this.scope = Optional.ofNullable(scope).orElse(SystemScope.getInstance());
         this.scopes = getAllScopes();
+        this.scopeIds = scopes.stream().map(s -> s.asVertex().getId()).collect(Collectors.toList());
     }
 
     /**
@@ -316,6 +331,7 @@ public final class AclManager {
             if (!isSystemScope()) {
                 grant.setScope(scope);
             }
+            invalidatePermissions(accessor.asVertex());
             return grant;
         }
     }
@@ -330,7 +346,7 @@ public final class AclManager {
     public void revokePermission(Accessible entity, PermissionType permType,
                                  Accessor accessor) {
         Optional<PermissionGrant> maybeGrant = findPermission(entity, permType, accessor);
-        maybeGrant.ifPresent(permissionGrant -> manager.deleteVertex(permissionGrant.asVertex()));
+        maybeGrant.ifPresent(this::revokePermissionGrant);
     }
 
     /**
@@ -339,6 +355,7 @@ public final class AclManager {
      * @param grant The grant to revoke
      */
     public void revokePermissionGrant(PermissionGrant grant) {
+        invalidatePermissions(grant.asVertex());
         manager.deleteVertex(grant.asVertex());
     }
 
@@ -369,27 +386,116 @@ public final class AclManager {
             return noopFilterFunction();
         }
 
-        final HashSet<Vertex> all = getAllAccessors(accessor);
-        return v -> {
-            Iterable<Vertex> verts = v.getVertices(Direction.OUT,
-                    Ontology.IS_ACCESSIBLE_TO);
-            // If there's no Access conditions, it's
-            // read-only...
-            if (!verts.iterator().hasNext()) {
-                return true;
-            }
-            // If it's promoted it's publicly accessible
-            if (isPromoted(v)) {
-                return true;
+        final AccessorClosure all = getAllAccessors(accessor);
+        return v -> isVisible(v, all);
+    }
+
+    /**
+     * Determine which of a batch of vertices are readable by a given
+     * accessor. This is equivalent to applying the function returned
+     * by {@link #getAclFilterFunction(Accessor)} to each vertex, but
+     * the accessor's groups are resolved only once and vertices which
+     * occur more than once in the batch are only checked once.
+     *
+     * @param vertices A batch of vertices
+     * @param accessor The user/group
+     * @return A bitmap in which the bit at each vertex's list index
+     * is set if the vertex is readable
+     */
+    public static BitSet getVisibility(List<Vertex> vertices, Accessor accessor) {
+        Preconditions.checkNotNull(accessor, "Accessor is null");
+        BitSet visible = new BitSet(vertices.size());
+        if (belongsToAdmin(accessor)) {
+            visible.set(0, vertices.size());
+            return visible;
+        }
+        AccessorClosure all = getAllAccessors(accessor);
+        Map<Object, Boolean> checked = Maps.newHashMap();
+        for (int i = 0; i < vertices.size(); i++) {
+            Vertex v = vertices.get(i);
+            if (checked.computeIfAbsent(v.getId(), id -> isVisible(v, all))) {
+                visible.set(i);
             }
-            // Otherwise, check relevant accessors...
-            for (Vertex other : verts) {
-                if (all.contains(other)) {
-                    return true;
+        }
+        return visible;
+    }
+
+    /**
+     * Get a key which is the same for accessors to whom the same items
+     * are visible, so that results derived from the visible items, such
+     * as counts, can be shared between them.
+     * <p>
+     * The key identifies the groups to which the accessor belongs, and
+     * the accessor itself only if any items are restricted to it
+     * directly. Members of the same groups without such items therefore
+     * share a key.
+     *
+     * @param accessor The user/group
+     * @return An opaque visibility key
+     */
+    public static String getVisibilityKey(Accessor accessor) {
+        Preconditions.checkNotNull(accessor, "Accessor is null");
+        if (belongsToAdmin(accessor)) {
+            return "*";
+        }
+        AccessorClosure all = getAllAccessors(accessor);
+        Vertex vertex = accessor.asVertex();
+        return vertex == null || all.size() == 0
+                || vertex.getEdges(Direction.IN, Ontology.IS_ACCESSIBLE_TO).iterator().hasNext()
+                ? all.toString()
+                : all.without(vertex).toString();
+    }
+
+    /**
+     * Lazily filter a stream of vertices, passing through those readable
+     * by a given accessor. The stream is consumed in batches so that the
+     * checks are amortised over each batch.
+     *
+     * @param vertices A stream of vertices
+     * @param accessor The user/group
+     * @return The readable vertices, in the original order
+     */
+    public static Iterable<Vertex> filterVisible(Iterable<Vertex> vertices, Accessor accessor) {
+        return filterVisible(vertices, Collections::singletonList, accessor);
+    }
+
+    /**
+     * Lazily filter a stream of items which are each associated with one
+     * or more vertices, passing through those items for which every
+     * vertex is readable by a given accessor. The stream is consumed in
+     * batches and vertices shared between items in a batch (for example,
+     * the subjects of several events) are only checked once.
+     *
+     * @param items    A stream of items
+     * @param vertices A function returning the vertices of an item
+     * @param accessor The user/group
+     * @param <T>      The type of item
+     * @return The readable items, in the original order
+     */
+    public static <T> Iterable<T> filterVisible(Iterable<T> items,
+            Function<? super T, ? extends Iterable<Vertex>> vertices, Accessor accessor) {
+        Preconditions.checkNotNull(accessor, "Accessor is null");
+        if (belongsToAdmin(accessor)) {
+            return items;
+        }
+        final AccessorClosure all = getAllAccessors(accessor);
+        return Iterables.concat(Iterables.transform(Iterables.partition(items, VISIBILITY_BATCH_SIZE), batch -> {
+            List<T> visible = Lists.newArrayListWithCapacity(batch.size());
+            Map<Object, Boolean> checked = Maps.newHashMap();
+            for (T item : batch) {
+                boolean ok = true;
+                for (Vertex v : vertices.apply(item)) {
+                    if (!checked.computeIfAbsent(v.getId(), id -> isVisible(v, all))) {
+                        ok = false;
+                        break;
+                    }
+                }
+                if (ok) {
+                    visible.add(item);
                 }
             }
-            return false;
-        };
+            return visible;
+        }));
     }
 
     /**
@@ -401,7 +507,7 @@ public final class AclManager {
      * @return If the user has permission on the given content type within the current scope
      */
     public boolean hasPermission(ContentTypes contentType, PermissionType permissionType, Accessor accessor) {
-        return hasPermission(contentType, permissionType, accessor, scopes);
+        return getCompiledPermissions(accessor).hasPermission(contentType, permissionType, scopeIds);
     }
 
     /**
@@ -413,22 +519,16 @@ public final class AclManager {
      * @return If the user has the permission on the given item
      */
     public boolean hasPermission(Accessible entity, PermissionType permissionType, Accessor accessor) {
-        // Get a list of our current context scopes, plus
-        // the parent scopes of the item.
-        Set<PermissionScope> allScopes = Sets.newHashSet(scopes);
-        for (PermissionScope scope : entity.getPermissionScopes()) {
-            allScopes.add(scope);
-        }
+        // Our current context scopes, plus the parent scopes of the item.
+        // These are only traversed if the accessor has scoped grants.
+        Iterable<Object> allScopeIds = Iterables.concat(scopeIds,
+                Iterables.transform(entity.getPermissionScopes(), s -> s.asVertex().getId()));
 
         // Check if the user has content type permissions on this item, using
-        // the parent scope of the item...
+        // the parent scope of the item, or permissions on the item itself...
         ContentTypes contentType = getContentType(manager.getEntityClass(entity));
-        if (hasPermission(contentType, permissionType, accessor, allScopes)) {
-            return true;
-        }
-
-        // Otherwise, we have to check the item's permissions...
-        return hasScopedPermission(entity, permissionType, accessor, allScopes);
+        return getCompiledPermissions(accessor).hasPermission(contentType,
+                entity.asVertex().getId(), permissionType, allScopeIds);
     }
 
     // Helpers...
@@ -452,70 +552,6 @@ public final class AclManager {
         return scope;
     }
 
-    /**
-     * Check for a content permission with a given set of scopes.
-     *
-     * @param contentType    The content type
-     * @param permissionType The permission type
-     * @param accessor       The user/group
-     * @param scopes         The item scopes
-     * @return Whether or not the user has permission
-     */
-    private boolean hasPermission(ContentTypes contentType, PermissionType permissionType, Accessor accessor,
-                                  Collection<PermissionScope> scopes) {
-
-        ContentType contentTypeNode = enumContentTypeMap.getUnchecked(contentType);
-        // Check the user themselves...
-        return belongsToAdmin(accessor)
-                || hasScopedPermission(contentTypeNode, permissionType, accessor, scopes);
-    }
-
-    /**
-     * Attempt to find a permission, searching the accessor's parent hierarchy.
-     *
-     * @param target         A target permission grant
-     * @param permissionType The permission type
-     * @param accessor       The user/group
-     * @param scopes         A set of parent scopes
-     * @return Whether or not the grant was found
-     */
-    private boolean hasScopedPermission(PermissionGrantTarget target,
-                                        PermissionType permissionType, Accessor accessor,
-                                        Collection<PermissionScope> scopes) {
-
-        for (PermissionGrant grant : accessor.getPermissionGrants()) {
-            PermissionType grantPermissionType
-                    = enumForPermission(grant.getPermission());
-
-            // If it's not the permission type we want, skip it...
-            if (!grantPermissionType.contains(permissionType)) {
-                continue;
-            }
-
-            // Get the content type node and check it matches the grant target
-            for (PermissionGrantTarget tg : grant.getTargets()) {
-                if (!target.equals(tg)) {
-                    continue;
-                }
-
-                // Now check the scope - if there is none we're good.
-                if (grant.getScope() == null || scopes.contains(grant.getScope())) {
-                    return true;
-                }
-            }
-        }
-
-        // If no joy, check if they inherit the permission...
-        for (Accessor ancestor : accessor.getParents()) {
-            if (hasScopedPermission(target, permissionType, ancestor, scopes)) {
-                return true;
-            }
-        }
-
-        // Default case, return false....
-        return false;
-    }
-
     /**
      * Get the permission type enum for a given node.
      */
@@ -623,24 +659,39 @@ public final class AclManager {
 
     /**
      * For a given user, fetch a lookup of all the inherited accessors it
-     * belongs to. NB: This returns a lookup of raw Vertices because it's
+     * belongs to. NB: This returns a set of raw vertex ids because it's
      * used by the a Gremlin filter function, which likewise operates
-     * directly on vertices.
+     * directly on vertices. The lookup is cached between calls until
+     * group memberships change.
      *
      * @param accessor The user/group
      * @return A lookup of accessor vertices
      */
-    private static HashSet<Vertex> getAllAccessors(Accessor accessor) {
+    private static AccessorClosure getAllAccessors(Accessor accessor) {
+        if (isAnonymous(accessor)) {
+            return AccessorClosure.EMPTY;
+        }
+        return AclCache.getInstance(accessor.asVertex()).getAccessorClosure(accessor);
+    }
 
-        HashSet<Vertex> all = Sets.newHashSet();
-        if (!isAnonymous(accessor)) {
-            Iterable<Accessor> parents = accessor.getAllParents();
-            for (Accessor a : parents) {
-                all.add(a.asVertex());
-            }
-            all.add(accessor.asVertex());
+    /**
+     * Fetch the compiled permissions for a user, including those
+     * inherited from groups. These are cached between calls until
+     * permission grants or group memberships change.
+     *
+     * @param accessor The user/group
+     * @return The accessor's compiled permissions
+     */
+    private static CompiledPermissions getCompiledPermissions(Accessor accessor) {
+        Preconditions.checkNotNull(accessor, "Accessor is null");
+        if (accessor.asVertex() == null) {
+            return CompiledPermissions.NONE;
         }
-        return all;
+        return AclCache.getInstance(accessor.asVertex()).getCompiledPermissions(accessor);
+    }
+
+    private static void invalidatePermissions(Vertex vertex) {
+        AclCache.getInstance(vertex).invalidatePermissions();
     }
 
     /**
@@ -737,6 +788,53 @@ public final class AclManager {
         return true;
     }
 
+    /**
+     * Check if a vertex is readable by any of a closure of accessors.
+     * For Neo4j-backed vertices this reads access and promotion data
+     * in a single pass over the node's outgoing relationships, without
+     * loading the accessor nodes at the other end.
+     */
+    private static boolean isVisible(Vertex v, AccessorClosure accessors) {
+        if (v instanceof Neo4j2Vertex) {
+            boolean restricted = false;
+            int promotions = 0;
+            int demotions = 0;
+            for (Edge edge : v.getEdges(Direction.OUT, VISIBILITY_LABELS)) {
+                String type = edge.getLabel();
+                if (type.equals(Ontology.IS_ACCESSIBLE_TO)) {
+                    if (accessors.contains(((Neo4j2Edge) edge).getRawEdge().getEndNodeId())) {
+                        return true;
+                    }
+                    restricted = true;
+                } else if (type.equals(Ontology.PROMOTED_BY)) {
+                    promotions++;
+                } else {
+                    demotions++;
+                }
+            }
+            return !restricted || promotions > demotions;
+        }
+
+        Iterable<Vertex> verts = v.getVertices(Direction.OUT,
+                Ontology.IS_ACCESSIBLE_TO);
+        // If there's no Access conditions, it's
+        // read-only...
+        if (!verts.iterator().hasNext()) {
+            return true;
+        }
+        // If it's promoted it's publicly accessible
+        if (isPromoted(v)) {
+            return true;
+        }
+        // Otherwise, check relevant accessors...
+        for (Vertex other : verts) {
+            if (accessors.contains(other)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static boolean isPromoted(Vertex v) {
         int promotions = Iterables.size(v.getEdges(Direction.OUT, Ontology.PROMOTED_BY));
         return promotions > 0
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.acl;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.definitions.Entities;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.Group;
+import eu.ehri.project.models.annotations.EntityType;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable, pre-computed view of all the permission grants held
+ * by an accessor and the groups it belongs to, either directly or by
+ * inheritance.
+ * <p>
+ * Content type grants are held as bit sets indexed by content type and
+ * permission type, with one set for unscoped grants and one for each
+ * scope in which scoped grants exist. Item grants are held as masks of
+ * permission types keyed by the item's graph-internal id. A grant of a
+ * permission type sets the bit for every permission type it implies,
+ * so that {@link PermissionType#OWNER} also sets the bits for create,
+ * update, delete and annotate.
+ */
+final class CompiledPermissions {
+
+    static final CompiledPermissions NONE = new CompiledPermissions(false,
+            new BitSet(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+
+    private static final PermissionType[] PERMISSION_TYPES = PermissionType.values();
+
+    private final boolean admin;
+    private final BitSet global;
+    private final Map<Object, BitSet> scoped;
+    private final Map<Object, Integer> items;
+    private final Map<Object, Map<Object, Integer>> scopedItems;
+
+    private CompiledPermissions(boolean admin, BitSet global, Map<Object, BitSet> scoped,
+            Map<Object, Integer> items, Map<Object, Map<Object, Integer>> scopedItems) {
+        this.admin = admin;
+        this.global = global;
+        this.scoped = scoped;
+        this.items = items;
+        this.scopedItems = scopedItems;
+    }
+
+    /**
+     * Compile the permissions of an accessor vertex by ascending its
+     * group hierarchy and collecting the grants of each member.
+     *
+     * @param accessor an accessor vertex
+     * @return the accessor's compiled permissions
+     */
+    static CompiledPermissions of(Vertex accessor) {
+        boolean admin = false;
+        BitSet global = new BitSet();
+        Map<Object, BitSet> scoped = Maps.newHashMap();
+        Map<Object, Integer> items = Maps.newHashMap();
+        Map<Object, Map<Object, Integer>> scopedItems = Maps.newHashMap();
+
+        Set<Object> seen = Sets.newHashSet(accessor.getId());
+        Deque<Vertex> queue = new ArrayDeque<>();
+        queue.add(accessor);
+        while (!queue.isEmpty()) {
+            Vertex current = queue.poll();
+            admin = admin || Group.ADMIN_GROUP_IDENTIFIER.equals(
+                    current.getProperty(Ontology.IDENTIFIER_KEY));
+            for (Vertex grant : current.getVertices(Direction.IN, Ontology.PERMISSION_GRANT_HAS_SUBJECT)) {
+                Vertex permission = first(grant, Ontology.PERMISSION_GRANT_HAS_PERMISSION);
+                if (permission == null) {
+                    continue;
+                }
+                int mask = impliedMask(PermissionType
+                        .withName(permission.getProperty(EntityType.ID_KEY)));
+                Vertex scope = first(grant, Ontology.PERMISSION_GRANT_HAS_SCOPE);
+                for (Vertex target : grant.getVertices(Direction.OUT, Ontology.PERMISSION_GRANT_HAS_TARGET)) {
+                    if (Entities.CONTENT_TYPE.equals(target.getProperty(EntityType.TYPE_KEY))) {
+                        ContentTypes contentType = ContentTypes.withName(target.getProperty(EntityType.ID_KEY));
+                        BitSet bits = scope == null
+                                ? global
+                                : scoped.computeIfAbsent(scope.getId(), k -> new BitSet());
+                        for (int i = 0; i < PERMISSION_TYPES.length; i++) {
+                            if ((mask & (1 << i)) != 0) {
+                                bits.set(index(contentType, PERMISSION_TYPES[i]));
+                            }
+                        }
+                    } else if (scope == null) {
+                        items.merge(target.getId(), mask, (a, b) -> a | b);
+                    } else {
+                        scopedItems.computeIfAbsent(target.getId(), k -> Maps.newHashMap())
+                                .merge(scope.getId(), mask, (a, b) -> a | b);
+                    }
+                }
+            }
+            for (Vertex parent : current.getVertices(Direction.OUT, Ontology.ACCESSOR_BELONGS_TO_GROUP)) {
+                if (seen.add(parent.getId())) {
+                    queue.add(parent);
+                }
+            }
+        }
+        return new CompiledPermissions(admin, global, scoped, items, scopedItems);
+    }
+
+    /**
+     * @return whether the accessor is, or belongs to, the admin group
+     */
+    boolean isAdmin() {
+        return admin;
+    }
+
+    /**
+     * Test for a permission on a content type.
+     *
+     * @param contentType    the content type
+     * @param permissionType the permission type
+     * @param scopeIds       the ids of the scopes in which scoped grants apply
+     * @return whether the permission is held
+     */
+    boolean hasPermission(ContentTypes contentType, PermissionType permissionType, Iterable<?> scopeIds) {
+        int index = index(contentType, permissionType);
+        if (admin || global.get(index)) {
+            return true;
+        }
+        if (!scoped.isEmpty()) {
+            for (Object scopeId : scopeIds) {
+                BitSet bits = scoped.get(scopeId);
+                if (bits != null && bits.get(index)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Test for a permission on an item, either granted on the item
+     * itself or on its content type.
+     *
+     * @param contentType    the item's content type
+     * @param itemId         the item's graph-internal id
+     * @param permissionType the permission type
+     * @param scopeIds       the ids of the scopes in which scoped grants
+     *                       apply. This is only iterated if the accessor
+     *                       holds scoped grants which might be relevant.
+     * @return whether the permission is held
+     */
+    boolean hasPermission(ContentTypes contentType, Object itemId, PermissionType permissionType,
+            Iterable<?> scopeIds) {
+        int index = index(contentType, permissionType);
+        int bit = 1 << permissionType.ordinal();
+        if (admin || global.get(index) || (items.getOrDefault(itemId, 0) & bit) != 0) {
+            return true;
+        }
+        Map<Object, Integer> itemScopes = scopedItems.getOrDefault(itemId, Collections.emptyMap());
+        if (!scoped.isEmpty() || !itemScopes.isEmpty()) {
+            for (Object scopeId : scopeIds) {
+                BitSet bits = scoped.get(scopeId);
+                if ((bits != null && bits.get(index))
+                        || (itemScopes.getOrDefault(scopeId, 0) & bit) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int index(ContentTypes contentType, PermissionType permissionType) {
+        return contentType.ordinal() * PERMISSION_TYPES.length + permissionType.ordinal();
+    }
+
+    private static int impliedMask(PermissionType granted) {
+        int mask = 0;
+        for (PermissionType permissionType : PERMISSION_TYPES) {
+            if (granted.contains(permissionType)) {
+                mask |= 1 << permissionType.ordinal();
+            }
+        }
+        return mask;
+    }
+
+    private static Vertex first(Vertex vertex, String label) {
+        for (Vertex other : vertex.getVertices(Direction.OUT, label)) {
+            return other;
+        }
+        return null;
+    }
+}
@@ -34,6 +34,19 @@ public interface EventsApi {
 
     EventsApi withRange(int offset, int limit);
 
+    /**
+     * Begin a stream after the event with the given ID, such as the
+     * last event of the last aggregate read. Since an aggregate never
+     * spans two events which are not aggregated together, the stream
+     * then continues with the next aggregate, and any offset applies
+     * from there, without the events before it being read.
+     *
+     * @param cursor the ID of an event
+     * @return a new events API
+     * @throws IllegalArgumentException if there is no such event
+     */
+    EventsApi withCursor(String cursor);
+
     EventsApi withUsers(String... users);
 
     EventsApi withEntityClasses(EntityClass... entityTypes);
@@ -44,6 +57,8 @@ public interface EventsApi {
 
     EventsApi withAggregation(Aggregation aggregation);
 
+    EventsApi withProfile(QueryProfile profile);
+
     // Discriminator for personalised events
     enum ShowType {
         watched, followed
@@ -72,6 +72,42 @@ public interface QueryApi {
      */
     QueryApi withStreaming(boolean stream);
 
+    /**
+     * Toggle estimated totals. Unless the exact total of a query
+     * is cached, or it turns out to be the last page, an unordered
+     * page of items of a given type gives as its total the number
+     * of items of that type, disregarding filters and ACL, rather
+     * than counting them.
+     *
+     * @param estimate whether an estimated total will do
+     * @return a new query with estimated totals enabled/disabled
+     */
+    QueryApi withEstimatedTotal(boolean estimate);
+
+    /**
+     * Switch to keyset paging. Instead of skipping a number of
+     * items, which must all be read and checked for visibility,
+     * the page begins after the item from which the given cursor
+     * was taken. Items are ordered as for offset paging, with their
+     * IDs as a final tie-breaker, and no total is counted.
+     *
+     * @param cursor a cursor given by {@link Page#getNextCursor()}
+     *               for a query with the same ordering, or an empty
+     *               string to begin with the first item
+     * @return a new query using keyset paging
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    QueryApi withCursor(String cursor);
+
+    /**
+     * Record the work done to answer this query in a profile.
+     *
+     * @param profile a profile, or {@link QueryProfile#none()} to
+     *                disable profiling
+     * @return a new query which records its work in the profile
+     */
+    QueryApi withProfile(QueryProfile profile);
+
     /**
      * Return a Page instance containing a total of total items, and an iterable
      * for the given page/count.
@@ -158,12 +194,18 @@ public interface QueryApi {
         private final int offset;
         private final int limit;
         private final long total;
+        private final String nextCursor;
 
-        public Page(Iterable<T> iterable, int offset, int limit, long total) {
+        public Page(Iterable<T> iterable, int offset, int limit, long total, String nextCursor) {
             this.iterable = iterable;
             this.total = total;
             this.offset = offset;
             this.limit = limit;
+            this.nextCursor = nextCursor;
+        }
+
+        public Page(Iterable<T> iterable, int offset, int limit, long total) {
+            this(iterable, offset, limit, total, null);
         }
 
         public Iterable<T> getIterable() {
@@ -182,6 +224,17 @@ public interface QueryApi {
             return limit;
         }
 
+        /**
+         * Get the cursor from which a keyset query can resume
+         * after the last item of this page.
+         *
+         * @return a cursor, or null if this is the last page or
+         * the query did not use keyset paging
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
         @Override
         public Iterator<T> iterator() {
             return iterable.iterator();
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.api;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * A record of the work done to answer a query: how many items
+ * passed through each stage of the query, and how long was spent
+ * in it.
+ * <p>
+ * A profile is filled in as the query's results are read, so
+ * it is only complete once they have been. Profiles which are
+ * not {@link #isEnabled() enabled} record nothing, and leave
+ * the streams given to them as they are.
+ */
+public final class QueryProfile {
+
+    /**
+     * The stages of a query.
+     */
+    public enum Stage {
+        /**
+         * Reading items from their source. The time of this stage
+         * is that spent reading items through every stage up to
+         * and including the last filter.
+         */
+        SCAN,
+        /**
+         * Checking the visibility of items to the accessor.
+         */
+        ACL,
+        /**
+         * Checking items' properties against the query filters.
+         */
+        FILTER,
+        /**
+         * Ordering the items and selecting the requested range.
+         */
+        SORT,
+        /**
+         * Writing the items out.
+         */
+        SERIALIZE
+    }
+
+    private static final QueryProfile NONE = new QueryProfile(false);
+
+    private final boolean enabled;
+    private final AtomicLongArray counts = new AtomicLongArray(Stage.values().length);
+    private final AtomicLongArray times = new AtomicLongArray(Stage.values().length);
+    private final List<Stage> order = Lists.newCopyOnWriteArrayList();
+    private volatile String source;
+    private volatile String index;
+
+    private QueryProfile(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Create a new, enabled, profile.
+     */
+    public QueryProfile() {
+        this(true);
+    }
+
+    /**
+     * Get a profile which records nothing.
+     *
+     * @return a disabled profile
+     */
+    public static QueryProfile none() {
+        return NONE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set a description of where the query's items are read from.
+     *
+     * @param source a description of the source
+     */
+    public void setSource(String source) {
+        if (enabled) {
+            this.source = source;
+        }
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Set a description of the index used to answer the query.
+     *
+     * @param index a description of the index query
+     */
+    public void setIndex(String index) {
+        if (enabled) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Get a description of the index used to answer the query.
+     *
+     * @return an index query, or null if no index was used
+     */
+    public String getIndex() {
+        return index;
+    }
+
+    /**
+     * Count the items which pass a stage of the query.
+     *
+     * @param stage the stage
+     * @param items the stage's output
+     * @param <T>   the item type
+     * @return the same items, counted as they are read
+     */
+    public <T> Iterable<T> count(Stage stage, Iterable<T> items) {
+        if (!enabled) {
+            return items;
+        }
+        addStage(stage);
+        return Iterables.transform(items, item -> {
+            counts.incrementAndGet(stage.ordinal());
+            return item;
+        });
+    }
+
+    /**
+     * Count the items which pass the last filtering stage of the
+     * query, and time how long they take to read.
+     *
+     * @param stage the last filtering stage
+     * @param items the stage's output
+     * @param <T>   the item type
+     * @return the same items, counted and timed as they are read
+     */
+    public <T> Iterable<T> read(Stage stage, Iterable<T> items) {
+        if (!enabled) {
+            return items;
+        }
+        addStage(stage);
+        return () -> new Iterator<T>() {
+            private final Iterator<T> iterator = time(items::iterator);
+
+            @Override
+            public boolean hasNext() {
+                return time(iterator::hasNext);
+            }
+
+            @Override
+            public T next() {
+                T item = time(iterator::next);
+                counts.incrementAndGet(stage.ordinal());
+                return item;
+            }
+        };
+    }
+
+    /**
+     * Run a stage of the query, excluding from its time any spent
+     * reading items from previous stages.
+     *
+     * @param stage the stage
+     * @param op    the stage's work
+     * @param <T>   the result type
+     * @return the result of the work
+     */
+    public <T> T time(Stage stage, Supplier<T> op) {
+        if (!enabled) {
+            return op.get();
+        }
+        long read = times.get(Stage.SCAN.ordinal());
+        long start = System.nanoTime();
+        T out = op.get();
+        long elapsed = System.nanoTime() - start;
+        addTime(stage, elapsed - (times.get(Stage.SCAN.ordinal()) - read));
+        return out;
+    }
+
+    /**
+     * Record an item which has been written out.
+     *
+     * @param nanos the time taken to write it
+     */
+    public void serialized(long nanos) {
+        if (enabled) {
+            addStage(Stage.SERIALIZE);
+            counts.incrementAndGet(Stage.SERIALIZE.ordinal());
+            addTime(Stage.SERIALIZE, nanos);
+        }
+    }
+
+    /**
+     * Record time spent in a stage.
+     *
+     * @param stage the stage
+     * @param nanos the time, in nanoseconds
+     */
+    public void addTime(Stage stage, long nanos) {
+        if (enabled) {
+            times.addAndGet(stage.ordinal(), nanos);
+        }
+    }
+
+    /**
+     * Get the number of items which passed a stage.
+     *
+     * @param stage the stage
+     * @return the number of items
+     */
+    public long getCount(Stage stage) {
+        return counts.get(stage.ordinal());
+    }
+
+    /**
+     * Get the number of items which were rejected by a stage,
+     * meaning they passed the previous one but not this.
+     *
+     * @param stage the stage
+     * @return the number of items, or zero for the first stage
+     * or stages which do not reject items
+     */
+    public long getRejected(Stage stage) {
+        int i = order.indexOf(stage);
+        if (i < 1 || stage == Stage.SORT || stage == Stage.SERIALIZE) {
+            return 0L;
+        }
+        return getCount(order.get(i - 1)) - getCount(stage);
+    }
+
+    /**
+     * Get the time spent in a stage.
+     *
+     * @param stage the stage
+     * @return the time, in nanoseconds
+     */
+    public long getTime(Stage stage) {
+        return times.get(stage.ordinal());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("source=").append(source)
+                .append("; index=").append(index == null ? "none" : index);
+        for (Stage stage : order) {
+            String name = stage.name().toLowerCase();
+            sb.append("; ").append(name).append('=').append(getCount(stage));
+            if (getRejected(stage) > 0) {
+                sb.append("; ").append(name).append("Rejected=").append(getRejected(stage));
+            }
+        }
+        for (Stage stage : Stage.values()) {
+            if (getTime(stage) > 0) {
+                sb.append("; ").append(stage.name().toLowerCase())
+                        .append("Ms=").append(String.format(Locale.ROOT, "%.3f", getTime(stage) / 1e6));
+            }
+        }
+        return sb.toString();
+    }
+
+    private void addStage(Stage stage) {
+        if (!order.contains(stage)) {
+            order.add(stage);
+        }
+    }
+
+    private <T> T time(Supplier<T> op) {
+        long start = System.nanoTime();
+        try {
+            return op.get();
+        } finally {
+            times.addAndGet(Stage.SCAN.ordinal(), System.nanoTime() - start);
+        }
+    }
+}
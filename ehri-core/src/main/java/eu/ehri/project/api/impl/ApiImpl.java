@@ -300,6 +300,7 @@ public class ApiImpl implements Api {
             public void addAccessorToGroup(Group group, Accessor userOrGroup) throws PermissionDenied {
                 ensureCanModifyGroupMembership(group, userOrGroup, accessor);
                 group.addMember(userOrGroup);
+                AclCache.getInstance(group.asVertex()).invalidateMembership();
                 // Log the action...
                 commitEvent(() -> actionManager.newEventContext(group,
                         accessor.as(Actioner.class), EventTypes.addGroup)
@@ -310,6 +311,7 @@ public class ApiImpl implements Api {
             public void removeAccessorFromGroup(Group group, Accessor userOrGroup) throws PermissionDenied {
                 ensureCanModifyGroupMembership(group, userOrGroup, accessor);
                 group.removeMember(userOrGroup);
+                AclCache.getInstance(group.asVertex()).invalidateMembership();
                 // Log the action...
                 commitEvent(() -> actionManager.newEventContext(group,
                         accessor.as(Actioner.class), EventTypes.removeGroup)
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+package eu.ehri.project.api.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.Graph;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Graph;
+import eu.ehri.project.persistence.BundleManager;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of exact query totals which is shared between requests,
+ * with one store per database.
+ * <p>
+ * Totals are keyed by a description of the query, which must include
+ * the visibility key of the accessor, the source of the items, and
+ * the filters, and belong to the label of the items' type. When a
+ * transaction is committed, the totals for the labels of the nodes it
+ * created, deleted, or changed the properties or relationships of are
+ * discarded. Since uncommitted changes would also make a total differ
+ * from the committed one, the cache is not used by transactions which
+ * have made changes.
+ * <p>
+ * Graphs which are not backed by Neo4j get an instance which
+ * caches nothing.
+ */
+final class CountCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(CountCache.class);
+
+    private static final int MAX_ENTRIES = 10000;
+
+    private static final CountCache UNCACHED = new CountCache(null, null);
+
+    private static final LoadingCache<GraphDatabaseService, Store> stores = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<GraphDatabaseService, Store>() {
+                @Override
+                public Store load(GraphDatabaseService database) {
+                    Store store = new Store(MAX_ENTRIES);
+                    database.registerTransactionEventHandler(store.new InvalidationHandler());
+                    return store;
+                }
+            });
+
+    /**
+     * A total stamped with the version of the data it was counted from.
+     */
+    private static final class Stamped {
+        private final long total;
+        private final long version;
+
+        private Stamped(long total, long version) {
+            this.total = total;
+            this.version = version;
+        }
+    }
+
+    private final Store store;
+    private final Neo4j2Graph graph;
+
+    private CountCache(Store store, Neo4j2Graph graph) {
+        this.store = store;
+        this.graph = graph;
+    }
+
+    /**
+     * Obtain the cache for the given graph.
+     *
+     * @param graph a base graph
+     * @return the cache instance
+     */
+    static CountCache getInstance(Graph graph) {
+        if (graph instanceof Neo4j2Graph) {
+            Neo4j2Graph neo4jGraph = (Neo4j2Graph) graph;
+            return new CountCache(stores.getUnchecked(neo4jGraph.getRawGraph()), neo4jGraph);
+        }
+        return UNCACHED;
+    }
+
+    /**
+     * Get the current version of the data with a given label. This
+     * must be read before a total is counted and passed to
+     * {@link #put(String, String, long, long)}, so a total counted
+     * concurrently with a change is not cached.
+     *
+     * @param label a node label
+     * @return the data version
+     */
+    long getVersion(String label) {
+        return store == null ? 0 : store.getVersion(label);
+    }
+
+    /**
+     * Fetch a cached total.
+     *
+     * @param label the label of the items counted
+     * @param key   a query description
+     * @return the total, if it is cached and current
+     */
+    Optional<Long> get(String label, String key) {
+        if (!isClean()) {
+            return Optional.empty();
+        }
+        Stamped entry = store.totals.getIfPresent(key);
+        return entry != null && entry.version == store.getVersion(label)
+                ? Optional.of(entry.total)
+                : Optional.empty();
+    }
+
+    /**
+     * Cache a total.
+     *
+     * @param label   the label of the items counted
+     * @param key     a query description
+     * @param total   the total
+     * @param version the data version read before counting
+     */
+    void put(String label, String key, long total, long version) {
+        if (isClean() && version == store.getVersion(label)) {
+            store.totals.put(key, new Stamped(total, version));
+        }
+    }
+
+    // Whether this graph is cached, and the current thread's
+    // transaction, if any, has not made any changes.
+    private boolean isClean() {
+        return store != null && !graph.hasChanges();
+    }
+
+    /**
+     * The totals cached for a database, and the versions of the
+     * data with each label.
+     */
+    private static final class Store {
+        private final Cache<String, Stamped> totals;
+        private final ConcurrentMap<String, AtomicLong> versions = Maps.newConcurrentMap();
+        // Incremented when changes cannot be attributed to labels.
+        private final AtomicLong base = new AtomicLong();
+
+        private Store(int maxEntries) {
+            this.totals = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+        }
+
+        // Each version only ever increases, so their sum changes
+        // whenever either does.
+        private long getVersion(String label) {
+            AtomicLong version = versions.get(label);
+            return base.get() + (version == null ? 0 : version.get());
+        }
+
+        private void invalidate(Collection<String> labels) {
+            if (labels == null) {
+                base.incrementAndGet();
+            } else {
+                for (String label : labels) {
+                    versions.computeIfAbsent(label, l -> new AtomicLong()).incrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Collect the labels of the nodes a transaction changes before it
+         * is committed, and once it has been, discard their totals.
+         */
+        private class InvalidationHandler extends TransactionEventHandler.Adapter<Set<String>> {
+            @Override
+            public Set<String> beforeCommit(TransactionData data) {
+                // Deleted nodes can no longer be read, but their labels
+                // are removed with them.
+                Map<Long, Set<String>> removed = Maps.newHashMap();
+                for (LabelEntry entry : data.removedLabels()) {
+                    removed.computeIfAbsent(entry.node().getId(), id -> Sets.newHashSet())
+                            .add(entry.label().name());
+                }
+                Set<String> labels = Sets.newHashSet();
+                for (LabelEntry entry : data.assignedLabels()) {
+                    labels.add(entry.label().name());
+                }
+                removed.values().forEach(labels::addAll);
+                for (Node node : data.deletedNodes()) {
+                    if (!removed.containsKey(node.getId())) {
+                        return null;
+                    }
+                }
+                // Stored content hashes cannot be queried.
+                for (PropertyEntry<Node> entry : Iterables.concat(
+                        data.assignedNodeProperties(), data.removedNodeProperties())) {
+                    if (!BundleManager.CONTENT_HASH_KEY.equals(entry.key())) {
+                        addLabels(data, entry.entity(), labels);
+                    }
+                }
+                for (Relationship rel : Iterables.concat(data.createdRelationships(), data.deletedRelationships())) {
+                    addLabels(data, rel.getStartNode(), labels);
+                    addLabels(data, rel.getEndNode(), labels);
+                }
+                return labels;
+            }
+
+            @Override
+            public void afterCommit(TransactionData data, Set<String> labels) {
+                logger.trace("Graph changed: invalidating cached totals for {}",
+                        labels == null ? "all labels" : labels);
+                invalidate(labels);
+            }
+
+            // Add the labels of a node which has not been deleted.
+            private void addLabels(TransactionData data, Node node, Set<String> labels) {
+                if (!data.isDeleted(node)) {
+                    for (Label label : node.getLabels()) {
+                        labels.add(label.name());
+                    }
+                }
+            }
+        }
+    }
+}
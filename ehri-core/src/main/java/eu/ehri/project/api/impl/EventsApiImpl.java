@@ -20,14 +20,17 @@
 package eu.ehri.project.api.impl;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
 import com.tinkerpop.gremlin.java.GremlinPipeline;
-import com.tinkerpop.pipes.PipeFunction;
 import eu.ehri.project.acl.AclManager;
 import eu.ehri.project.api.EventsApi;
+import eu.ehri.project.api.QueryProfile;
+import eu.ehri.project.api.QueryProfile.Stage;
 import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.core.GraphManagerFactory;
 import eu.ehri.project.definitions.EventTypes;
@@ -40,6 +43,7 @@ import eu.ehri.project.models.base.Actioner;
 import eu.ehri.project.models.base.Entity;
 import eu.ehri.project.models.base.Watchable;
 import eu.ehri.project.models.events.SystemEvent;
+import eu.ehri.project.models.events.SystemEventQueue;
 import eu.ehri.project.persistence.ActionManager;
 import eu.ehri.project.utils.pipes.AggregatorPipe;
 import org.slf4j.Logger;
@@ -71,8 +75,12 @@ public class EventsApiImpl implements EventsApi {
     private final Set<EventTypes> eventTypes;
     private final String from;
     private final String to;
+    private final String cursor;
+    private final String cursorTimestamp;
+    private final String until;
     private final Set<ShowType> showType;
     private final Aggregation aggregation;
+    private final QueryProfile profile;
 
     // Aggregator function that aggregates adjacent events by 'strict' similarity,
     // which in practice means:
@@ -82,6 +90,12 @@ public class EventsApiImpl implements EventsApi {
     private static final AggregatorPipe.AggregatorFunction<SystemEvent> strictAggregator =
             (a, b, count) -> ActionManager.sameAs(a, b);
 
+    // Strict aggregator function for streams which include all of each
+    // actioner's events in a range, where adjacent events are similar
+    // if and only if they were put in the same group when created.
+    private static final AggregatorPipe.AggregatorFunction<SystemEvent> groupAggregator =
+            (a, b, count) -> ActionManager.inSameGroup(a, b);
+
     // Aggregator function that aggregates adjacent events by actioner
     private static final AggregatorPipe.AggregatorFunction<SystemEvent> userAggregator =
             (a, b, count) -> count < MAX_AGGREGATION
@@ -98,8 +112,10 @@ public class EventsApiImpl implements EventsApi {
         private Set<EventTypes> eventTypes = Sets.newHashSet();
         private String from = null;
         private String to = null;
+        private String cursor = null;
         private Set<ShowType> showType = Sets.newHashSet();
         private Aggregation aggregation = Aggregation.strict;
+        private QueryProfile profile = QueryProfile.none();
 
         public Builder(FramedGraph<?> graph, Accessor accessor) {
             this.graph = graph;
@@ -117,8 +133,10 @@ public class EventsApiImpl implements EventsApi {
             this.eventTypes = Sets.newHashSet(eventsApi.eventTypes);
             this.from = eventsApi.from;
             this.to = eventsApi.to;
+            this.cursor = eventsApi.cursor;
             this.showType = Sets.newHashSet(eventsApi.showType);
             this.aggregation = eventsApi.aggregation;
+            this.profile = eventsApi.profile;
         }
 
         public Builder withRange(int offset, int limit) {
@@ -157,6 +175,11 @@ public class EventsApiImpl implements EventsApi {
             return this;
         }
 
+        public Builder withCursor(String cursor) {
+            this.cursor = cursor;
+            return this;
+        }
+
         public Builder withShowType(ShowType... showTypes) {
             this.showType.addAll(Lists.newArrayList(showTypes));
             return this;
@@ -167,6 +190,11 @@ public class EventsApiImpl implements EventsApi {
             return this;
         }
 
+        public Builder withProfile(QueryProfile profile) {
+            this.profile = profile;
+            return this;
+        }
+
         public EventsApi build() {
             return new EventsApiImpl(
                     graph,
@@ -179,8 +207,10 @@ public class EventsApiImpl implements EventsApi {
                     eventTypes,
                     from,
                     to,
+                    cursor,
                     showType,
-                    aggregation
+                    aggregation,
+                    profile
             );
         }
     }
@@ -196,8 +226,10 @@ public class EventsApiImpl implements EventsApi {
             Collection<EventTypes> eventTypes,
             String from,
             String to,
+            String cursor,
             Collection<ShowType> showType,
-            Aggregation aggregation) {
+            Aggregation aggregation,
+            QueryProfile profile) {
         this.graph = graph;
         this.accessor = accessor;
         this.actionManager = new ActionManager(graph);
@@ -210,9 +242,17 @@ public class EventsApiImpl implements EventsApi {
         this.eventTypes = Sets.newEnumSet(eventTypes, EventTypes.class);
         this.from = from;
         this.to = to;
+        this.cursor = cursor;
+        this.cursorTimestamp = cursor == null ? null : getCursorEvent().getTimestamp();
+        // Events after the cursor can be read from the end of the
+        // range or the cursor event, whichever is earlier.
+        this.until = cursorTimestamp != null
+                && (to == null || SystemEventQueue.TIMESTAMP_ORDER.compare(cursorTimestamp, to) < 0)
+                ? cursorTimestamp
+                : to;
         this.showType = Sets.newEnumSet(showType, ShowType.class);
         this.aggregation = aggregation;
-
+        this.profile = profile;
     }
 
     public EventsApiImpl(FramedGraph<?> graph, Accessor accessor) {
@@ -225,28 +265,24 @@ public class EventsApiImpl implements EventsApi {
                 Lists.newArrayList(),
                 null,
                 null,
+                null,
                 Lists.newArrayList(),
-                Aggregation.strict);
+                Aggregation.strict,
+                QueryProfile.none());
     }
 
     @Override
     public Iterable<SystemEvent> list() {
-        // Add optional filters for event type, item type, and asUser...
-        GremlinPipeline<SystemEvent, SystemEvent> pipe = new GremlinPipeline<>(initStream());
-
-        // Add additional generic filters
-        return setPipelineRange(applyAclFilter(filterEvents(pipe), accessor));
+        // Add optional filters for event type, item type, and asUser,
+        // and additional generic filters
+        return setPipelineRange(filterVisibleEvents(initStream()));
     }
 
     @Override
     public Iterable<List<SystemEvent>> aggregate() {
-        // Add optional filters for event type, item type, and asUser...
-        GremlinPipeline<SystemEvent, SystemEvent> pipe = new GremlinPipeline<>(initStream());
-
-        // Add additional generic filters
-        GremlinPipeline<SystemEvent, SystemEvent> aclFiltered =
-                applyAclFilter(filterEvents(pipe), accessor);
-        return setPipelineRange(aggregateFilter(aclFiltered));
+        // Add optional filters for event type, item type, and asUser,
+        // and additional generic filters
+        return setPipelineRange(aggregateFilter(filterVisibleEvents(initStream()), ids.isEmpty()));
     }
 
     /**
@@ -265,7 +301,7 @@ public class EventsApiImpl implements EventsApi {
     @Override
     public Iterable<List<SystemEvent>> aggregateAsUser(UserProfile asUser) {
         GremlinPipeline<SystemEvent, SystemEvent> pipe = getPersonalisedEvents(asUser, accessor);
-        return setPipelineRange(aggregateFilter(pipe));
+        return setPipelineRange(aggregateFilter(pipe, false));
     }
 
     /**
@@ -273,11 +309,17 @@ public class EventsApiImpl implements EventsApi {
      */
     @Override
     public Iterable<SystemEvent> listForItem(Accessible item) {
-        // Add optional filters for event type, item type, and asUser...
-        GremlinPipeline<SystemEvent, SystemEvent> pipe = new GremlinPipeline<>(item.getHistory());
-        // Add additional generic filters
-        GremlinPipeline<SystemEvent, SystemEvent> acl = applyAclFilter(filterEvents(pipe), accessor);
-        return setPipelineRange(acl);
+        // Add optional filters for event type, item type, and asUser,
+        // and additional generic filters
+        profile.setSource("events:history:" + item.getId());
+        // If no filter can hide any of the item's events, its history
+        // can be entered at the offset instead of at the start.
+        if (cursor == null && eventTypes.isEmpty() && ids.isEmpty() && entityTypes.isEmpty() && users.isEmpty()
+                && AclManager.belongsToAdmin(accessor)) {
+            return setPipelineRange(filterVisibleEvents(inTimeRange(
+                    actionManager.getHistory(item, until, Math.max(0, offset)))), 0);
+        }
+        return setPipelineRange(filterVisibleEvents(inTimeRange(actionManager.getHistory(item, until, 0))));
     }
 
     /**
@@ -285,11 +327,11 @@ public class EventsApiImpl implements EventsApi {
      */
     @Override
     public Iterable<List<SystemEvent>> aggregateForItem(Accessible item) {
-        // Add optional filters for event type, item type, and asUser...
-        GremlinPipeline<SystemEvent, SystemEvent> pipe = new GremlinPipeline<>(item.getHistory());
-        // Add additional generic filters
-        GremlinPipeline<SystemEvent, SystemEvent> acl = applyAclFilter(filterEvents(pipe), accessor);
-        return setPipelineRange(aggregateFilter(acl));
+        // Add optional filters for event type, item type, and asUser,
+        // and additional generic filters
+        profile.setSource("events:history:" + item.getId());
+        return setPipelineRange(aggregateFilter(filterVisibleEvents(inTimeRange(
+                actionManager.getHistory(item, until, 0))), false));
     }
 
     /**
@@ -300,13 +342,10 @@ public class EventsApiImpl implements EventsApi {
      */
     @Override
     public Iterable<List<SystemEvent>> aggregateActions(Actioner byUser) {
-        // Add optional filters for event type, item type, and asUser...
-        GremlinPipeline<SystemEvent, SystemEvent> pipe = new GremlinPipeline<>(
-                byUser.getActions());
-
-        // Add additional generic filters
-        GremlinPipeline<SystemEvent, SystemEvent> acl = applyAclFilter(filterEvents(pipe), accessor);
-        return setPipelineRange(aggregateFilter(acl));
+        // Add optional filters for event type, item type, and asUser,
+        // and additional generic filters
+        profile.setSource("events:actions:" + byUser.getId());
+        return setPipelineRange(aggregateFilter(filterVisibleEvents(inTimeRange(byUser.getActions())), ids.isEmpty()));
     }
 
     /**
@@ -317,17 +356,19 @@ public class EventsApiImpl implements EventsApi {
      */
     @Override
     public Iterable<SystemEvent> listByUser(UserProfile byUser) {
-        // Add optional filters for event type, item type, and asUser...
-        GremlinPipeline<SystemEvent, SystemEvent> pipe = new GremlinPipeline<>(
-                byUser.as(Actioner.class).getActions());
-
-        // Add additional generic filters
-        return setPipelineRange(applyAclFilter(filterEvents(pipe), accessor));
+        // Add optional filters for event type, item type, and asUser,
+        // and additional generic filters
+        profile.setSource("events:actions:" + byUser.getId());
+        return setPipelineRange(filterVisibleEvents(inTimeRange(byUser.as(Actioner.class).getActions())));
     }
 
     // Helpers
 
     private Iterable<SystemEvent> initStream() {
+        // Events are read newest-first, so a stream need only be read from
+        // the end of the time range until the start. The global queue can
+        // also seek straight to the end of the range.
+        //
         // If we're filtering the list for specific user's actions
         // it's much more efficient to aggregate the user(s) event
         // streams directly via than scanning the global one, even
@@ -335,58 +376,79 @@ public class EventsApiImpl implements EventsApi {
         // into a newest-first stream.
         if (users.isEmpty() && ids.isEmpty()) {
             // No item/user filter: scan the global queue...
-            return actionManager.getLatestGlobalEvents();
+            profile.setSource("events:global");
+            return actionManager.getLatestGlobalEvents(from, until);
         } else {
             List<Actioner> actioners = getItems(users, Actioner.class);
             List<Accessible> entities = getItems(ids, Accessible.class);
             if (actioners.size() == 1) {
                 // Single user: return user's action queue
-                return actioners.get(0).getActions();
+                profile.setSource("events:actions:" + actioners.get(0).getId());
+                return inTimeRange(actioners.get(0).getActions());
             } else if (entities.size() == 1) {
                 // Single item: return item's history queue
-                return entities.get(0).getHistory();
+                profile.setSource("events:history:" + entities.get(0).getId());
+                return inTimeRange(actionManager.getHistory(entities.get(0), until, 0));
             } else if (actioners.size() > 1) {
                 // Merge multiple user action queues
+                profile.setSource("events:actions:" + actioners.size() + " users");
                 List<Iterable<SystemEvent>> actions = Lists.newArrayList();
                 for (Actioner actioner : actioners) {
                     actions.add(actioner.getActions());
                 }
-                return mergeEventQueues(actions);
+                return inTimeRange(mergeEventQueues(actions));
             } else {
                 // Merge multiple item history queues
+                profile.setSource("events:history:" + entities.size() + " items");
                 List<Iterable<SystemEvent>> histories = Lists.newArrayList();
                 for (Accessible entity : entities) {
-                    histories.add(entity.getHistory());
+                    histories.add(actionManager.getHistory(entity, until, 0));
                 }
-                return mergeEventQueues(histories);
+                return inTimeRange(mergeEventQueues(histories));
             }
         }
     }
 
     private Iterable<SystemEvent> mergeEventQueues(List<Iterable<SystemEvent>> queues) {
         return Iterables.mergeSorted(queues,
-                (event1, event2) -> event2.getTimestamp().compareTo(event1.getTimestamp()));
+                (event1, event2) -> SystemEventQueue.TIMESTAMP_ORDER.compare(
+                        event2.getTimestamp(), event1.getTimestamp()));
+    }
+
+    private Iterable<SystemEvent> inTimeRange(Iterable<SystemEvent> events) {
+        return ActionManager.inTimeRange(events, from, until);
+    }
+
+    private GremlinPipeline<SystemEvent, SystemEvent> filterVisibleEvents(Iterable<SystemEvent> source) {
+        Iterable<SystemEvent> events = afterCursor(source);
+        if (!profile.isEnabled()) {
+            return applyAclFilter(filterEvents(new GremlinPipeline<>(events)), accessor);
+        }
+        // Count the events read, and those passing each stage...
+        GremlinPipeline<SystemEvent, SystemEvent> filtered = filterEvents(
+                new GremlinPipeline<>(profile.count(Stage.SCAN, events)));
+        GremlinPipeline<SystemEvent, SystemEvent> visible = applyAclFilter(
+                new GremlinPipeline<>(profile.count(Stage.FILTER, filtered)), accessor);
+        return new GremlinPipeline<>(profile.read(Stage.ACL, visible));
     }
 
     private GremlinPipeline<SystemEvent, SystemEvent> applyAclFilter(GremlinPipeline<SystemEvent, SystemEvent> pipe,
             Accessor asUser) {
-        final PipeFunction<Vertex, Boolean> aclFilterTest = AclManager.getAclFilterFunction(asUser);
-
         // Filter items accessible to this asUser... hide the
         // event if any subjects or the scope are inaccessible
-        // to the asUser.
-        return pipe.filter(event -> {
+        // to the asUser. Events are checked in batches since
+        // many consecutive events tend to share subjects.
+        return new GremlinPipeline<>(AclManager.filterVisible(pipe, event -> {
+            List<Vertex> vertices = Lists.newArrayList();
             Entity eventScope = event.getEventScope();
-            if (eventScope != null && !aclFilterTest.compute(eventScope.asVertex())) {
-                return false;
+            if (eventScope != null) {
+                vertices.add(eventScope.asVertex());
             }
             for (Accessible e : event.getSubjects()) {
-                if (!aclFilterTest.compute(e.asVertex())) {
-                    return false;
-                }
+                vertices.add(e.asVertex());
             }
-            return true;
-        });
+            return vertices;
+        }, asUser));
     }
 
     private GremlinPipeline<SystemEvent, SystemEvent> filterEvents(
@@ -425,28 +487,13 @@ public class EventsApiImpl implements EventsApi {
             });
         }
 
-        // Add from/to filters (depends on timestamp strings comparing the right way!
-        if (from != null) {
-            pipe = pipe.filter(event -> {
-                String timestamp = event.getTimestamp();
-                return timestamp.compareTo(from) >= 0;
-            });
-        }
-
-        if (to != null) {
-            pipe = pipe.filter(event -> {
-                String timestamp = event.getTimestamp();
-                return timestamp.compareTo(to) <= 0;
-            });
-        }
-
         return pipe;
     }
 
     private GremlinPipeline<SystemEvent, SystemEvent> getPersonalisedEvents(UserProfile asUser, Accessor accessor) {
         // Add optional filters for event type, item type, and asUser...
         GremlinPipeline<SystemEvent, SystemEvent> pipe = new GremlinPipeline<>(
-                actionManager.getLatestGlobalEvents());
+                afterCursor(actionManager.getLatestGlobalEvents(from, until)));
 
         // Add additional generic filters
         pipe = filterEvents(pipe);
@@ -528,6 +575,12 @@ public class EventsApiImpl implements EventsApi {
                 .withEventTypes(eventTypes).build();
     }
 
+    @Override
+    public EventsApi withCursor(String cursor) {
+        return new EventsApiImpl.Builder(this)
+                .withCursor(cursor).build();
+    }
+
     @Override
     public EventsApi withShowType(ShowType... type) {
         return new EventsApiImpl.Builder(this)
@@ -540,10 +593,32 @@ public class EventsApiImpl implements EventsApi {
                 .withAggregation(aggregation).build();
     }
 
-    private GremlinPipeline<SystemEvent, List<SystemEvent>> aggregateFilter(GremlinPipeline<SystemEvent, SystemEvent> pipeline) {
+    @Override
+    public EventsApi withProfile(QueryProfile profile) {
+        return new EventsApiImpl.Builder(this)
+                .withProfile(profile).build();
+    }
+
+    /**
+     * Aggregate a stream of events.
+     *
+     * @param pipeline the stream
+     * @param complete whether the stream's source includes every event
+     *                 by each of its actioners within the time range, so
+     *                 that, unless filters hide some, adjacent events by
+     *                 the same actioner are adjacent in their actions
+     * @return a stream of aggregated events
+     */
+    private GremlinPipeline<SystemEvent, List<SystemEvent>> aggregateFilter(
+            GremlinPipeline<SystemEvent, SystemEvent> pipeline, boolean complete) {
         switch (aggregation) {
             case strict:
-                return pipeline.add(new AggregatorPipe<>(strictAggregator));
+                // Aggregation groups only join events which are adjacent in
+                // their actioner's actions, so events from streams which can
+                // omit some between them must be compared directly.
+                boolean grouped = complete && eventTypes.isEmpty() && entityTypes.isEmpty()
+                        && AclManager.belongsToAdmin(accessor);
+                return pipeline.add(new AggregatorPipe<>(grouped ? groupAggregator : strictAggregator));
             case user:
                 return pipeline.add(new AggregatorPipe<>(userAggregator));
             default:
@@ -553,6 +628,10 @@ public class EventsApiImpl implements EventsApi {
     }
 
     private <E, S> GremlinPipeline<E, S> setPipelineRange(GremlinPipeline<E, S> filter) {
+        return setPipelineRange(filter, offset);
+    }
+
+    private <E, S> GremlinPipeline<E, S> setPipelineRange(GremlinPipeline<E, S> filter, int offset) {
         int low = Math.max(0, offset);
         if (limit < 0) {
             // No way to skip a bunch of items in Gremlin without
@@ -567,6 +646,32 @@ public class EventsApiImpl implements EventsApi {
         }
     }
 
+    private SystemEvent getCursorEvent() {
+        try {
+            return manager.getEntity(cursor, SystemEvent.class);
+        } catch (ItemNotFound e) {
+            throw new IllegalArgumentException("Invalid event cursor: " + cursor);
+        }
+    }
+
+    // Skip the cursor event, and any events before it with the same
+    // timestamp, those with later ones being outside the time range.
+    private Iterable<SystemEvent> afterCursor(Iterable<SystemEvent> events) {
+        if (cursor == null) {
+            return events;
+        }
+        return () -> {
+            PeekingIterator<SystemEvent> iterator = Iterators.peekingIterator(events.iterator());
+            while (iterator.hasNext() && SystemEventQueue.TIMESTAMP_ORDER
+                    .compare(cursorTimestamp, iterator.peek().getTimestamp()) == 0) {
+                if (iterator.next().getId().equals(cursor)) {
+                    break;
+                }
+            }
+            return iterator;
+        };
+    }
+
     private <T> List<T> getItems(Collection<String> itemIds, Class<T> cls) {
         List<T> items = Lists.newArrayList();
         for (String itemId : itemIds) {
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.api.impl;
+
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.pipes.util.structures.Pair;
+import eu.ehri.project.api.QueryApi.FilterPredicate;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+
+/**
+ * A set of filters, compiled once so they can be tested against
+ * many vertices.
+ * <p>
+ * The filter value is parsed up front into each form it could be
+ * compared in: numeric properties are compared by value, ISO dates
+ * by time, booleans by value, and other strings lexically. Regular
+ * expressions and case-insensitive searches are compiled into
+ * patterns. A multi-valued property matches if any of its values
+ * does.
+ */
+final class FilterMatcher {
+
+    // Returned when a property value cannot be compared with a filter value.
+    private static final int INCOMPARABLE = Integer.MIN_VALUE;
+
+    private static final Pattern ISO_DATE = Pattern.compile("^[+-]?\\d{4,}-\\d{2}-\\d{2}(T.*)?$");
+    private static final DateTimeFormatter dateParser = ISODateTimeFormat.dateTimeParser()
+            .withOffsetParsed();
+
+    private final String[] keys;
+    private final Condition[] conditions;
+
+    private FilterMatcher(String[] keys, Condition[] conditions) {
+        this.keys = keys;
+        this.conditions = conditions;
+    }
+
+    /**
+     * Compile a set of filters.
+     *
+     * @param filters a map of property keys to a predicate and value
+     * @return a filter matcher
+     * @throws IllegalArgumentException if a filter value cannot be
+     *                                  used with its predicate
+     */
+    static FilterMatcher compile(SortedMap<String, Pair<FilterPredicate, Object>> filters) {
+        String[] keys = new String[filters.size()];
+        Condition[] conditions = new Condition[filters.size()];
+        int i = 0;
+        for (Map.Entry<String, Pair<FilterPredicate, Object>> filter : filters.entrySet()) {
+            keys[i] = filter.getKey();
+            conditions[i] = new Condition(filter.getValue().getA(), filter.getValue().getB());
+            i++;
+        }
+        return new FilterMatcher(keys, conditions);
+    }
+
+    /**
+     * Test whether a vertex matches every filter.
+     *
+     * @param vertex a vertex
+     * @return whether the vertex has all the filtered properties
+     * and each of them matches its filter
+     */
+    boolean matches(Vertex vertex) {
+        for (int i = 0; i < keys.length; i++) {
+            Object value = vertex.getProperty(keys[i]);
+            if (value == null || !conditions[i].matchesAny(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A single predicate and its value, parsed into each of the
+     * forms in which it can be compared.
+     */
+    private static final class Condition {
+        private final FilterPredicate predicate;
+        private final String string;
+        private final BigDecimal number;
+        private final Boolean bool;
+        private final DateTime date;
+        private final Pattern pattern;
+
+        private Condition(FilterPredicate predicate, Object value) {
+            if (value == null) {
+                throw new IllegalArgumentException("Null value for filter predicate: " + predicate);
+            }
+            this.predicate = predicate;
+            this.string = value.toString();
+            this.number = value instanceof Number ? toNumber((Number) value) : parseNumber(string);
+            this.bool = value instanceof Boolean ? (Boolean) value : parseBoolean(string);
+            this.date = parseDate(string);
+            this.pattern = compilePattern(predicate, string);
+        }
+
+        private boolean matchesAny(Object value) {
+            if (value instanceof Iterable) {
+                for (Object item : (Iterable<?>) value) {
+                    if (item != null && matches(item)) {
+                        return true;
+                    }
+                }
+                return false;
+            } else if (value.getClass().isArray()) {
+                for (int i = 0; i < Array.getLength(value); i++) {
+                    Object item = Array.get(value, i);
+                    if (item != null && matches(item)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return matches(value);
+        }
+
+        private boolean matches(Object value) {
+            switch (predicate) {
+                case EQUALS:
+                case GT:
+                case GTE:
+                case LT:
+                case LTE:
+                    return compares(compare(value));
+                case IEQUALS:
+                    return value.toString().equalsIgnoreCase(string);
+                case STARTSWITH:
+                    return value.toString().startsWith(string);
+                case ENDSWITH:
+                    return value.toString().endsWith(string);
+                case CONTAINS:
+                    return value.toString().contains(string);
+                case ICONTAINS:
+                    return pattern.matcher(value.toString()).find();
+                case MATCHES:
+                    return pattern.matcher(value.toString()).matches();
+                default:
+                    throw new RuntimeException("Unexpected filter predicate: " + predicate);
+            }
+        }
+
+        private boolean compares(int cmp) {
+            if (cmp == INCOMPARABLE) {
+                return false;
+            }
+            switch (predicate) {
+                case GT:
+                    return cmp > 0;
+                case GTE:
+                    return cmp >= 0;
+                case LT:
+                    return cmp < 0;
+                case LTE:
+                    return cmp <= 0;
+                default:
+                    return cmp == 0;
+            }
+        }
+
+        // Compare a property value with the filter value, in the
+        // form determined by the type of the property.
+        private int compare(Object value) {
+            if (value instanceof Number) {
+                BigDecimal other = toNumber((Number) value);
+                return number == null || other == null ? INCOMPARABLE : Integer.signum(other.compareTo(number));
+            } else if (value instanceof Boolean) {
+                return bool == null ? INCOMPARABLE : Integer.signum(Boolean.compare((Boolean) value, bool));
+            } else if (date != null && predicate != FilterPredicate.EQUALS) {
+                DateTime other = parseDate(value.toString());
+                if (other != null) {
+                    return Integer.signum(other.compareTo(date));
+                }
+            }
+            return Integer.signum(value.toString().compareTo(string));
+        }
+
+        private static BigDecimal toNumber(Number value) {
+            if ((value instanceof Double || value instanceof Float)
+                    && !Double.isFinite(value.doubleValue())) {
+                return null;
+            }
+            return value instanceof BigDecimal
+                    ? (BigDecimal) value
+                    : value instanceof Double || value instanceof Float
+                    ? BigDecimal.valueOf(value.doubleValue())
+                    : BigDecimal.valueOf(value.longValue());
+        }
+
+        private static BigDecimal parseNumber(String value) {
+            try {
+                return new BigDecimal(value.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static Boolean parseBoolean(String value) {
+            return "true".equalsIgnoreCase(value)
+                    ? Boolean.TRUE
+                    : "false".equalsIgnoreCase(value) ? Boolean.FALSE : null;
+        }
+
+        private static Pattern compilePattern(FilterPredicate predicate, String value) {
+            switch (predicate) {
+                case ICONTAINS:
+                    return Pattern.compile(value,
+                            Pattern.LITERAL | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+                case MATCHES:
+                    return Pattern.compile(value);
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Test whether a filter value is a date, and is compared with
+     * property values by time rather than lexically.
+     *
+     * @param value a filter value
+     * @return whether the value is an ISO date
+     */
+    static boolean isDate(String value) {
+        return parseDate(value) != null;
+    }
+
+    private static DateTime parseDate(String value) {
+        if (!ISO_DATE.matcher(value).matches()) {
+            return null;
+        }
+        try {
+            return dateParser.parseDateTime(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -19,8 +19,9 @@
 
 package eu.ehri.project.api.impl;
 
-import com.google.common.collect.ComparisonChain;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
@@ -34,22 +35,29 @@ import eu.ehri.project.acl.AclManager;
 import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.core.GraphManagerFactory;
 import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.base.Accessor;
 import eu.ehri.project.models.base.Entity;
 import eu.ehri.project.models.utils.ClassUtils;
 import eu.ehri.project.api.QueryApi;
+import eu.ehri.project.api.QueryProfile;
+import eu.ehri.project.api.QueryProfile.Stage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.SortedMap;
+import java.util.function.Supplier;
 
 /**
  * Handles querying Entity entities with ACL semantics.
  */
 public final class QueryApiImpl implements QueryApi {
+    private static final Logger logger = LoggerFactory.getLogger(QueryApiImpl.class);
     private static final long NO_COUNT = -1L;
 
     private final int offset;
@@ -58,6 +66,9 @@ public final class QueryApiImpl implements QueryApi {
     private final Pair<String, Sort> defaultSort;
     private final SortedMap<String, Pair<FilterPredicate, Object>> filters;
     private final boolean stream;
+    private final String cursor;
+    private final boolean estimate;
+    private final QueryProfile profile;
 
     private final FramedGraph<?> graph;
     private final GraphManager manager;
@@ -71,7 +82,10 @@ public final class QueryApiImpl implements QueryApi {
             SortedMap<String, Sort> sort,
             Pair<String, Sort> defSort,
             SortedMap<String, Pair<FilterPredicate, Object>> filters,
-            boolean stream) {
+            boolean stream,
+            String cursor,
+            boolean estimate,
+            QueryProfile profile) {
         this.graph = graph;
         this.accessor = accessor;
         this.offset = offset;
@@ -80,12 +94,15 @@ public final class QueryApiImpl implements QueryApi {
         this.defaultSort = defSort;
         this.filters = ImmutableSortedMap.copyOf(filters);
         this.stream = stream;
+        this.cursor = cursor;
+        this.estimate = estimate;
+        this.profile = profile;
         manager = GraphManagerFactory.getInstance(graph);
     }
 
     public QueryApiImpl(FramedGraph<?> graph, Accessor accessor) {
         this(graph, accessor, 0, DEFAULT_LIMIT,
-                ImmutableSortedMap.of(), null, ImmutableSortedMap.of(), false);
+                ImmutableSortedMap.of(), null, ImmutableSortedMap.of(), false, null, false, QueryProfile.none());
     }
 
     /**
@@ -100,6 +117,9 @@ public final class QueryApiImpl implements QueryApi {
         private Pair<String, Sort> defSort = null;
         private SortedMap<String, Pair<FilterPredicate, Object>> filters = ImmutableSortedMap.of();
         private boolean stream;
+        private String cursor;
+        private boolean estimate;
+        private QueryProfile profile = QueryProfile.none();
 
         Builder setSort(SortedMap<String, Sort> sort) {
             this.sort = sort;
@@ -114,6 +134,9 @@ public final class QueryApiImpl implements QueryApi {
             this.defSort = query.defaultSort;
             this.filters = query.filters;
             this.stream = query.stream;
+            this.cursor = query.cursor;
+            this.estimate = query.estimate;
+            this.profile = query.profile;
         }
 
         Builder setFilters(SortedMap<String, Pair<FilterPredicate, Object>> filters) {
@@ -151,8 +174,24 @@ public final class QueryApiImpl implements QueryApi {
             return this;
         }
 
+        public Builder setCursor(String cursor) {
+            this.cursor = cursor;
+            return this;
+        }
+
+        public Builder setEstimate(boolean estimate) {
+            this.estimate = estimate;
+            return this;
+        }
+
+        public Builder setProfile(QueryProfile profile) {
+            this.profile = profile;
+            return this;
+        }
+
         public QueryApiImpl build() {
-            return new QueryApiImpl(graph, accessor, offset, limit, sort, defSort, filters, stream);
+            return new QueryApiImpl(graph, accessor, offset, limit, sort, defSort, filters, stream, cursor,
+                    estimate, profile);
         }
     }
 
@@ -198,6 +237,24 @@ public final class QueryApiImpl implements QueryApi {
         return new Builder(this).setStream(stream).build();
     }
 
+    @Override
+    public QueryApiImpl withEstimatedTotal(boolean estimate) {
+        return new Builder(this).setEstimate(estimate).build();
+    }
+
+    @Override
+    public QueryApiImpl withCursor(String cursor) {
+        QueryApiImpl query = new Builder(this).setCursor(cursor).build();
+        // Fail early if the cursor is no good...
+        query.getCursorValues(query.getKeysetSort());
+        return query;
+    }
+
+    @Override
+    public QueryApiImpl withProfile(QueryProfile profile) {
+        return new Builder(this).setProfile(profile).build();
+    }
+
     /**
      * Wrapper method for FramedVertexIterables that converts a
      * {@code FramedVertexIterable<T>} back into a plain {@code Iterable<Vertex>}.
@@ -239,48 +296,148 @@ public final class QueryApiImpl implements QueryApi {
 
     @Override
     public <E extends Entity> Page<E> page(EntityClass type, Class<E> cls) {
-        return page(manager.getEntities(type, cls), cls);
+        // If possible, let the database take care of filtering and
+        // ordering the items, since it can use its indices...
+        SortKeys order = cursor != null ? getKeysetSort() : SortKeys.of(getSort());
+        Optional<QueryPlan> plan = QueryPlan.forType(graph.getBaseGraph(), type, filters,
+                order, cursor != null ? getCursorValues(order) : null);
+        String source = "type:" + type.getName();
+        Supplier<Optional<Long>> estimator = () -> Optional.of(manager.countVertices(type));
+        profile.setSource(source);
+        if (plan.isPresent()) {
+            logger.trace("Query plan: {}", plan.get());
+            profile.setIndex(plan.get().toString());
+            CloseableIterable<Vertex> results = plan.get().execute();
+            if (stream && cursor == null) {
+                // A streamed page is read lazily, so its results are
+                // closed once drained, or otherwise with the transaction.
+                return page(results, plan.get().getResidualFilters(), true, type, source, estimator, cls);
+            }
+            try (CloseableIterable<Vertex> read = results) {
+                return page(read, plan.get().getResidualFilters(), true, type, source, estimator, cls);
+            }
+        }
+        return page(new FramedVertexIterableAdaptor<>(manager.getEntities(type, cls)),
+                filters, false, type, source, estimator, cls);
     }
 
     @Override
     public <E extends Entity> Page<E> page(Iterable<? extends E> entities, Class<E> cls) {
-        PipeFunction<Vertex, Boolean> aclFilterFunction = AclManager.getAclFilterFunction(accessor);
+        profile.setSource("iterable");
+        return page(new FramedVertexIterableAdaptor<>(entities), filters, false, null, null, Optional::empty, cls);
+    }
 
-        GremlinPipeline<E, Vertex> pipeline = new GremlinPipeline<E, Vertex>(
-                new FramedVertexIterableAdaptor<>(entities))
-                .filter(aclFilterFunction);
+    /**
+     * Page a stream of vertices.
+     *
+     * @param vertices  the vertices
+     * @param filters   the filters to apply to the vertices
+     * @param ordered   whether the vertices are already in order
+     * @param type      the type of the vertices, or null if they are
+     *                  not all of one type
+     * @param source    a description of where the vertices came from,
+     *                  by which their total can be cached, or null if
+     *                  it cannot
+     * @param estimator a function returning an estimate of the total
+     * @param cls       the item class
+     * @return a page of items
+     */
+    private <E extends Entity> Page<E> page(Iterable<Vertex> vertices,
+            SortedMap<String, Pair<FilterPredicate, Object>> filters, boolean ordered,
+            EntityClass type, String source, Supplier<Optional<Long>> estimator, Class<E> cls) {
+        if (cursor != null) {
+            return seek(vertices, filters, ordered, cls);
+        }
+        GremlinPipeline<Vertex, Vertex> pipeline = profiled(setFilters(new GremlinPipeline<>(
+                profile.count(Stage.ACL, AclManager.filterVisible(
+                        profile.count(Stage.SCAN, vertices), accessor))), filters));
+        SortKeys order = SortKeys.of(ordered ? ImmutableSortedMap.of() : getSort());
 
         if (stream) {
-            return new Page<>(graph.frameVertices(
-                    setPipelineRange(setOrder(setFilters(pipeline))), cls), offset, limit, NO_COUNT);
-        } else {
-            // FIXME: We have to read the vertices into memory here since we
-            // can't re-use the iterator for counting and streaming.
-            ArrayList<Vertex> userVerts = Lists.newArrayList(setFilters(pipeline).iterator());
-            Iterable<E> iterable = graph.frameVertices(
-                    setPipelineRange(setOrder(new GremlinPipeline<>(userVerts))), cls);
-            return new Page<>(iterable, offset, limit, userVerts.size());
+            // If there's nothing to sort we can stream the range directly,
+            // otherwise we have to see every item before the range is known.
+            // Since the pipeline can only be read once, the range is then
+            // selected on first use and kept for any further iterations.
+            Supplier<List<Vertex>> selected = Suppliers.memoize(() -> profile.time(Stage.SORT,
+                    () -> SortedRange.select(pipeline, order, offset, limit)).getItems())::get;
+            Iterable<Vertex> range = order.isEmpty()
+                    ? setPipelineRange(pipeline)
+                    : () -> selected.get().iterator();
+            return new Page<>(graph.frameVertices(range, cls), offset, limit, NO_COUNT);
         }
+
+        // If the total is already known, or an estimate will do, and there's
+        // nothing to sort, only the range itself need be read...
+        CountCache counts = CountCache.getInstance(graph.getBaseGraph());
+        String label = type == null ? null : type.getName();
+        String countKey = source == null || label == null ? null : getCountKey(source);
+        Optional<Long> known = countKey == null ? Optional.empty() : counts.get(label, countKey);
+        boolean estimated = !known.isPresent() && estimate;
+        if (estimated) {
+            known = estimator.get();
+        }
+        long version = label == null ? 0 : counts.getVersion(label);
+        if (known.isPresent() && order.isEmpty()) {
+            List<Vertex> items = setPipelineRange(pipeline).toList();
+            long total = known.get();
+            if (estimated) {
+                // If this is the last page the total is exact after all.
+                int low = Math.max(0, offset);
+                boolean last = limit < 0 || items.size() < limit;
+                if (last && (low == 0 || !items.isEmpty())) {
+                    total = low + items.size();
+                    if (countKey != null) {
+                        counts.put(label, countKey, total, version);
+                    }
+                } else {
+                    total = Math.max(total, low + items.size());
+                }
+            }
+            return new Page<>(graph.frameVertices(items, cls), offset, limit, total);
+        }
+
+        // NB: We can't re-use the iterator for counting and streaming, so
+        // the range is read into memory while counting the total.
+        SortedRange range = profile.time(Stage.SORT, () -> SortedRange.select(pipeline, order, offset, limit));
+        if (countKey != null) {
+            counts.put(label, countKey, range.getTotal(), version);
+        }
+        return new Page<>(graph.frameVertices(range.getItems(), cls), offset, limit, range.getTotal());
+    }
+
+    private <E extends Entity> Page<E> seek(Iterable<Vertex> vertices,
+            SortedMap<String, Pair<FilterPredicate, Object>> filters, boolean ordered, Class<E> cls) {
+        SortKeys order = getKeysetSort();
+        Comparable<?>[] after = getCursorValues(order);
+
+        // Items up to and including the cursor position are dropped before
+        // their visibility is checked. If the stream is already in order we
+        // can stop once the page is full, otherwise the remaining items are
+        // ranked as they go by.
+        Iterable<Vertex> scanned = profile.count(Stage.SCAN, vertices);
+        Iterable<Vertex> remaining = after == null
+                ? scanned
+                : Iterables.filter(scanned, v -> order.compare(order.read(v), after) > 0);
+        GremlinPipeline<Vertex, Vertex> pipeline = profiled(setFilters(new GremlinPipeline<>(
+                profile.count(Stage.ACL, AclManager.filterVisible(remaining, accessor))), filters));
+        List<Vertex> items = ordered
+                ? Lists.newArrayList(limit < 0 ? pipeline : Iterables.limit(pipeline, limit))
+                : profile.time(Stage.SORT, () -> SortedRange.select(pipeline, order, 0, limit)).getItems();
+
+        String next = limit > 0 && items.size() == limit
+                ? order.encode(order.read(items.get(items.size() - 1)))
+                : null;
+        return new Page<>(graph.frameVertices(items, cls), 0, limit, NO_COUNT, next);
     }
 
     @Override
     public <E extends Entity> Page<E> page(String key, String query, Class<E> cls) {
-        try (CloseableIterable<Vertex> countQ = manager.getVertices(key, query,
-                ClassUtils.getEntityType(cls))) {
-            try (CloseableIterable<Vertex> indexQ = manager.getVertices(key,
-                    query, ClassUtils.getEntityType(cls))) {
-                PipeFunction<Vertex, Boolean> aclFilterFunction = AclManager.getAclFilterFunction(accessor);
-                long numItems = stream
-                        ? NO_COUNT
-                        : setFilters(new GremlinPipeline<Vertex, Vertex>(countQ)
-                        .filter(aclFilterFunction)).count();
-
-                return new Page<>(
-                        graph.frameVertices(
-                                setPipelineRange(setOrder(setFilters(new GremlinPipeline<Vertex, Vertex>(
-                                        indexQ).filter(aclFilterFunction)))),
-                                cls), offset, limit, numItems);
-            }
+        try (CloseableIterable<Vertex> indexQ = manager.getVertices(key,
+                query, ClassUtils.getEntityType(cls))) {
+            String source = "index:" + ClassUtils.getEntityType(cls).getName() + ":" + key + "=" + query;
+            profile.setSource(source);
+            profile.setIndex(source);
+            return page(indexQ, filters, false, ClassUtils.getEntityType(cls), source, Optional::empty, cls);
         }
     }
 
@@ -292,6 +449,9 @@ public final class QueryApiImpl implements QueryApi {
 
     @Override
     public long count(EntityClass type) {
+        if (filters.isEmpty()) {
+            return manager.countVertices(type);
+        }
         try (final CloseableIterable<Vertex> vertices = manager.getVertices(type)) {
             return count(vertices);
         }
@@ -314,82 +474,57 @@ public final class QueryApiImpl implements QueryApi {
         }
     }
 
-    private <EE> GremlinPipeline<EE, Vertex> setOrder(GremlinPipeline<EE, Vertex> pipe) {
+    private SortedMap<String, Sort> getSort() {
         ImmutableSortedMap<String, Sort> fallback = defaultSort != null
                 ? ImmutableSortedMap.of(defaultSort.getA(), defaultSort.getB())
                 : ImmutableSortedMap.of();
-        return pipe.order(getOrderFunction(sort.isEmpty() ? fallback : sort));
+        return sort.isEmpty() ? fallback : sort;
+    }
+
+    private SortKeys getKeysetSort() {
+        return SortKeys.of(getSort()).thenBy(EntityType.ID_KEY, Sort.ASC);
+    }
+
+    // A description of this query's results, for caching their total.
+    private String getCountKey(String source) {
+        StringBuilder key = new StringBuilder(AclManager.getVisibilityKey(accessor))
+                .append('|').append(source);
+        for (Entry<String, Pair<FilterPredicate, Object>> filter : filters.entrySet()) {
+            key.append('|').append(filter.getKey())
+                    .append(' ').append(filter.getValue().getA())
+                    .append(' ').append(filter.getValue().getB());
+        }
+        return key.toString();
+    }
+
+    private Comparable<?>[] getCursorValues(SortKeys order) {
+        return cursor == null || cursor.isEmpty() ? null : order.decode(cursor);
+    }
+
+    // Count the items which pass the filters, and time how long
+    // they take to read, if this query is being profiled.
+    private GremlinPipeline<Vertex, Vertex> profiled(GremlinPipeline<Vertex, Vertex> pipe) {
+        return profile.isEnabled()
+                ? new GremlinPipeline<>(profile.read(Stage.FILTER, pipe))
+                : pipe;
     }
 
     private <EE> GremlinPipeline<EE, Vertex> setFilters(GremlinPipeline<EE, Vertex> pipe) {
-        return filters.isEmpty() ? pipe : pipe.filter(getFilterFunction());
+        return setFilters(pipe, filters);
     }
 
-    //
-    // Get a PipeFunction which sorted vertices by the ordered list
-    // of sort parameters.
-    //
-    private PipeFunction<Pair<Vertex, Vertex>, Integer> getOrderFunction(final SortedMap<String, Sort> sort) {
-        final Ordering<Comparable<?>> order = Ordering.natural().nullsLast();
-        return pair -> {
-            ComparisonChain chain = ComparisonChain.start();
-            for (Entry<String, Sort> entry : sort.entrySet()) {
-                Vertex a = entry.getValue() == Sort.ASC ? pair.getA() : pair.getB();
-                Vertex b = entry.getValue() == Sort.ASC ? pair.getB() : pair.getA();
-                chain = chain.compare(
-                        a.getProperty(entry.getKey()),
-                        b.getProperty(entry.getKey()), order);
-            }
-            return chain.result();
-        };
+    private <EE> GremlinPipeline<EE, Vertex> setFilters(GremlinPipeline<EE, Vertex> pipe,
+            SortedMap<String, Pair<FilterPredicate, Object>> filters) {
+        return filters.isEmpty() ? pipe : pipe.filter(getFilterFunction(filters));
     }
 
     //
     // Create a function that filters nodes given a string and a predicate.
+    // The filters are compiled once, rather than for each node.
     //
-    private PipeFunction<Vertex, Boolean> getFilterFunction() {
-        return vertex -> {
-            for (Entry<String, Pair<FilterPredicate, Object>> entry : filters.entrySet()) {
-                String p = vertex.getProperty(entry.getKey());
-                if (p == null || !matches(p, entry.getValue()
-                        .getB(), entry.getValue().getA())) {
-                    return false;
-                }
-            }
-            return true;
-        };
-    }
-
-    // FIXME: This has several limitations so far.
-    // - only handles properties cast as strings
-    // - doesn't do case-insensitive regexp matching.
-    private boolean matches(String a, Object b, FilterPredicate predicate) {
-        switch (predicate) {
-            case EQUALS:
-                return a.equals(b);
-            case IEQUALS:
-                return a.equalsIgnoreCase(b.toString());
-            case STARTSWITH:
-                return a.startsWith(b.toString());
-            case ENDSWITH:
-                return a.endsWith(b.toString());
-            case CONTAINS:
-                return a.contains(b.toString());
-            case ICONTAINS:
-                return a.toLowerCase().contains(b.toString().toLowerCase());
-            case MATCHES:
-                return a.matches(b.toString());
-            case GT:
-                return a.compareTo(b.toString()) > 0;
-            case GTE:
-                return a.compareTo(b.toString()) >= 0;
-            case LT:
-                return a.compareTo(b.toString()) < 0;
-            case LTE:
-                return a.compareTo(b.toString()) <= 0;
-            default:
-                throw new RuntimeException("Unexpected filter predicate: "
-                        + predicate);
-        }
+    private PipeFunction<Vertex, Boolean> getFilterFunction(
+            final SortedMap<String, Pair<FilterPredicate, Object>> filters) {
+        final FilterMatcher matcher = FilterMatcher.compile(filters);
+        return matcher::matches;
     }
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.api.impl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.pipes.util.structures.Pair;
+import eu.ehri.project.api.QueryApi.FilterPredicate;
+import eu.ehri.project.api.QueryApi.Sort;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Graph;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Vertex;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.EntityType;
+import com.tinkerpop.frames.Property;
+import eu.ehri.project.models.utils.ClassUtils;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Result;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * A plan for listing items of a given type which pushes filters
+ * on indexed properties, and the result ordering, down into a
+ * parameterised Cypher query. This allows Neo4j to satisfy them
+ * via its schema indices instead of each vertex's properties
+ * being read and compared in turn.
+ * <p>
+ * Filters that cannot be pushed down, because the property is not
+ * indexed or the predicate cannot use an index, are left to be
+ * applied in memory to the query results. So are those which Cypher
+ * would evaluate differently to {@link FilterMatcher}: only filters
+ * on properties declared as strings are pushed down, as strings,
+ * and range filters whose value is a date, which the matcher compares
+ * by time rather than lexically, are not.
+ * <p>
+ * When resuming a listing from a cursor, items before the cursor's
+ * value of the leading sort key are skipped by the query too. Ties on
+ * that key, unless it is the item ID, are still compared on the
+ * following keys in memory.
+ */
+final class QueryPlan {
+
+    private static final String ITEM = "n";
+
+    // Predicates which Neo4j can answer with an index seek or scan.
+    private static final Set<FilterPredicate> INDEXABLE = Sets.immutableEnumSet(
+            FilterPredicate.EQUALS,
+            FilterPredicate.STARTSWITH,
+            FilterPredicate.ENDSWITH,
+            FilterPredicate.CONTAINS,
+            FilterPredicate.GT,
+            FilterPredicate.GTE,
+            FilterPredicate.LT,
+            FilterPredicate.LTE);
+
+    // Predicates which compare values by their order.
+    private static final Set<FilterPredicate> RANGE = Sets.immutableEnumSet(
+            FilterPredicate.GT,
+            FilterPredicate.GTE,
+            FilterPredicate.LT,
+            FilterPredicate.LTE);
+
+    // The indexed properties of each type which are declared as strings.
+    private static final Map<EntityClass, Set<String>> stringKeys = Maps.newEnumMap(EntityClass.class);
+
+    static {
+        for (EntityClass type : EntityClass.values()) {
+            stringKeys.put(type, getIndexedStringKeys(type.getJavaClass()));
+        }
+    }
+
+    private final Neo4j2Graph graph;
+    private final String cypher;
+    private final Map<String, Object> params;
+    private final SortedMap<String, Pair<FilterPredicate, Object>> residualFilters;
+
+    private QueryPlan(Neo4j2Graph graph, String cypher, Map<String, Object> params,
+            SortedMap<String, Pair<FilterPredicate, Object>> residualFilters) {
+        this.graph = graph;
+        this.cypher = cypher;
+        this.params = params;
+        this.residualFilters = residualFilters;
+    }
+
+    /**
+     * Plan a listing of items of a given type.
+     *
+     * @param graph   the base graph
+     * @param type    the item type
+     * @param filters the query filters
+     * @param sort    the query ordering
+     * @param after   the sort key values after which to resume,
+     *                or null to start at the beginning
+     * @return a plan, or nothing if the graph does not support Cypher
+     * or there are no filters or ordering which could be pushed down
+     */
+    static Optional<QueryPlan> forType(Graph graph, EntityClass type,
+            SortedMap<String, Pair<FilterPredicate, Object>> filters, SortKeys sort, Comparable<?>[] after) {
+        if (!(graph instanceof Neo4j2Graph)) {
+            return Optional.empty();
+        }
+
+        Set<String> indexed = stringKeys.get(type);
+        Map<String, Object> params = Maps.newHashMap();
+        ImmutableSortedMap.Builder<String, Pair<FilterPredicate, Object>> residual =
+                new ImmutableSortedMap.Builder<>(Ordering.natural());
+        StringBuilder where = new StringBuilder();
+        for (Entry<String, Pair<FilterPredicate, Object>> filter : filters.entrySet()) {
+            FilterPredicate predicate = filter.getValue().getA();
+            Object value = filter.getValue().getB();
+            if (indexed.contains(filter.getKey()) && INDEXABLE.contains(predicate)
+                    && !(RANGE.contains(predicate) && FilterMatcher.isDate(value.toString()))) {
+                String param = "p" + params.size();
+                params.put(param, value.toString());
+                where.append(where.length() == 0 ? " WHERE " : " AND ")
+                        .append(property(filter.getKey()))
+                        .append(operator(predicate))
+                        .append('$').append(param);
+            } else {
+                residual.put(filter.getKey(), filter.getValue());
+            }
+        }
+        if (after != null && !sort.isEmpty()) {
+            boolean nullable = !sort.getKey(0).equals(EntityType.ID_KEY)
+                    && !ClassUtils.getMandatoryPropertyKeys(type.getJavaClass()).contains(sort.getKey(0));
+            Optional<String> seek = seek(sort, after[0], nullable, params);
+            seek.ifPresent(cond -> where.append(where.length() == 0 ? " WHERE " : " AND ").append(cond));
+        }
+
+        if (params.isEmpty() && sort.isEmpty()) {
+            return Optional.empty();
+        }
+
+        StringBuilder cypher = new StringBuilder("MATCH (").append(ITEM).append(':')
+                .append(escape(type.getName())).append(')')
+                .append(where)
+                .append(" RETURN ").append(ITEM);
+        if (!sort.isEmpty()) {
+            cypher.append(" ORDER BY ");
+            for (int i = 0; i < sort.size(); i++) {
+                cypher.append(i == 0 ? "" : ", ")
+                        .append(property(sort.getKey(i))).append(' ').append(sort.getOrder(i));
+            }
+            // Break ties in node order, which is what an un-ordered
+            // label scan would otherwise return, unless the order is
+            // already unique.
+            if (!sort.getKey(sort.size() - 1).equals(EntityType.ID_KEY)) {
+                cypher.append(", id(").append(ITEM).append(')');
+            }
+        }
+        return Optional.of(new QueryPlan((Neo4j2Graph) graph, cypher.toString(), params, residual.build()));
+    }
+
+    /**
+     * Execute the plan. The query is run each time the returned
+     * iterable is iterated, and its result closed once drained
+     * or when the iterable is closed.
+     *
+     * @return an iterable of vertices
+     */
+    CloseableIterable<Vertex> execute() {
+        return new Results();
+    }
+
+    /**
+     * @return the filters which must still be applied to the results
+     */
+    SortedMap<String, Pair<FilterPredicate, Object>> getResidualFilters() {
+        return residualFilters;
+    }
+
+    @Override
+    public String toString() {
+        return cypher + " " + params;
+    }
+
+    // Get the keys of a type's indexed and mandatory properties, for
+    // which the graph manager creates schema indices, which are only
+    // declared as strings (or enums, which are stored by name.)
+    private static Set<String> getIndexedStringKeys(Class<?> cls) {
+        Set<String> keys = Sets.newHashSet(ClassUtils.getIndexedPropertyKeys(cls));
+        keys.addAll(ClassUtils.getMandatoryPropertyKeys(cls));
+        for (Method method : cls.getMethods()) {
+            Property property = method.getAnnotation(Property.class);
+            Class<?> returnType = method.getReturnType();
+            if (property != null && returnType != void.class
+                    && !returnType.equals(String.class) && !returnType.isEnum()) {
+                keys.remove(property.value());
+            }
+        }
+        return ImmutableSet.copyOf(keys);
+    }
+
+    // Get a condition which skips the items ordered before a cursor by
+    // the leading sort key, or nothing if none can be skipped. Items
+    // with no value for the key are ordered last when ascending and
+    // first when descending, as in memory.
+    private static Optional<String> seek(SortKeys sort, Object value, boolean nullable,
+            Map<String, Object> params) {
+        String key = property(sort.getKey(0));
+        boolean asc = sort.getOrder(0) == Sort.ASC;
+        if (value == null) {
+            return asc ? Optional.of(key + " IS NULL") : Optional.empty();
+        }
+        String param = "p" + params.size();
+        params.put(param, value);
+        boolean unique = sort.getKey(0).equals(EntityType.ID_KEY);
+        String bound = key + (asc
+                ? operator(unique ? FilterPredicate.GT : FilterPredicate.GTE)
+                : operator(unique ? FilterPredicate.LT : FilterPredicate.LTE)) + '$' + param;
+        return Optional.of(asc && nullable ? "(" + bound + " OR " + key + " IS NULL)" : bound);
+    }
+
+    private static String property(String key) {
+        return ITEM + "." + escape(key);
+    }
+
+    private static String escape(String name) {
+        return "`" + name.replace("`", "``") + "`";
+    }
+
+    private static String operator(FilterPredicate predicate) {
+        switch (predicate) {
+            case EQUALS:
+                return " = ";
+            case STARTSWITH:
+                return " STARTS WITH ";
+            case ENDSWITH:
+                return " ENDS WITH ";
+            case CONTAINS:
+                return " CONTAINS ";
+            case GT:
+                return " > ";
+            case GTE:
+                return " >= ";
+            case LT:
+                return " < ";
+            case LTE:
+                return " <= ";
+            default:
+                throw new IllegalArgumentException("Unindexable filter predicate: " + predicate);
+        }
+    }
+
+    /**
+     * The results of each run of the query, which are closed
+     * when they have been read or when the iterable is.
+     */
+    private final class Results implements CloseableIterable<Vertex> {
+        private final List<Result> results = Lists.newArrayList();
+
+        @Override
+        public Iterator<Vertex> iterator() {
+            graph.autoStartTransaction(false);
+            Result result = graph.getRawGraph().execute(cypher, params);
+            results.add(result);
+            return new Iterator<Vertex>() {
+                @Override
+                public boolean hasNext() {
+                    if (!result.hasNext()) {
+                        result.close();
+                        return false;
+                    }
+                    return true;
+                }
+
+                @Override
+                public Vertex next() {
+                    return new Neo4j2Vertex((Node) result.next().get(ITEM), graph);
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            results.forEach(Result::close);
+            results.clear();
+        }
+    }
+}
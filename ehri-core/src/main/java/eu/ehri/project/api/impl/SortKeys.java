@@ -0,0 +1,176 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+package eu.ehri.project.api.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ObjectArrays;
+import com.google.common.collect.Ordering;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.api.QueryApi.Sort;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.SortedMap;
+
+/**
+ * The keys by which a stream of vertices is ordered.
+ * <p>
+ * Besides comparing the keys of two vertices this can encode a
+ * vertex's keys as an opaque cursor string, and decode them again,
+ * so a subsequent query can resume after that vertex.
+ */
+final class SortKeys {
+
+    private static final Ordering<Comparable<?>> NATURAL = Ordering.natural().nullsLast();
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final String[] keys;
+    private final Sort[] orders;
+
+    private SortKeys(String[] keys, Sort[] orders) {
+        this.keys = keys;
+        this.orders = orders;
+    }
+
+    /**
+     * Get sort keys for a sort specification.
+     *
+     * @param sort the sort specification, which may be empty
+     * @return the sort keys
+     */
+    static SortKeys of(SortedMap<String, Sort> sort) {
+        return new SortKeys(sort.keySet().toArray(new String[sort.size()]),
+                sort.values().toArray(new Sort[sort.size()]));
+    }
+
+    /**
+     * Add a further key, by which items that are otherwise
+     * equal are ordered.
+     *
+     * @param key   a property key
+     * @param order the order of that key
+     * @return new sort keys
+     */
+    SortKeys thenBy(String key, Sort order) {
+        return new SortKeys(ObjectArrays.concat(keys, key), ObjectArrays.concat(orders, order));
+    }
+
+    boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    String getKey(int i) {
+        return keys[i];
+    }
+
+    Sort getOrder(int i) {
+        return orders[i];
+    }
+
+    /**
+     * Read the sort key values of a vertex.
+     *
+     * @param vertex a vertex
+     * @return an array of values, the same size as the keys
+     */
+    Comparable<?>[] read(Vertex vertex) {
+        Comparable<?>[] values = new Comparable<?>[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = vertex.getProperty(keys[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Compare two sets of sort key values.
+     *
+     * @param a the first set of values
+     * @param b the second set of values
+     * @return a negative number, zero, or a positive number as
+     * the first set of values sorts before, with, or after the
+     * second
+     */
+    int compare(Comparable<?>[] a, Comparable<?>[] b) {
+        for (int i = 0; i < keys.length; i++) {
+            int cmp = orders[i] == Sort.ASC
+                    ? compareValues(a[i], b[i])
+                    : compareValues(b[i], a[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Encode a set of sort key values as a cursor.
+     *
+     * @param values an array of values, as returned by {@link #read(Vertex)}
+     * @return an opaque, URL-safe, cursor string
+     */
+    String encode(Comparable<?>[] values) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mapper.writeValueAsBytes(values));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Sort key values cannot be encoded: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decode a cursor into a set of sort key values.
+     *
+     * @param cursor a cursor string, as returned by {@link #encode(Comparable[])}
+     * @return an array of values, the same size as the keys
+     * @throws IllegalArgumentException if the cursor is malformed or
+     *                                  does not match these keys
+     */
+    Comparable<?>[] decode(String cursor) {
+        Object[] values;
+        try {
+            values = mapper.readValue(Base64.getUrlDecoder().decode(cursor), Object[].class);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+        if (values == null || values.length != keys.length) {
+            throw new IllegalArgumentException("Cursor does not match the query order: " + cursor);
+        }
+        Comparable<?>[] out = new Comparable<?>[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && !(values[i] instanceof Comparable)) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            out[i] = (Comparable<?>) values[i];
+        }
+        return out;
+    }
+
+    // Numbers which have made a round trip through a cursor will
+    // not necessarily be of the same type as the stored property,
+    // so compare those by value.
+    private static int compareValues(Comparable<?> a, Comparable<?> b) {
+        if (a instanceof Number && b instanceof Number && !a.getClass().equals(b.getClass())) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        return NATURAL.compare(a, b);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.api.impl;
+
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Vertex;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Selects a range of items from a stream of vertices in a given order,
+ * counting the total as it goes.
+ * <p>
+ * Only the items which could fall within the range are retained:
+ * when the stream is ordered these are held in a bounded heap of
+ * {@code offset + limit} candidates, each with its sort keys read
+ * once up front, so memory use is proportional to the size of the
+ * range rather than the stream. Items which compare equal keep their
+ * original relative order.
+ */
+final class SortedRange {
+
+    private final List<Vertex> items;
+    private final long total;
+
+    private SortedRange(List<Vertex> items, long total) {
+        this.items = items;
+        this.total = total;
+    }
+
+    /**
+     * An item from the stream along with its sort keys and
+     * its position in the stream.
+     */
+    private static final class Candidate {
+        private final Vertex vertex;
+        private final Comparable<?>[] keys;
+        private final long position;
+
+        private Candidate(Vertex vertex, Comparable<?>[] keys, long position) {
+            this.vertex = vertex;
+            this.keys = keys;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Select a range of items.
+     *
+     * @param vertices a stream of vertices
+     * @param sort     the sort keys, which may be empty
+     * @param offset   the number of items to skip
+     * @param limit    the maximum number of items to select, or
+     *                 a negative number to select all items
+     * @return the selected range
+     */
+    static SortedRange select(Iterable<Vertex> vertices, SortKeys sort, int offset, int limit) {
+        int low = Math.max(0, offset);
+        long high = limit < 0 ? Long.MAX_VALUE : (long) low + limit;
+        return sort.isEmpty()
+                ? selectUnordered(vertices, low, high)
+                : selectOrdered(vertices, sort, low, high);
+    }
+
+    /**
+     * @return the items in the range, in order
+     */
+    List<Vertex> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the total number of items in the stream
+     */
+    long getTotal() {
+        return total;
+    }
+
+    private static SortedRange selectUnordered(Iterable<Vertex> vertices, int low, long high) {
+        List<Vertex> items = Lists.newArrayList();
+        long count = 0;
+        for (Vertex vertex : vertices) {
+            if (count >= low && count < high) {
+                items.add(vertex);
+            }
+            count++;
+        }
+        return new SortedRange(Collections.unmodifiableList(items), count);
+    }
+
+    private static SortedRange selectOrdered(Iterable<Vertex> vertices, SortKeys sort, int low, long high) {
+        Comparator<Candidate> comparator = (a, b) -> {
+            int cmp = sort.compare(a.keys, b.keys);
+            return cmp != 0 ? cmp : Long.compare(a.position, b.position);
+        };
+
+        // A heap with the greatest candidate at the head, so it
+        // can be evicted when a lesser one turns up.
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(
+                (int) Math.min(high, 1024) + 1, comparator.reversed());
+        long count = 0;
+        for (Vertex vertex : vertices) {
+            Candidate candidate = new Candidate(vertex, sort.read(vertex), count++);
+            if (heap.size() < high) {
+                heap.add(candidate);
+            } else if (high > 0 && comparator.compare(candidate, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+
+        List<Candidate> sorted = Lists.newArrayList(heap);
+        sorted.sort(comparator);
+        List<Vertex> items = Lists.newArrayListWithCapacity(Math.max(0, sorted.size() - low));
+        for (Candidate candidate : sorted.subList(Math.min(low, sorted.size()), sorted.size())) {
+            items.add(candidate.vertex);
+        }
+        return new SortedRange(Collections.unmodifiableList(items), count);
+    }
+}
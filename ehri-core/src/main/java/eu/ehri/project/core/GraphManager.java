@@ -144,6 +144,14 @@ public interface GraphManager {
      */
     CloseableIterable<Vertex> getVertices(EntityClass type);
 
+    /**
+     * Count the vertices with the given entity class.
+     *
+     * @param type The entity type
+     * @return The number of vertices belonging to that entity class
+     */
+    long countVertices(EntityClass type);
+
     /**
      * Get a CloseableIterable of vertices with the given ids.
      *
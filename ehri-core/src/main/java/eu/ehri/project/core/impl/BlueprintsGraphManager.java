@@ -151,6 +151,13 @@ public class BlueprintsGraphManager<T extends Graph> implements GraphManager {
                 graph.getVertices(EntityType.TYPE_KEY, type.getName()));
     }
 
+    @Override
+    public long countVertices(EntityClass type) {
+        try (CloseableIterable<Vertex> vertices = getVertices(type)) {
+            return Iterables.size(vertices);
+        }
+    }
+
     @Override
     public CloseableIterable<Vertex> getVertices(Iterable<String> ids) {
         Iterable<Vertex> verts = Iterables.transform(ids, id -> {
@@ -40,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -109,6 +110,23 @@ public final class Neo4jGraphManager<T extends Neo4j2Graph> extends BlueprintsGr
         return graph.getBaseGraph().getVerticesByLabel(type.getName());
     }
 
+    /**
+     * Count vertices by their type label. Neo4j answers this from
+     * its counts store, so it does not depend on the number of
+     * vertices.
+     *
+     * @param type The entity type
+     * @return The number of vertices belonging to that entity class
+     */
+    @Override
+    public long countVertices(EntityClass type) {
+        String label = "`" + type.getName().replace("`", "``") + "`";
+        try (CloseableIterable<Map<String, Object>> rows = graph.getBaseGraph()
+                .query("MATCH (n:" + label + ") RETURN count(n) AS count", Collections.emptyMap())) {
+            return ((Number) rows.iterator().next().get("count")).longValue();
+        }
+    }
+
     /**
      * Set labels on a Neo4j-based vertex.
      *
@@ -65,6 +65,7 @@ public class TxNeo4jGraph extends Neo4j2Graph implements TxGraph {
         }
         Transaction tx = getRawGraph().beginTx();
         this.tx.set(tx);
+        changed.remove();
         Neo4jTx t = new Neo4jTx();
         etx.set(t);
         return t;
@@ -93,13 +94,17 @@ public class TxNeo4jGraph extends Neo4j2Graph implements TxGraph {
     }
 
     /**
-     * This overridden function is now a no-op.
+     * This overridden function no longer starts a transaction, but
+     * still notes when the current one is used for a write.
      *
-     * @param forWrite unused parameter
+     * @param forWrite whether the graph is about to be changed
      */
     @Override
     public void autoStartTransaction(boolean forWrite) {
         // Not allowing auto-start TX
+        if (forWrite) {
+            changed.set(true);
+        }
     }
 
     /**
@@ -152,6 +157,7 @@ public class TxNeo4jGraph extends Neo4j2Graph implements TxGraph {
             transaction.close();
             tx.remove();
             etx.remove();
+            changed.remove();
         }
 
         public void failure() {
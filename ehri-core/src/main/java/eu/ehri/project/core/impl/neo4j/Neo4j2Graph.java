@@ -53,6 +53,14 @@ public class Neo4j2Graph implements TransactionalGraph, MetaGraph<GraphDatabaseS
         }
     };
 
+    // Whether the current thread's transaction has been used to
+    // change the graph.
+    protected final ThreadLocal<Boolean> changed = new ThreadLocal<Boolean>() {
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
     private static final Features FEATURES = new Features();
 
     static {
@@ -295,6 +303,7 @@ public class Neo4j2Graph implements TransactionalGraph, MetaGraph<GraphDatabaseS
         } finally {
             tx.get().close();
             tx.remove();
+            changed.remove();
         }
     }
 
@@ -309,6 +318,7 @@ public class Neo4j2Graph implements TransactionalGraph, MetaGraph<GraphDatabaseS
         } finally {
             tx.get().close();
             tx.remove();
+            changed.remove();
         }
     }
 
@@ -334,6 +344,19 @@ public class Neo4j2Graph implements TransactionalGraph, MetaGraph<GraphDatabaseS
         if (tx.get() == null) {
             tx.set(this.rawGraph.beginTx());
         }
+        if (forWrite) {
+            changed.set(true);
+        }
+    }
+
+    /**
+     * Whether the current thread's transaction has been used to change
+     * the graph, by way of this graph or its elements.
+     *
+     * @return whether there are uncommitted changes
+     */
+    public boolean hasChanges() {
+        return tx.get() != null && changed.get();
     }
 
     public GraphDatabaseService getRawGraph() {
@@ -115,7 +115,8 @@ public interface SystemEvent extends Accessible {
     Accessible getFirstSubject();
 
     /**
-     * Fetch the event chronologically prior to this one.
+     * Fetch the event prior to this one in its stripe of the global
+     * event queue, which holds the earlier events of the same thread.
      *
      * @return an event item
      */
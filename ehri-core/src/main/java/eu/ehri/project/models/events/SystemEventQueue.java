@@ -19,8 +19,10 @@
 
 package eu.ehri.project.models.events;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
-import com.tinkerpop.frames.Adjacency;
 import com.tinkerpop.frames.Property;
 import com.tinkerpop.frames.modules.javahandler.JavaHandler;
 import com.tinkerpop.frames.modules.javahandler.JavaHandlerContext;
@@ -31,15 +33,41 @@ import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.annotations.Mandatory;
 import eu.ehri.project.models.base.Entity;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * Class representing the system event queue node, of which
  * there Will Be Only One.
+ * <p>
+ * So that concurrent transactions do not all wait to add events
+ * at the same place, the queue is divided into stripes, each of
+ * which is a chain of events in most-recent-first order. The
+ * first is headed by the queue node itself, and the others by
+ * nodes linked from it.
  */
 @EntityType(EntityClass.SYSTEM)
 public interface SystemEventQueue extends Entity {
 
     String STREAM_START = Ontology.ACTIONER_HAS_LIFECYCLE_ACTION + "Stream";
+    String HAS_STRIPE = "hasEventStripe";
+
+    /**
+     * Orders event timestamps by the times they denote, which is not
+     * their string order if they were recorded with different UTC
+     * offsets, such as either side of a change to summer time.
+     * Timestamps which cannot be parsed are compared as strings.
+     */
+    Comparator<String> TIMESTAMP_ORDER = (ts1, ts2) -> {
+        try {
+            return Long.compare(ISODateTimeFormat.dateTimeParser().parseMillis(ts1),
+                    ISODateTimeFormat.dateTimeParser().parseMillis(ts2));
+        } catch (IllegalArgumentException e) {
+            return ts1.compareTo(ts2);
+        }
+    };
 
     /**
      * Fetch the time stamp of the queue initialisation.
@@ -55,7 +83,7 @@ public interface SystemEventQueue extends Entity {
      *
      * @return a system event frame
      */
-    @Adjacency(label = STREAM_START)
+    @JavaHandler
     SystemEvent getLatestEvent();
 
     /**
@@ -67,14 +95,38 @@ public interface SystemEventQueue extends Entity {
     Iterable<SystemEvent> getSystemEvents();
 
     abstract class Impl implements JavaHandlerContext<Vertex>, SystemEventQueue {
+        public SystemEvent getLatestEvent() {
+            Vertex latest = Iterables.getFirst(getEventVertices(), null);
+            return latest == null ? null : frame(latest);
+        }
+
         public Iterable<SystemEvent> getSystemEvents() {
-            Pipeline<Vertex,Vertex> otherPipe = gremlin().as("n")
+            return frameVertices(getEventVertices());
+        }
+
+        private Iterable<Vertex> getEventVertices() {
+            // NB: pipelines can only be iterated once, so the merged
+            // stripes are read from new ones each time.
+            List<Iterable<Vertex>> stripes = Lists.newArrayList();
+            Vertex queue = it();
+            stripes.add(() -> getStripeVertices(queue).iterator());
+            for (Vertex stripe : queue.getVertices(Direction.OUT, HAS_STRIPE)) {
+                stripes.add(() -> getStripeVertices(stripe).iterator());
+            }
+            return stripes.size() == 1
+                    ? stripes.get(0)
+                    : Iterables.mergeSorted(stripes, (v1, v2) -> TIMESTAMP_ORDER.compare(
+                    v2.getProperty(Ontology.EVENT_TIMESTAMP), v1.getProperty(Ontology.EVENT_TIMESTAMP)));
+        }
+
+        private Iterable<Vertex> getStripeVertices(Vertex stripe) {
+            Pipeline<Vertex,Vertex> otherPipe = gremlin(stripe).as("n")
                     .out(Ontology.ACTIONER_HAS_LIFECYCLE_ACTION)
                     .loop("n", JavaHandlerUtils.noopLoopFunc, JavaHandlerUtils.noopLoopFunc);
-            return frameVertices(gremlin()
+            return gremlin(stripe)
                     .out(STREAM_START).cast(Vertex.class)
-                    .copySplit(gremlin(), otherPipe)
-                    .exhaustMerge().cast(Vertex.class));
+                    .copySplit(gremlin(stripe), otherPipe)
+                    .exhaustMerge().cast(Vertex.class);
         }
     }
 }
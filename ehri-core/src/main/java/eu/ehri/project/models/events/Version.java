@@ -33,6 +33,7 @@ import eu.ehri.project.models.annotations.Fetch;
 import eu.ehri.project.models.annotations.Mandatory;
 import eu.ehri.project.models.base.Accessible;
 import eu.ehri.project.models.utils.JavaHandlerUtils;
+import eu.ehri.project.persistence.VersionManager;
 
 /**
  * Frame class representing a serialized version of
@@ -60,11 +61,12 @@ public interface Version extends Accessible {
     String getEntityId();
 
     /**
-     * Fetch a serialized snapshot of the item's data in JSON format.
+     * Fetch a serialized snapshot of the item's data in JSON format,
+     * which may need to be reconstructed from newer versions.
      *
      * @return JSON data representing a sub-graph
      */
-    @Property(Ontology.VERSION_ENTITY_DATA)
+    @JavaHandler
     String getEntityData();
 
     /**
@@ -89,6 +91,10 @@ public interface Version extends Accessible {
      * Implementation of complex methods.
      */
     abstract class Impl implements JavaHandlerContext<Vertex>, Version {
+        public String getEntityData() {
+            return VersionManager.getEntityData(it());
+        }
+
         public Accessible getEntity() {
             Pipeline<Vertex,Vertex> out =  gremlin().as("n").in(Ontology.ENTITY_HAS_PRIOR_VERSION)
                     .loop("n", JavaHandlerUtils.noopLoopFunc,
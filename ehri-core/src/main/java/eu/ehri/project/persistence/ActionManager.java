@@ -19,7 +19,12 @@
 
 package eu.ehri.project.persistence;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.CloseableIterable;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
@@ -27,8 +32,11 @@ import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.acl.SystemScope;
 import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.core.GraphManagerFactory;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Graph;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Vertex;
 import eu.ehri.project.definitions.EventTypes;
 import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.exceptions.IntegrityError;
 import eu.ehri.project.exceptions.ItemNotFound;
 import eu.ehri.project.exceptions.SerializationError;
 import eu.ehri.project.exceptions.ValidationError;
@@ -45,13 +53,17 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.joda.time.DateTime;
 import org.joda.time.Seconds;
 import org.joda.time.format.ISODateTimeFormat;
+import org.neo4j.graphdb.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Class for dealing with actions.
@@ -95,11 +107,58 @@ public final class ActionManager {
     public static final String EVENT_LINK = "EventLink";
     public static final String LINK_TYPE = "_linkType";
 
+    // Each link in an item's history is numbered from the oldest, and
+    // the one numbered n has a skip link to the one numbered n with its
+    // lowest set bit cleared (where that is not simply the next), so the
+    // history can be entered at any point in a number of steps
+    // logarithmic in its length.
+    static final String LINK_SEQUENCE = "_sequence";
+    static final String LINK_SKIP = Ontology.ENTITY_HAS_LIFECYCLE_EVENT + "Skip";
+
+    /**
+     * The number of stripes into which the global event queue is
+     * divided. Each thread adds its events to a stripe chosen at
+     * random, so a thread's events are kept in the order they were
+     * committed.
+     */
+    public static final int EVENT_QUEUE_STRIPES = 8;
+
+    private static final ThreadLocal<Integer> eventStripe = ThreadLocal.withInitial(
+            () -> ThreadLocalRandom.current().nextInt(EVENT_QUEUE_STRIPES));
+
+    // The stripe an event was added to, if not the first.
+    private static final String EVENT_STRIPE = "__stripe";
+
+    // The strict aggregation group of an event, which it shares with
+    // its actioner's previous events if they are the same as it.
+    private static final String EVENT_GROUP = "__aggregationGroup";
+
+    // Seek the latest event no later than a given time in each of
+    // the given stripes of the global queue, using the schema index
+    // on event timestamps. Since Neo4j must read all the events in
+    // the range to find them, windows of increasing numbers of days
+    // before that time are tried first.
+    private static final String LATEST_EVENTS_QUERY = String.format(
+            "MATCH (e:`%1$s`) WHERE e.`%2$s` <= $to AND coalesce(e.`%3$s`, 0) IN $stripes " +
+                    "WITH coalesce(e.`%3$s`, 0) AS stripe, max(e.`%2$s`) AS ts " +
+                    "MATCH (e:`%1$s` {`%2$s`: ts}) WHERE coalesce(e.`%3$s`, 0) = stripe RETURN stripe, e",
+            EntityClass.SYSTEM_EVENT.getName(), Ontology.EVENT_TIMESTAMP, EVENT_STRIPE);
+    private static final String LATEST_EVENTS_IN_WINDOW_QUERY = String.format(
+            "MATCH (e:`%1$s`) WHERE e.`%2$s` >= $from AND e.`%2$s` <= $to AND coalesce(e.`%3$s`, 0) IN $stripes " +
+                    "WITH coalesce(e.`%3$s`, 0) AS stripe, max(e.`%2$s`) AS ts " +
+                    "MATCH (e:`%1$s` {`%2$s`: ts}) WHERE coalesce(e.`%3$s`, 0) = stripe RETURN stripe, e",
+            EntityClass.SYSTEM_EVENT.getName(), Ontology.EVENT_TIMESTAMP, EVENT_STRIPE);
+    private static final int[] SEEK_WINDOW_DAYS = {1, 31, 366};
+    // How far past the start of a time range events are read, to
+    // catch any committed after later ones.
+    static final int TIME_RANGE_MARGIN_MINUTES = 10;
+
     private final FramedGraph<?> graph;
     private final GraphManager manager;
     private final Entity scope;
     private final Serializer versionSerializer;
     private final BundleManager dao;
+    private final VersionManager versionManager;
 
     /**
      * Constructor with scope.
@@ -113,6 +172,7 @@ public final class ActionManager {
         this.scope = Optional.ofNullable(scope).orElse(SystemScope.getInstance());
         this.versionSerializer = new Serializer.Builder(graph).dependentOnly().build();
         this.dao = new BundleManager(graph);
+        this.versionManager = new VersionManager(graph);
     }
 
     /**
@@ -256,7 +316,9 @@ public final class ActionManager {
                         Ontology.ENTITY_HAS_LIFECYCLE_EVENT,
                         Ontology.ENTITY_HAS_LIFECYCLE_EVENT, Direction.OUT);
                 addSubjectLink(systemEvent.asVertex(), subjectVertex);
+                addHistorySkipLink(subjectVertex);
             }
+            setAggregationGroup(systemEvent, vertex);
 
             // Create the version.
             if (!toVersion.isEmpty()) {
@@ -264,12 +326,18 @@ public final class ActionManager {
                     for (Pair<Entity, Bundle> entityBundle : toVersion) {
                         Entity subject = entityBundle.getKey();
                         Bundle version = entityBundle.getValue();
+                        Vertex prior = Iterables.getFirst(subject.asVertex().getVertices(
+                                Direction.OUT, Ontology.ENTITY_HAS_PRIOR_VERSION), null);
                         Version ev = dao.create(version, Version.class);
                         replaceAtHead(subject.asVertex(), ev.asVertex(),
                                 Ontology.ENTITY_HAS_PRIOR_VERSION,
                                 Ontology.ENTITY_HAS_PRIOR_VERSION, Direction.OUT);
                         graph.addEdge(null, ev.asVertex(),
                                 systemEvent.asVertex(), Ontology.VERSION_HAS_EVENT);
+                        if (prior != null) {
+                            versionManager.storeAsDelta(prior,
+                                    version.getDataValue(Ontology.VERSION_ENTITY_DATA));
+                        }
                     }
                 } catch (ValidationError validationError) {
                     throw new RuntimeException(validationError);
@@ -289,6 +357,39 @@ public final class ActionManager {
         }
     }
 
+    /**
+     * Get the ID of the node at the head of a stripe of the global
+     * event queue, other than the first.
+     *
+     * @param stripe the stripe number
+     * @return the node ID
+     */
+    public static String getEventStripeId(int stripe) {
+        return GLOBAL_EVENT_ROOT + "-" + stripe;
+    }
+
+    /**
+     * Create any of the stripes of the global event queue which do not
+     * yet exist. This is done when the graph is initialised; until it
+     * has been done for a graph initialised without them, all events
+     * are added to the first stripe.
+     */
+    public void createEventStripes() {
+        Vertex system = getEventRoot().asVertex();
+        for (int stripe = 1; stripe < EVENT_QUEUE_STRIPES; stripe++) {
+            if (!manager.exists(getEventStripeId(stripe))) {
+                logger.debug("Creating global event queue stripe: {}", stripe);
+                try {
+                    Vertex vertex = manager.createVertex(getEventStripeId(stripe), EntityClass.SYSTEM,
+                            ImmutableMap.of(Ontology.EVENT_TIMESTAMP, getTimestamp()));
+                    graph.addEdge(null, system, vertex, SystemEventQueue.HAS_STRIPE);
+                } catch (IntegrityError e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
     /**
      * Get the latest global event.
      *
@@ -314,6 +415,127 @@ public final class ActionManager {
         }
     }
 
+    /**
+     * Get an iterable of global events in most-recent-first order, with
+     * timestamps in a given range. Where the graph allows it the latest
+     * event in the range is found using the index on event timestamps,
+     * instead of every later event being read.
+     *
+     * @param from the earliest timestamp, inclusive, or null
+     * @param to   the latest timestamp, inclusive, or null
+     * @return an iterable of event nodes
+     */
+    public Iterable<SystemEvent> getLatestGlobalEvents(String from, String to) {
+        if (to == null || !(graph.getBaseGraph() instanceof Neo4j2Graph)) {
+            return inTimeRange(getLatestGlobalEvents(), from, to);
+        }
+        return inTimeRange(() -> {
+            List<Iterable<SystemEvent>> stripes = Lists.newArrayList();
+            for (Vertex start : findLatestEvents((Neo4j2Graph) graph.getBaseGraph(), to)) {
+                stripes.add(() -> new AbstractIterator<SystemEvent>() {
+                    private Vertex next = start;
+
+                    @Override
+                    protected SystemEvent computeNext() {
+                        if (next == null) {
+                            return endOfData();
+                        }
+                        Vertex current = next;
+                        next = Iterables.getFirst(current.getVertices(Direction.OUT,
+                                Ontology.ACTIONER_HAS_LIFECYCLE_ACTION), null);
+                        return graph.frame(current, SystemEvent.class);
+                    }
+                });
+            }
+            return Iterables.mergeSorted(stripes, (e1, e2) -> SystemEventQueue.TIMESTAMP_ORDER
+                    .compare(e2.getTimestamp(), e1.getTimestamp())).iterator();
+        }, from, to);
+    }
+
+    /**
+     * Get an item's events in most-recent-first order, skipping any
+     * later than a given time and then a given number of others. The
+     * item's history is entered at that point using its skip links,
+     * instead of every skipped event being read.
+     *
+     * @param item   an item
+     * @param to     the latest timestamp, inclusive, or null
+     * @param offset the number of events no later than that to skip
+     * @return an iterable of event nodes
+     */
+    public Iterable<SystemEvent> getHistory(Accessible item, String to, int offset) {
+        Vertex head = getOlderLink(item.asVertex());
+        if (head != null && getSequence(head) == null) {
+            // The item has had no events since its history was numbered.
+            return Iterables.skip(inTimeRange(item.getHistory(), null, to), offset);
+        }
+        return () -> new AbstractIterator<SystemEvent>() {
+            private Vertex next = head == null ? null : seekHistory(head, to, offset);
+
+            @Override
+            protected SystemEvent computeNext() {
+                if (next == null) {
+                    return endOfData();
+                }
+                Vertex current = next;
+                next = getOlderLink(current);
+                return graph.frame(getLinkedEvent(current), SystemEvent.class);
+            }
+        };
+    }
+
+    /**
+     * Limit an iterable of events in most-recent-first order, such as
+     * the global queue or an item's history, to those with timestamps
+     * in a given range.
+     * <p>
+     * Events are ordered by when they were committed, but timestamped
+     * when they were created, so an event can follow an earlier one in
+     * a slower transaction. Reading therefore continues past the start
+     * of the range until an event is found more than
+     * {@link #TIME_RANGE_MARGIN_MINUTES} minutes earlier. Events from
+     * transactions that took longer than that may be missed.
+     *
+     * @param events an iterable of event nodes
+     * @param from   the earliest timestamp, inclusive, or null
+     * @param to     the latest timestamp, inclusive, or null
+     * @return an iterable of event nodes
+     */
+    public static Iterable<SystemEvent> inTimeRange(Iterable<SystemEvent> events, String from, String to) {
+        if (from == null && to == null) {
+            return events;
+        }
+        String horizon = from == null ? null : getTimeRangeHorizon(from);
+        return () -> new AbstractIterator<SystemEvent>() {
+            private final Iterator<SystemEvent> iterator = events.iterator();
+
+            @Override
+            protected SystemEvent computeNext() {
+                while (iterator.hasNext()) {
+                    SystemEvent event = iterator.next();
+                    String timestamp = event.getTimestamp();
+                    if (from != null && SystemEventQueue.TIMESTAMP_ORDER.compare(timestamp, from) < 0) {
+                        if (SystemEventQueue.TIMESTAMP_ORDER.compare(timestamp, horizon) < 0) {
+                            break;
+                        }
+                    } else if (to == null || SystemEventQueue.TIMESTAMP_ORDER.compare(timestamp, to) <= 0) {
+                        return event;
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    private static String getTimeRangeHorizon(String from) {
+        try {
+            return ISODateTimeFormat.dateTime().print(ISODateTimeFormat.dateTimeParser()
+                    .withOffsetParsed().parseDateTime(from).minusMinutes(TIME_RANGE_MARGIN_MINUTES));
+        } catch (IllegalArgumentException e) {
+            return from;
+        }
+    }
+
     /**
      * Create an action node describing something that user U has done.
      *
@@ -464,18 +686,47 @@ public final class ActionManager {
     }
 
     public static boolean sameAs(SystemEvent event1, SystemEvent event2) {
-        return canAggregate(event1, event2, -1);
+        // Events in the same aggregation group are known to be the same.
+        Object group = event1.asVertex().getProperty(EVENT_GROUP);
+        return group != null && group.equals(event2.asVertex().getProperty(EVENT_GROUP))
+                || canAggregate(event1, event2, -1);
+    }
+
+    /**
+     * Test if two events belong to the same strict aggregation group,
+     * meaning they are the same and there are no different events by
+     * the same actioner between them. Events from before groups were
+     * assigned are compared with {@link #sameAs(SystemEvent, SystemEvent)}.
+     * <p>
+     * This only tells whether adjacent events in a stream are the same
+     * if the stream includes all of their actioner's events between them.
+     *
+     * @param event1 the first event
+     * @param event2 the second event
+     * @return whether the events can be aggregated
+     */
+    public static boolean inSameGroup(SystemEvent event1, SystemEvent event2) {
+        String group1 = event1.asVertex().getProperty(EVENT_GROUP);
+        String group2 = event2.asVertex().getProperty(EVENT_GROUP);
+        return group1 != null && group2 != null ? group1.equals(group2) : sameAs(event1, event2);
     }
 
     // Helpers.
 
     private SystemEvent createGlobalEvent(String timestamp, EventTypes type, Optional<String> logMessage) {
-        // Create a global event and insert it at the head of the system queue. The
-        // relationship from the *system* node to the new latest action is
-        // *type* Stream.
+        // Create a global event and insert it at the head of one of the stripes
+        // of the system queue. The relationship from the *system* node to the
+        // new latest action is *type* Stream.
         try {
             logger.trace("Creating global event root");
             Vertex system = manager.getVertex(GLOBAL_EVENT_ROOT);
+            int stripe = eventStripe.get();
+            Vertex head = stripe == 0 ? system : getEventStripe(stripe);
+            if (head == null) {
+                // The graph's stripes have not been created.
+                stripe = 0;
+                head = system;
+            }
             Bundle ge = Bundle.Builder.withClass(EntityClass.SYSTEM_EVENT)
                     .addDataValue(Ontology.EVENT_TYPE, type.toString())
                     .addDataValue(Ontology.EVENT_TIMESTAMP, timestamp)
@@ -485,7 +736,11 @@ public final class ActionManager {
             if (!scope.equals(SystemScope.getInstance())) {
                 ev.setEventScope(scope);
             }
-            replaceAtHead(system, ev.asVertex(), Ontology.ACTIONER_HAS_LIFECYCLE_ACTION + "Stream", Ontology.ACTIONER_HAS_LIFECYCLE_ACTION, Direction.OUT);
+            replaceAtHead(head, ev.asVertex(), SystemEventQueue.STREAM_START,
+                    Ontology.ACTIONER_HAS_LIFECYCLE_ACTION, Direction.OUT);
+            if (stripe != 0) {
+                ev.asVertex().setProperty(EVENT_STRIPE, stripe);
+            }
             return ev;
         } catch (ItemNotFound e) {
             e.printStackTrace();
@@ -498,6 +753,207 @@ public final class ActionManager {
         }
     }
 
+    private Vertex getEventStripe(int stripe) {
+        try {
+            return manager.getVertex(getEventStripeId(stripe));
+        } catch (ItemNotFound e) {
+            return null;
+        }
+    }
+
+    /**
+     * Find the latest event in each stripe of the global queue with a
+     * timestamp no later than the given one.
+     */
+    private List<Vertex> findLatestEvents(Neo4j2Graph base, String to) {
+        List<Vertex> events = Lists.newArrayList();
+        Set<Integer> pending = Sets.newHashSet();
+        Vertex system = getEventRoot().asVertex();
+        for (Vertex stripe : Iterables.concat(Collections.singleton(system),
+                system.getVertices(Direction.OUT, SystemEventQueue.HAS_STRIPE))) {
+            // Stripes whose latest event is early enough start there,
+            // and empty ones can be skipped.
+            Vertex latest = Iterables.getFirst(stripe.getVertices(Direction.OUT,
+                    SystemEventQueue.STREAM_START), null);
+            if (latest == null) {
+                continue;
+            }
+            if (SystemEventQueue.TIMESTAMP_ORDER.compare(latest.getProperty(Ontology.EVENT_TIMESTAMP), to) <= 0) {
+                events.add(latest);
+            } else {
+                Number number = latest.getProperty(EVENT_STRIPE);
+                pending.add(number == null ? 0 : number.intValue());
+            }
+        }
+        DateTime time = null;
+        try {
+            time = DateTime.parse(to);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Unable to parse timestamp for event seek window: {}", to);
+        }
+        for (int i = 0; i < SEEK_WINDOW_DAYS.length && time != null && !pending.isEmpty(); i++) {
+            String from = ISODateTimeFormat.date().print(time.minusDays(SEEK_WINDOW_DAYS[i]));
+            findEvents(base, LATEST_EVENTS_IN_WINDOW_QUERY, ImmutableMap.of(
+                    "from", from, "to", to, "stripes", Lists.newArrayList(pending)), pending, events);
+        }
+        if (!pending.isEmpty()) {
+            findEvents(base, LATEST_EVENTS_QUERY, ImmutableMap.of(
+                    "to", to, "stripes", Lists.newArrayList(pending)), pending, events);
+        }
+        // Events are added to each stripe in the order they are committed,
+        // so any with the same timestamp, or one which is out of order,
+        // may precede those found.
+        for (int i = 0; i < events.size(); i++) {
+            Vertex event = events.get(i);
+            Vertex newer;
+            while ((newer = Iterables.getFirst(event.getVertices(Direction.IN,
+                    Ontology.ACTIONER_HAS_LIFECYCLE_ACTION), null)) != null
+                    && SystemEventQueue.TIMESTAMP_ORDER.compare(newer.getProperty(Ontology.EVENT_TIMESTAMP), to) <= 0) {
+                event = newer;
+            }
+            events.set(i, event);
+        }
+        return events;
+    }
+
+    private static void findEvents(Neo4j2Graph graph, String query, Map<String, Object> params,
+            Set<Integer> pending, List<Vertex> events) {
+        try (CloseableIterable<Map<String, Object>> rows = graph.query(query, params)) {
+            for (Map<String, Object> row : rows) {
+                if (pending.remove(((Number) row.get("stripe")).intValue())) {
+                    events.add(new Neo4j2Vertex((Node) row.get("e"), graph));
+                }
+            }
+        }
+    }
+
+    /**
+     * Assign a new event to the aggregation group of its actioner's
+     * previous event, if they are the same, or else start a new one.
+     */
+    private void setAggregationGroup(SystemEvent event, Vertex actionerLink) {
+        Vertex priorLink = Iterables.getFirst(actionerLink.getVertices(Direction.OUT,
+                Ontology.ACTIONER_HAS_LIFECYCLE_ACTION), null);
+        Vertex prior = priorLink == null ? null : Iterables.getFirst(priorLink.getVertices(Direction.OUT,
+                Ontology.ACTION_HAS_EVENT), null);
+        String group = prior == null ? null : prior.getProperty(EVENT_GROUP);
+        event.asVertex().setProperty(EVENT_GROUP,
+                group != null && sameAs(graph.frame(prior, SystemEvent.class), event) ? group : event.getId());
+    }
+
+    /**
+     * Number a new link at the head of an item's history, and add its
+     * skip link. If the rest of the history has not been numbered,
+     * which is the case for items with events from before this was
+     * done, it is numbered first.
+     */
+    private void addHistorySkipLink(Vertex link) {
+        Vertex older = getOlderLink(link);
+        long sequence = 1;
+        if (older != null) {
+            Long olderSequence = getSequence(older);
+            sequence = (olderSequence != null ? olderSequence : numberHistory(older)) + 1;
+        }
+        link.setProperty(LINK_SEQUENCE, sequence);
+        long skip = getSkipSequence(sequence);
+        if (skip > 0) {
+            graph.addEdge(null, link, seekLink(older, skip), LINK_SKIP);
+        }
+    }
+
+    /**
+     * Number the links of an item's history, with their skip links,
+     * and return the number of the latest.
+     */
+    private long numberHistory(Vertex head) {
+        List<Vertex> links = Lists.newArrayList();
+        for (Vertex link = head; link != null; link = getOlderLink(link)) {
+            links.add(link);
+        }
+        logger.debug("Numbering item history with {} events", links.size());
+        int count = links.size();
+        for (int i = count - 1; i >= 0; i--) {
+            long sequence = count - i;
+            links.get(i).setProperty(LINK_SEQUENCE, sequence);
+            long skip = getSkipSequence(sequence);
+            if (skip > 0) {
+                graph.addEdge(null, links.get(i), links.get((int) (count - skip)), LINK_SKIP);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Find the link in a numbered history from which to read events,
+     * or null if there are none.
+     */
+    private static Vertex seekHistory(Vertex head, String to, int offset) {
+        Vertex link = head;
+        if (to != null) {
+            while (link != null && SystemEventQueue.TIMESTAMP_ORDER.compare(getLinkTimestamp(link), to) > 0) {
+                Vertex skip = Iterables.getFirst(link.getVertices(Direction.OUT, LINK_SKIP), null);
+                link = skip != null && SystemEventQueue.TIMESTAMP_ORDER.compare(getLinkTimestamp(skip), to) > 0
+                        ? skip
+                        : getOlderLink(link);
+            }
+            if (link == null) {
+                return null;
+            }
+            // Events are added to the history in the order they are committed,
+            // so one which is out of order may have been skipped over.
+            Vertex newer;
+            while ((newer = Iterables.getFirst(link.getVertices(Direction.IN,
+                    Ontology.ENTITY_HAS_LIFECYCLE_EVENT), null)) != null
+                    && getSequence(newer) != null
+                    && SystemEventQueue.TIMESTAMP_ORDER.compare(getLinkTimestamp(newer), to) <= 0) {
+                link = newer;
+            }
+        }
+        long target = getSequence(link) - offset;
+        return target > 0 ? seekLink(link, target) : null;
+    }
+
+    /**
+     * Find the link with the given number in a history, starting from
+     * a later one.
+     */
+    private static Vertex seekLink(Vertex link, long target) {
+        long sequence = getSequence(link);
+        while (sequence > target) {
+            long skip = getSkipSequence(sequence);
+            if (skip >= target) {
+                link = Iterables.getFirst(link.getVertices(Direction.OUT, LINK_SKIP), null);
+                sequence = skip;
+            } else {
+                link = getOlderLink(link);
+                sequence--;
+            }
+        }
+        return link;
+    }
+
+    private static long getSkipSequence(long sequence) {
+        long skip = sequence & (sequence - 1);
+        return skip < sequence - 1 ? skip : 0;
+    }
+
+    private static Vertex getOlderLink(Vertex link) {
+        return Iterables.getFirst(link.getVertices(Direction.OUT, Ontology.ENTITY_HAS_LIFECYCLE_EVENT), null);
+    }
+
+    private static Vertex getLinkedEvent(Vertex link) {
+        return Iterables.getFirst(link.getVertices(Direction.OUT, Ontology.ENTITY_HAS_EVENT), null);
+    }
+
+    private static String getLinkTimestamp(Vertex link) {
+        return getLinkedEvent(link).getProperty(Ontology.EVENT_TIMESTAMP);
+    }
+
+    private static Long getSequence(Vertex link) {
+        Number sequence = link.getProperty(LINK_SEQUENCE);
+        return sequence == null ? null : sequence.longValue();
+    }
+
     /**
      * Create a link vertex. This we stamp with a descriptive
      * type purely for debugging purposes.
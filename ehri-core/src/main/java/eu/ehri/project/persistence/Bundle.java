@@ -43,7 +43,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.BiPredicate;
@@ -62,6 +61,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * visible. Null values <i>are</i> however used in merge operations,
  * where the secondary bundle's null data values will indicate that
  * the key/value should be removed from the primary bundle's data.
+ * <p>
+ * Bundles are immutable. Their data is held compactly, with keys
+ * shared between all bundles of a type (see {@link BundleData}),
+ * and the <code>with*</code> methods share whatever they do not
+ * change with the original bundle.
  */
 public final class Bundle implements NestableData<Bundle> {
 
@@ -70,10 +74,14 @@ public final class Bundle implements NestableData<Bundle> {
     private final boolean temp;
     private final String id;
     private final EntityClass type;
-    private final Map<String, Object> data;
+    private final BundleData data;
     private final ImmutableMap<String, Object> meta;
     private final ImmutableListMultimap<String, Bundle> relations;
 
+    // Lazily computed, since bundles are immutable.
+    private int hashCode;
+    private String contentHash;
+
     /**
      * Serialization constant definitions
      */
@@ -182,7 +190,7 @@ public final class Bundle implements NestableData<Bundle> {
             Multimap<String, Bundle> relations, Map<String, Object> meta, boolean temp) {
         this.id = id;
         this.type = type;
-        this.data = filterData(data);
+        this.data = BundleData.of(type, data);
         this.meta = ImmutableMap.copyOf(meta);
         this.relations = ImmutableListMultimap.copyOf(relations);
         this.temp = temp;
@@ -308,9 +316,7 @@ public final class Bundle implements NestableData<Bundle> {
      */
     @Override
     public Bundle withDataValue(String key, Object value) {
-        Map<String, Object> newData = Maps.newHashMap(data);
-        newData.put(key, value);
-        return withData(newData);
+        return withData(data.with(key, value));
     }
 
     /**
@@ -338,9 +344,7 @@ public final class Bundle implements NestableData<Bundle> {
      */
     @Override
     public Bundle removeDataValue(String key) {
-        Map<String, Object> newData = Maps.newHashMap(data);
-        newData.remove(key);
-        return withData(newData);
+        return withData(data.without(key));
     }
 
     /**
@@ -349,7 +353,7 @@ public final class Bundle implements NestableData<Bundle> {
      * @return The full data map
      */
     public Map<String, Object> getData() {
-        return ImmutableMap.copyOf(Maps.filterValues(data, Objects::nonNull));
+        return data.withoutNulls();
     }
 
     /**
@@ -440,10 +444,8 @@ public final class Bundle implements NestableData<Bundle> {
      */
     @Override
     public Bundle withRelations(Multimap<String, Bundle> others) {
-        Multimap<String, Bundle> tmp = ArrayListMultimap
-                .create(relations);
-        tmp.putAll(others);
-        return new Bundle(id, type, data, tmp, meta, temp);
+        return new Bundle(id, type, data, ImmutableListMultimap.<String, Bundle>builder()
+                .putAll(relations).putAll(others).build(), meta, temp);
     }
 
     /**
@@ -466,10 +468,8 @@ public final class Bundle implements NestableData<Bundle> {
      */
     @Override
     public Bundle withRelations(String relation, List<Bundle> others) {
-        Multimap<String, Bundle> tmp = ArrayListMultimap
-                .create(relations);
-        tmp.putAll(relation, others);
-        return new Bundle(id, type, data, tmp, meta, temp);
+        return new Bundle(id, type, data, ImmutableListMultimap.<String, Bundle>builder()
+                .putAll(relations).putAll(relation, others).build(), meta, temp);
     }
 
     /**
@@ -481,10 +481,8 @@ public final class Bundle implements NestableData<Bundle> {
      */
     @Override
     public Bundle withRelation(String relation, Bundle other) {
-        Multimap<String, Bundle> tmp = ArrayListMultimap
-                .create(relations);
-        tmp.put(relation, other);
-        return new Bundle(id, type, data, tmp, meta, temp);
+        return new Bundle(id, type, data, ImmutableListMultimap.<String, Bundle>builder()
+                .putAll(relations).put(relation, other).build(), meta, temp);
     }
 
     /**
@@ -713,6 +711,18 @@ public final class Bundle implements NestableData<Bundle> {
         return DataConverter.streamToBundle(stream);
     }
 
+    /**
+     * Create a bundle from a stream containing data in the given format.
+     *
+     * @param stream An input stream
+     * @param format The format of the data
+     * @return A bundle
+     * @throws DeserializationError if the input stream is badly-formed
+     */
+    public static Bundle fromStream(InputStream stream, DataFormat format) throws DeserializationError {
+        return DataConverter.streamToBundle(stream, format);
+    }
+
     /**
      * Write a bundle to a JSON stream.
      *
@@ -724,6 +734,18 @@ public final class Bundle implements NestableData<Bundle> {
         DataConverter.bundleToStream(bundle, stream);
     }
 
+    /**
+     * Write a bundle to a stream in the given format.
+     *
+     * @param bundle the bundle
+     * @param stream the output stream
+     * @param format the format in which to write the data
+     * @throws SerializationError if the graph data cannot be serialized
+     */
+    public static void toStream(Bundle bundle, OutputStream stream, DataFormat format) throws SerializationError {
+        DataConverter.bundleToStream(bundle, stream, format);
+    }
+
     /**
      * Convert an input stream to a stream of bundles.
      *
@@ -735,6 +757,20 @@ public final class Bundle implements NestableData<Bundle> {
         return DataConverter.bundleStream(inputStream);
     }
 
+    /**
+     * Convert an input stream containing data in the given format
+     * to a stream of bundles.
+     *
+     * @param inputStream an input stream object
+     * @param format      the format of the data
+     * @return an iterable of bundle objects
+     * @throws DeserializationError if the input stream is badly-formed
+     */
+    public static CloseableIterable<Bundle> bundleStream(InputStream inputStream, DataFormat format)
+            throws DeserializationError {
+        return DataConverter.bundleStream(inputStream, format);
+    }
+
     @Override
     public String toString() {
         return "<" + getType() + ": '" + (id == null ? "?" : id) + "'> (" + getData() + " + Rels: " + relations + ")";
@@ -822,15 +858,45 @@ public final class Bundle implements NestableData<Bundle> {
         Bundle bundle = (Bundle) o;
 
         return type == bundle.type
+                && hashCode() == bundle.hashCode()
                 && unmanagedData(data).equals(unmanagedData(bundle.data))
                 && unorderedRelations(relations).equals(unorderedRelations(bundle.relations));
     }
 
     @Override
     public int hashCode() {
-        int result = type.hashCode();
-        result = 31 * result + unmanagedData(data).hashCode();
-        result = 31 * result + unorderedRelations(relations).hashCode();
+        int result = hashCode;
+        if (result == 0) {
+            result = type.hashCode();
+            result = 31 * result + unmanagedData(data).hashCode();
+            result = 31 * result + unorderedRelations(relations).hashCode();
+            hashCode = result;
+        }
+        return result;
+    }
+
+    /**
+     * Get a digest of the bundle's type, data and dependent relations
+     * which is stable between runs. As with equality, managed data and
+     * the order of related items are not taken into account, and nor
+     * are IDs or metadata. Bundles which are equal when only their
+     * dependent relations are considered have the same content hash.
+     *
+     * @return a hex string
+     */
+    public String getContentHash() {
+        String result = contentHash;
+        if (result == null) {
+            Map<String, Direction> dependents = ClassUtils.getDependentRelations(type.getJavaClass());
+            Multimap<String, String> hashes = ArrayListMultimap.create();
+            for (Map.Entry<String, Bundle> rel : relations.entries()) {
+                if (dependents.containsKey(rel.getKey())) {
+                    hashes.put(rel.getKey(), rel.getValue().getContentHash());
+                }
+            }
+            result = ContentHashes.hash(type, data, hashes);
+            contentHash = result;
+        }
         return result;
     }
 
@@ -849,21 +915,6 @@ public final class Bundle implements NestableData<Bundle> {
 
     // Helpers...
 
-    /**
-     * Return a copy of the given data map with enums converted to string values.
-     */
-    private Map<String, Object> filterData(Map<String, Object> data) {
-        Map<String, Object> filtered = Maps.newHashMap();
-        for (Map.Entry<? extends String, Object> entry : data.entrySet()) {
-            Object value = entry.getValue();
-            if (value instanceof Enum<?>) {
-                value = ((Enum<?>) value).name();
-            }
-            filtered.put(entry.getKey(), value);
-        }
-        return filtered;
-    }
-
     /**
      * Return a set of data with 'managed' items (prefixed by a particular
      * key) removed.
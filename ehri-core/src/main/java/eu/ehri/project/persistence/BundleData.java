@@ -0,0 +1,322 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.utils.ClassUtils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The immutable data map of a bundle.
+ * <p>
+ * Each type of entity has a schema of the property keys declared
+ * on its class, which is shared by all its bundles, so that values
+ * for those keys are held in an array of slots without storing the
+ * keys themselves. Other keys are interned and kept, with their
+ * values, in a pair of arrays sorted by key. Changing a value only
+ * copies the array which holds it, and shares the other with the
+ * original.
+ * <p>
+ * As with the data of a bundle, values may be null. These are not
+ * the same as absent values, and are given by the map's entries
+ * but not by {@link #withoutNulls()}. Enum values are stored as
+ * their names.
+ */
+final class BundleData extends AbstractMap<String, Object> {
+
+    private static final Object ABSENT = new Object();
+    private static final String[] NO_KEYS = new String[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private static final Interner<String> keys = Interners.newWeakInterner();
+
+    private static final Map<EntityClass, Schema> schemas = Maps.newEnumMap(EntityClass.class);
+
+    static {
+        for (EntityClass type : EntityClass.values()) {
+            schemas.put(type, new Schema(ClassUtils.getPropertyKeys(type.getJavaClass())));
+        }
+    }
+
+    /**
+     * The keys declared for a type of entity, and their slots.
+     */
+    private static final class Schema {
+        private final String[] keys;
+        private final Map<String, Integer> slots;
+        private final Object[] empty;
+
+        private Schema(Iterable<String> keys) {
+            List<String> sorted = Ordering.natural().sortedCopy(keys);
+            this.keys = sorted.toArray(NO_KEYS);
+            ImmutableMap.Builder<String, Integer> slots = ImmutableMap.builder();
+            for (int i = 0; i < this.keys.length; i++) {
+                slots.put(this.keys[i], i);
+            }
+            this.slots = slots.build();
+            this.empty = new Object[this.keys.length];
+            Arrays.fill(this.empty, ABSENT);
+        }
+
+        private int slot(Object key) {
+            Integer slot = slots.get(key);
+            return slot == null ? -1 : slot;
+        }
+    }
+
+    private final Schema schema;
+    private final Object[] values;
+    private final String[] extraKeys;
+    private final Object[] extraValues;
+    private final int size;
+    private final int nulls;
+
+    private BundleData(Schema schema, Object[] values, String[] extraKeys, Object[] extraValues) {
+        this.schema = schema;
+        this.values = values;
+        this.extraKeys = extraKeys;
+        this.extraValues = extraValues;
+        int size = extraKeys.length;
+        int nulls = 0;
+        for (Object value : values) {
+            if (value != ABSENT) {
+                size++;
+                if (value == null) {
+                    nulls++;
+                }
+            }
+        }
+        for (Object value : extraValues) {
+            if (value == null) {
+                nulls++;
+            }
+        }
+        this.size = size;
+        this.nulls = nulls;
+    }
+
+    /**
+     * Get the data for a type of entity.
+     *
+     * @param type the entity class
+     * @param data a map of data, which may contain null values
+     * @return an immutable data map; if the given map is one with
+     * the same schema, it is returned unchanged
+     */
+    static BundleData of(EntityClass type, Map<String, ?> data) {
+        Schema schema = schemas.get(type);
+        if (data instanceof BundleData && ((BundleData) data).schema == schema) {
+            return (BundleData) data;
+        }
+        Object[] values = schema.empty;
+        Map<String, Object> extra = null;
+        for (Map.Entry<String, ?> entry : data.entrySet()) {
+            String key = checkNotNull(entry.getKey());
+            int slot = schema.slot(key);
+            if (slot >= 0) {
+                if (values == schema.empty) {
+                    values = schema.empty.clone();
+                }
+                values[slot] = filterValue(entry.getValue());
+            } else {
+                if (extra == null) {
+                    extra = Maps.newTreeMap();
+                }
+                extra.put(keys.intern(key), filterValue(entry.getValue()));
+            }
+        }
+        return extra == null
+                ? new BundleData(schema, values, NO_KEYS, NO_VALUES)
+                : new BundleData(schema, values, extra.keySet().toArray(NO_KEYS), extra.values().toArray());
+    }
+
+    /**
+     * Get a copy of this data with the given value set.
+     *
+     * @param key   the data key
+     * @param value the value, which may be null
+     * @return a new data map
+     */
+    BundleData with(String key, Object value) {
+        checkNotNull(key);
+        int slot = schema.slot(key);
+        if (slot >= 0) {
+            Object[] newValues = values.clone();
+            newValues[slot] = filterValue(value);
+            return new BundleData(schema, newValues, extraKeys, extraValues);
+        }
+        int pos = Arrays.binarySearch(extraKeys, key);
+        if (pos >= 0) {
+            Object[] newExtraValues = extraValues.clone();
+            newExtraValues[pos] = filterValue(value);
+            return new BundleData(schema, values, extraKeys, newExtraValues);
+        }
+        int at = -(pos + 1);
+        String[] newExtraKeys = new String[extraKeys.length + 1];
+        Object[] newExtraValues = new Object[extraValues.length + 1];
+        System.arraycopy(extraKeys, 0, newExtraKeys, 0, at);
+        System.arraycopy(extraValues, 0, newExtraValues, 0, at);
+        newExtraKeys[at] = keys.intern(key);
+        newExtraValues[at] = filterValue(value);
+        System.arraycopy(extraKeys, at, newExtraKeys, at + 1, extraKeys.length - at);
+        System.arraycopy(extraValues, at, newExtraValues, at + 1, extraValues.length - at);
+        return new BundleData(schema, values, newExtraKeys, newExtraValues);
+    }
+
+    /**
+     * Get a copy of this data without the given key.
+     *
+     * @param key the data key
+     * @return a new data map, or this one if the key is absent
+     */
+    BundleData without(String key) {
+        int slot = schema.slot(key);
+        if (slot >= 0) {
+            if (values[slot] == ABSENT) {
+                return this;
+            }
+            Object[] newValues = values.clone();
+            newValues[slot] = ABSENT;
+            return new BundleData(schema, newValues, extraKeys, extraValues);
+        }
+        int pos = Arrays.binarySearch(extraKeys, key);
+        if (pos < 0) {
+            return this;
+        }
+        String[] newExtraKeys = new String[extraKeys.length - 1];
+        Object[] newExtraValues = new Object[extraValues.length - 1];
+        System.arraycopy(extraKeys, 0, newExtraKeys, 0, pos);
+        System.arraycopy(extraValues, 0, newExtraValues, 0, pos);
+        System.arraycopy(extraKeys, pos + 1, newExtraKeys, pos, extraKeys.length - pos - 1);
+        System.arraycopy(extraValues, pos + 1, newExtraValues, pos, extraValues.length - pos - 1);
+        return new BundleData(schema, values, newExtraKeys, newExtraValues);
+    }
+
+    /**
+     * Get this data without its null values.
+     *
+     * @return a data map, which is this one if it has no null values
+     */
+    BundleData withoutNulls() {
+        if (nulls == 0) {
+            return this;
+        }
+        BundleData data = this;
+        for (Map.Entry<String, Object> entry : entrySet()) {
+            if (entry.getValue() == null) {
+                data = data.without(entry.getKey());
+            }
+        }
+        return data;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int slot = schema.slot(key);
+        if (slot >= 0) {
+            Object value = values[slot];
+            return value == ABSENT ? null : value;
+        }
+        int pos = key instanceof String ? Arrays.binarySearch(extraKeys, key) : -1;
+        return pos >= 0 ? extraValues[pos] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = schema.slot(key);
+        if (slot >= 0) {
+            return values[slot] != ABSENT;
+        }
+        return key instanceof String && Arrays.binarySearch(extraKeys, key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    // Iterates over the schema's slots, in key order, and then the extra keys.
+    private final class EntryIterator implements Iterator<Entry<String, Object>> {
+        private int slot = advance(0);
+        private int extra = 0;
+
+        private int advance(int from) {
+            while (from < values.length && values[from] == ABSENT) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return slot < values.length || extra < extraKeys.length;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (slot < values.length) {
+                Entry<String, Object> entry = new SimpleImmutableEntry<>(schema.keys[slot], values[slot]);
+                slot = advance(slot + 1);
+                return entry;
+            }
+            if (extra < extraKeys.length) {
+                Entry<String, Object> entry = new SimpleImmutableEntry<>(extraKeys[extra], extraValues[extra]);
+                extra++;
+                return entry;
+            }
+            throw new NoSuchElementException();
+        }
+    }
+
+    private static Object filterValue(Object value) {
+        return value instanceof Enum<?> ? ((Enum<?>) value).name() : value;
+    }
+}
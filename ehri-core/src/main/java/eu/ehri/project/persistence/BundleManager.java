@@ -42,15 +42,28 @@ import java.util.Set;
 
 /**
  * Class responsible for creating, updating and deleting Bundles.
+ * <p>
+ * Where the graph allows it (see {@link ContentHashes}) the content
+ * hash of each bundle written is stored on its vertex, so an update
+ * with an unchanged bundle can be detected without serializing the
+ * item's subtree.
  */
 public final class BundleManager {
 
     private static final Logger logger = LoggerFactory.getLogger(BundleManager.class);
 
+    /**
+     * The vertex property holding the content hash of the bundle
+     * the vertex was last written from, which does not form part
+     * of its data.
+     */
+    public static final String CONTENT_HASH_KEY = "__hash";
+
     private final FramedGraph<?> graph;
     private final GraphManager manager;
     private final Serializer serializer;
     private final BundleValidator validator;
+    private final ContentHashes hashes;
 
     /**
      * Constructor with a given scope.
@@ -63,6 +76,7 @@ public final class BundleManager {
         manager = GraphManagerFactory.getInstance(graph);
         serializer = new Serializer.Builder(graph).dependentOnly().build();
         validator = new BundleValidator(manager, scopeIds);
+        hashes = ContentHashes.getInstance(graph.getBaseGraph());
     }
 
     /**
@@ -185,6 +199,7 @@ public final class BundleManager {
             Vertex node = manager.createVertex(bundle.getId(), bundle.getType(),
                     bundle.getData());
             createDependents(node, bundle.getBundleJavaClass(), bundle.getRelations());
+            setContentHash(node, bundle);
             return node;
         } catch (IntegrityError e) {
             // If we get here, it means that there's been an ID generation error
@@ -207,6 +222,16 @@ public final class BundleManager {
      */
     private Mutation<Vertex> updateInner(Bundle bundle) throws ItemNotFound {
         Vertex vertex = manager.getVertex(bundle.getId());
+        // Compare the stored hash if we can, and otherwise the one computed
+        // from the vertex, neither of which need its subtree to be serialized.
+        String hash = bundle.getContentHash();
+        String storedHash = hashes.getStoredHash(vertex);
+        // Unchanged items are not written to, so their hashes are only
+        // stored when they are next updated.
+        if (storedHash != null ? hash.equals(storedHash) : hash.equals(ContentHashes.hash(vertex))) {
+            logger.debug("Not updating bundle with unchanged content hash: {}:{}", bundle.getType(), bundle.getId());
+            return new Mutation<>(vertex, MutationState.UNCHANGED);
+        }
         try {
             Bundle currentBundle = serializer.vertexToBundle(vertex);
             Bundle newBundle = bundle.dependentsOnly();
@@ -217,6 +242,7 @@ public final class BundleManager {
                 }
                 vertex = manager.updateVertex(bundle.getId(), bundle.getType(), bundle.getData());
                 updateDependents(vertex, bundle.getBundleJavaClass(), bundle.getRelations());
+                setContentHash(vertex, bundle);
                 return new Mutation<>(vertex, MutationState.UPDATED, currentBundle);
             } else {
                 logger.debug("Not updating equivalent bundle: {}:{}", bundle.getType(), bundle.getId());
@@ -228,6 +254,16 @@ public final class BundleManager {
         }
     }
 
+    /**
+     * Store the content hash of the bundle a vertex has been written from.
+     *
+     * @param vertex The vertex
+     * @param bundle The bundle
+     */
+    private void setContentHash(Vertex vertex, Bundle bundle) {
+        hashes.setStoredHash(vertex, bundle.getContentHash());
+    }
+
     /**
      * Saves the dependent relations within a given bundle. Relations that are not dependent are ignored.
      *
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.persistence;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Graph;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Vertex;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.EntityType;
+import eu.ehri.project.models.utils.ClassUtils;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.StatementConstants;
+import org.neo4j.kernel.api.txstate.TxStateHolder;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.storageengine.api.StoreId;
+import org.neo4j.storageengine.api.txstate.NodeState;
+import org.neo4j.storageengine.api.txstate.ReadableTransactionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content hashes of bundles and of the vertices they are written to,
+ * and the means of keeping the hashes the {@link BundleManager} stores
+ * on vertices consistent with the graph, with one instance per database.
+ * <p>
+ * A stored hash is only valid while neither its vertex nor any of the
+ * vertex's dependents change. When a transaction is committed, the hash
+ * of each vertex it changes is removed unless the transaction also stored
+ * a new one, and so are the hashes of the vertices which the changed ones
+ * are dependents of, however they were changed. This covers changes made
+ * other than through the bundle manager, such as adding a dependent to an
+ * item directly. Uncommitted changes are not seen, so a transaction which
+ * has made changes can only use the stored hashes of vertices which
+ * neither it nor any of their dependents have been changed by; the hash
+ * of a vertex can otherwise be computed from the vertex and its dependents.
+ * <p>
+ * The hashes stored are stamped with the identity of the database's
+ * store, and only those with the stamp of the store they are read from
+ * are used, so that hashes copied with data from another store are not
+ * relied on. They therefore remain valid when the database is restarted.
+ * Changes made while no instance is tracking a database, such as by another
+ * process, or before an instance has been obtained for it, are not seen,
+ * so a store which has been changed that way must have its stored hashes
+ * removed. Graphs which are not backed by Neo4j share an instance which
+ * does not store hashes.
+ */
+final class ContentHashes {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentHashes.class);
+
+    /**
+     * The vertex property holding the content hash of the bundle
+     * the vertex was last written from.
+     */
+    static final String KEY = BundleManager.CONTENT_HASH_KEY;
+
+    private static final ContentHashes UNTRACKED = new ContentHashes(null, null);
+
+    private static final LoadingCache<GraphDatabaseService, ContentHashes> instances = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<GraphDatabaseService, ContentHashes>() {
+                @Override
+                public ContentHashes load(GraphDatabaseService database) {
+                    return track(database);
+                }
+            });
+
+    // The labels of dependent relationships, and those of the ones
+    // which are outgoing and incoming from the dependent vertex.
+    private static final Set<String> labels;
+    private static final RelationshipType[] outgoing;
+    private static final RelationshipType[] incoming;
+
+    static {
+        Set<String> out = Sets.newTreeSet();
+        Set<String> in = Sets.newTreeSet();
+        for (EntityClass type : EntityClass.values()) {
+            ClassUtils.getDependentRelations(type.getJavaClass()).forEach((label, direction) -> {
+                if (direction != com.tinkerpop.blueprints.Direction.IN) {
+                    in.add(label);
+                }
+                if (direction != com.tinkerpop.blueprints.Direction.OUT) {
+                    out.add(label);
+                }
+            });
+        }
+        labels = ImmutableSet.copyOf(Sets.union(out, in));
+        outgoing = out.stream().map(RelationshipType::withName).toArray(RelationshipType[]::new);
+        incoming = in.stream().map(RelationshipType::withName).toArray(RelationshipType[]::new);
+    }
+
+    private final ThreadToStatementContextBridge transactions;
+    private final String stamp;
+
+    private ContentHashes(ThreadToStatementContextBridge transactions, String stamp) {
+        this.transactions = transactions;
+        this.stamp = stamp;
+    }
+
+    /**
+     * Create an instance which tracks a database's changes. Only one
+     * should be needed, since it is shared by all of the database's
+     * graphs.
+     *
+     * @param database a database
+     * @return a new instance
+     */
+    static ContentHashes track(GraphDatabaseService database) {
+        if (!(database instanceof GraphDatabaseAPI)) {
+            return UNTRACKED;
+        }
+        GraphDatabaseAPI api = (GraphDatabaseAPI) database;
+        StoreId storeId = api.storeId();
+        ContentHashes hashes = new ContentHashes(api.getDependencyResolver()
+                .resolveDependency(ThreadToStatementContextBridge.class),
+                "@" + Long.toHexString(storeId.getRandomId()) + "." + Long.toHexString(storeId.getUpgradeId()));
+        database.registerTransactionEventHandler(hashes.new InvalidationHandler());
+        return hashes;
+    }
+
+    /**
+     * Obtain the instance for the given graph.
+     *
+     * @param graph a base graph
+     * @return the instance
+     */
+    static ContentHashes getInstance(Graph graph) {
+        if (graph instanceof Neo4j2Graph) {
+            return instances.getUnchecked(((Neo4j2Graph) graph).getRawGraph());
+        }
+        return UNTRACKED;
+    }
+
+    /**
+     * Determine if stored hashes are kept consistent with the graph,
+     * and so should be stored.
+     *
+     * @return whether the graph's changes are tracked
+     */
+    boolean isTracked() {
+        return transactions != null;
+    }
+
+    /**
+     * Get the hash stored on a vertex, if it can be used by the current
+     * thread.
+     *
+     * @param vertex a vertex
+     * @return the stored hash, or null if there is none which was stored
+     * while the graph's changes were tracked, or if the current thread's
+     * transaction has changed the vertex or any of its dependents
+     */
+    String getStoredHash(Vertex vertex) {
+        Object value = isTracked() ? vertex.getProperty(KEY) : null;
+        if (!(value instanceof String) || !((String) value).endsWith(stamp)) {
+            return null;
+        }
+        KernelTransaction tx = transactions.getKernelTransactionBoundToThisThread(false);
+        if (tx instanceof TxStateHolder && ((TxStateHolder) tx).hasTxStateWithChanges()) {
+            if (!(vertex instanceof Neo4j2Vertex)
+                    || isChanged(((TxStateHolder) tx).txState(), ((Neo4j2Vertex) vertex).getRawVertex())) {
+                return null;
+            }
+        }
+        String hash = (String) value;
+        return hash.substring(0, hash.length() - stamp.length());
+    }
+
+    /**
+     * Store the hash of a vertex, if the graph's changes are tracked
+     * and it is not already stored.
+     *
+     * @param vertex a vertex
+     * @param hash   the hash of the bundle it was written from
+     */
+    void setStoredHash(Vertex vertex, String hash) {
+        if (isTracked() && !(hash + stamp).equals(vertex.getProperty(KEY))) {
+            vertex.setProperty(KEY, hash + stamp);
+        }
+    }
+
+    /**
+     * Compute the content hash of a vertex from its data and that of
+     * its dependents, as it would be for a bundle serialized from it.
+     *
+     * @param vertex a vertex
+     * @return a hex string
+     */
+    static String hash(Vertex vertex) {
+        EntityClass type = EntityClass.withName(vertex.getProperty(EntityType.TYPE_KEY));
+        Map<String, Object> data = Maps.newHashMap();
+        for (String key : vertex.getPropertyKeys()) {
+            data.put(key, vertex.getProperty(key));
+        }
+        Multimap<String, String> dependents = ArrayListMultimap.create();
+        ClassUtils.getDependentRelations(type.getJavaClass()).forEach((label, direction) -> {
+            for (Vertex child : vertex.getVertices(direction, label)) {
+                dependents.put(label, hash(child));
+            }
+        });
+        return hash(type, data, dependents);
+    }
+
+    /**
+     * Compute a content hash. Managed and null data values are not
+     * taken into account, nor are the orders of the data and related
+     * items.
+     *
+     * @param type       the item's type
+     * @param data       the item's data
+     * @param dependents the hashes of its dependents, by relation
+     * @return a hex string
+     */
+    static String hash(EntityClass type, Map<String, ?> data, Multimap<String, String> dependents) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        putString(hasher, type.getName());
+        for (String key : Ordering.natural().sortedCopy(data.keySet())) {
+            Object value = data.get(key);
+            if (!key.startsWith(Bundle.MANAGED_PREFIX) && value != null) {
+                putString(hasher, key);
+                putValue(hasher, value);
+            }
+        }
+        hasher.putByte((byte) 0);
+        for (String relation : Ordering.natural().sortedCopy(dependents.keySet())) {
+            putString(hasher, relation);
+            Collection<String> hashes = dependents.get(relation);
+            hasher.putInt(hashes.size());
+            for (String hash : Ordering.natural().sortedCopy(hashes)) {
+                putString(hasher, hash);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+    }
+
+    // Add a data value to a hash with its type, so that values which
+    // are not equal, such as a string and a number, hash differently.
+    // Arrays hash as lists, since that is how they are read from vertices.
+    private static void putValue(Hasher hasher, Object value) {
+        if (value == null) {
+            hasher.putByte((byte) 0);
+        } else if (value instanceof Collection<?>) {
+            hasher.putByte((byte) 'l').putInt(((Collection<?>) value).size());
+            for (Object item : (Collection<?>) value) {
+                putValue(hasher, item);
+            }
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            hasher.putByte((byte) 'l').putInt(length);
+            for (int i = 0; i < length; i++) {
+                putValue(hasher, Array.get(value, i));
+            }
+        } else {
+            hasher.putByte((byte) 'v');
+            putString(hasher, value.getClass().getName());
+            putString(hasher, value.toString());
+        }
+    }
+
+    // Get the vertices a vertex is a dependent of. NB: a relationship
+    // type list must not be empty, since that would match every type.
+    private static List<Node> parents(Node node) {
+        List<Node> parents = Lists.newArrayList();
+        if (outgoing.length > 0) {
+            for (Relationship rel : node.getRelationships(Direction.OUTGOING, outgoing)) {
+                parents.add(rel.getEndNode());
+            }
+        }
+        if (incoming.length > 0) {
+            for (Relationship rel : node.getRelationships(Direction.INCOMING, incoming)) {
+                parents.add(rel.getStartNode());
+            }
+        }
+        return parents;
+    }
+
+    // Get the dependents of a vertex.
+    private static List<Node> children(Node node) {
+        List<Node> children = Lists.newArrayList();
+        if (outgoing.length > 0) {
+            for (Relationship rel : node.getRelationships(Direction.INCOMING, outgoing)) {
+                children.add(rel.getStartNode());
+            }
+        }
+        if (incoming.length > 0) {
+            for (Relationship rel : node.getRelationships(Direction.OUTGOING, incoming)) {
+                children.add(rel.getEndNode());
+            }
+        }
+        return children;
+    }
+
+    // Determine if a transaction has changed a vertex or any of its
+    // dependents. Its state holds a node for each one it has created,
+    // deleted or changed the properties or relationships of, and those
+    // it has not touched share an empty one, as does a node which cannot
+    // exist. Only the nodes' IDs are read, which is much cheaper than
+    // hashing their data.
+    private static boolean isChanged(ReadableTransactionState state, Node node) {
+        NodeState untouched = state.getNodeState(StatementConstants.NO_SUCH_NODE);
+        Deque<Node> queue = Lists.newLinkedList();
+        queue.add(node);
+        while (!queue.isEmpty()) {
+            Node next = queue.remove();
+            if (state.getNodeState(next.getId()) != untouched) {
+                return true;
+            }
+            queue.addAll(children(next));
+        }
+        return false;
+    }
+
+    private class InvalidationHandler extends TransactionEventHandler.Adapter<Void> {
+        @Override
+        public Void beforeCommit(TransactionData data) {
+            Set<Node> rehashed = Sets.newHashSet();
+            Set<Node> changed = Sets.newHashSet();
+            for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+                if (KEY.equals(entry.key())) {
+                    rehashed.add(entry.entity());
+                }
+                changed.add(entry.entity());
+            }
+            for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+                if (!KEY.equals(entry.key())) {
+                    changed.add(entry.entity());
+                }
+            }
+            for (Relationship rel : Iterables.concat(data.createdRelationships(), data.deletedRelationships())) {
+                if (labels.contains(rel.getType().name())) {
+                    changed.add(rel.getStartNode());
+                    changed.add(rel.getEndNode());
+                }
+            }
+
+            Deque<Node> queue = Lists.newLinkedList();
+            Set<Node> seen = Sets.newHashSet();
+            for (Node node : changed) {
+                if (!data.isDeleted(node)) {
+                    if (!rehashed.contains(node)) {
+                        node.removeProperty(KEY);
+                    }
+                    queue.add(node);
+                    seen.add(node);
+                }
+            }
+            // Remove the hashes of the items the changed ones are dependents of.
+            while (!queue.isEmpty()) {
+                for (Node parent : parents(queue.remove())) {
+                    if (!data.isDeleted(parent) && seen.add(parent)) {
+                        if (!rehashed.contains(parent)) {
+                            parent.removeProperty(KEY);
+                        }
+                        queue.add(parent);
+                    }
+                }
+            }
+            logger.trace("Checked content hashes of {} changed vertices", changed.size());
+            return null;
+        }
+    }
+}
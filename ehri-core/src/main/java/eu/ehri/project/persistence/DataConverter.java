@@ -48,11 +48,17 @@ class DataConverter {
     private static final JsonFactory factory = new JsonFactory();
     private static final ObjectMapper mapper = new ObjectMapper(factory);
     private static final ObjectWriter writer = mapper.writerWithDefaultPrettyPrinter();
+    private static final Map<DataFormat, ObjectMapper> mappers = Maps.newEnumMap(DataFormat.class);
 
     static {
         SimpleModule bundleModule = new SimpleModule();
         bundleModule.addDeserializer(Bundle.class, new BundleDeserializer());
         mapper.registerModule(bundleModule);
+        for (DataFormat format : DataFormat.values()) {
+            mappers.put(format, format == DataFormat.JSON
+                    ? mapper
+                    : new ObjectMapper(format.newFactory()).registerModule(bundleModule));
+        }
     }
 
     /**
@@ -173,11 +179,22 @@ class DataConverter {
      *                              a valid bundle
      */
     public static Bundle streamToBundle(InputStream inputStream) throws DeserializationError {
+        return streamToBundle(inputStream, DataFormat.JSON);
+    }
+
+    /**
+     * Convert a stream of data in the given format into a bundle.
+     *
+     * @param inputStream an input stream containing data representing the bundle
+     * @param format      the format of the data
+     * @return the bundle
+     */
+    public static Bundle streamToBundle(InputStream inputStream, DataFormat format) throws DeserializationError {
         try {
-            return mapper.readValue(inputStream, Bundle.class);
+            return mappers.get(format).readValue(inputStream, Bundle.class);
         } catch (IOException e) {
             e.printStackTrace();
-            throw new DeserializationError("Error decoding JSON", e);
+            throw new DeserializationError("Error decoding " + format, e);
         }
     }
 
@@ -196,6 +213,24 @@ class DataConverter {
         }
     }
 
+    /**
+     * Write a bundle to a stream in the given format, in the same
+     * form as {@link #bundleToData(Bundle)}.
+     *
+     * @param bundle       the bundle
+     * @param outputStream the stream
+     * @param format       the format in which to write the data
+     */
+    public static void bundleToStream(Bundle bundle, OutputStream outputStream, DataFormat format)
+            throws SerializationError {
+        try {
+            mappers.get(format).writeValue(outputStream, bundleToData(bundle));
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new SerializationError("Error encoding " + format, e);
+        }
+    }
+
     /**
      * Parse an input stream containing a JSON array of bundle objects into
      * an iterable of bundles.
@@ -205,10 +240,24 @@ class DataConverter {
      *                              a valid bundle
      */
     public static CloseableIterable<Bundle> bundleStream(InputStream inputStream) throws DeserializationError {
+        return bundleStream(inputStream, DataFormat.JSON);
+    }
+
+    /**
+     * Parse an input stream containing an array of bundle objects in
+     * the given format into an iterable of bundles.
+     *
+     * @param inputStream an input stream
+     * @param format      the format of the data
+     * @return an iterable of bundle objects
+     */
+    public static CloseableIterable<Bundle> bundleStream(InputStream inputStream, DataFormat format)
+            throws DeserializationError {
         Preconditions.checkNotNull(inputStream);
         try {
-            final JsonParser parser = factory
-                    .createParser(new InputStreamReader(inputStream, Charsets.UTF_8));
+            final JsonParser parser = format.isBinary()
+                    ? mappers.get(format).getFactory().createParser(inputStream)
+                    : factory.createParser(new InputStreamReader(inputStream, Charsets.UTF_8));
             JsonToken jsonToken = parser.nextValue();
             if (!parser.isExpectedStartArrayToken()) {
                 throw new DeserializationError("Stream should be an array of objects, was: " + jsonToken);
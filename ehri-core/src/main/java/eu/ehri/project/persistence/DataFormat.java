@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.persistence;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * The formats in which bundle data can be encoded. Besides
+ * JSON, these are the binary Smile and CBOR formats, which
+ * have the same data model but are faster to encode and
+ * decode, and are more compact.
+ */
+public enum DataFormat {
+
+    JSON("application/json", JsonFactory::new),
+    SMILE("application/x-jackson-smile", SmileFactory::new),
+    CBOR("application/cbor", CBORFactory::new);
+
+    private final String mediaType;
+    private final Supplier<JsonFactory> factorySupplier;
+    private final ObjectMapper mapper;
+
+    DataFormat(String mediaType, Supplier<JsonFactory> factorySupplier) {
+        this.mediaType = mediaType;
+        this.factorySupplier = factorySupplier;
+        this.mapper = new ObjectMapper(factorySupplier.get());
+    }
+
+    /**
+     * Get the format's media type.
+     *
+     * @return a media type string
+     */
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Get a factory for the format's parsers and generators, which
+     * can encode plain Java values, such as maps and lists.
+     *
+     * @return a shared JSON factory
+     */
+    public JsonFactory getFactory() {
+        return mapper.getFactory();
+    }
+
+    /**
+     * Determine whether the format is binary rather than text.
+     *
+     * @return whether the format is binary
+     */
+    public boolean isBinary() {
+        return this != JSON;
+    }
+
+    /**
+     * Find the format with a given media type.
+     *
+     * @param mediaType a media type string, without parameters
+     * @return the format, if there is one
+     */
+    public static Optional<DataFormat> fromMediaType(String mediaType) {
+        for (DataFormat format : values()) {
+            if (format.mediaType.equalsIgnoreCase(mediaType)) {
+                return Optional.of(format);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Create a new factory, for mappers which need
+     * to be configured separately.
+     */
+    JsonFactory newFactory() {
+        return factorySupplier.get();
+    }
+}
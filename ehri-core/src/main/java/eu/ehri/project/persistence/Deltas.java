@@ -0,0 +1,208 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compressed binary deltas between byte sequences.
+ * <p>
+ * A delta is a list of instructions which either copy a run of
+ * bytes from the base sequence or insert literal ones. Copies are
+ * found by indexing fixed-size blocks of the base and matching
+ * them at each position in the target, so runs which have moved
+ * are found as well as common prefixes and suffixes. The list is
+ * deflated, along with the literal bytes, and prefixed with a
+ * format byte.
+ */
+final class Deltas {
+
+    private static final int FORMAT = 1;
+    private static final int BLOCK_SIZE = 16;
+    private static final int PRIME = 16777619;
+    private static final int POWER;
+
+    static {
+        int power = 1;
+        for (int i = 1; i < BLOCK_SIZE; i++) {
+            power *= PRIME;
+        }
+        POWER = power;
+    }
+
+    private Deltas() {
+    }
+
+    /**
+     * Compute the delta which transforms one byte sequence into another.
+     *
+     * @param base   the base sequence
+     * @param target the target sequence
+     * @return a compressed delta
+     */
+    static byte[] encode(byte[] base, byte[] target) {
+        Map<Integer, Integer> blocks = Maps.newHashMap();
+        for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE) {
+            blocks.putIfAbsent(hash(base, offset), offset);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(FORMAT);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            writeVarInt(out, target.length);
+            int literal = 0;
+            int pos = 0;
+            int hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+            while (pos + BLOCK_SIZE <= target.length) {
+                Integer offset = blocks.get(hash);
+                if (offset != null && matches(base, offset, target, pos)) {
+                    // Extend the match back into the pending literal
+                    // bytes, and then forward as far as it goes.
+                    int start = pos;
+                    int baseStart = offset;
+                    while (start > literal && baseStart > 0 && base[baseStart - 1] == target[start - 1]) {
+                        start--;
+                        baseStart--;
+                    }
+                    int end = pos + BLOCK_SIZE;
+                    int baseEnd = offset + BLOCK_SIZE;
+                    while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                        end++;
+                        baseEnd++;
+                    }
+                    writeInsert(out, target, literal, start);
+                    writeVarInt(out, (end - start) << 1 | 1);
+                    writeVarInt(out, baseStart);
+                    pos = literal = end;
+                    if (pos + BLOCK_SIZE <= target.length) {
+                        hash = hash(target, pos);
+                    }
+                } else {
+                    if (pos + BLOCK_SIZE < target.length) {
+                        hash = (hash - (target[pos] & 0xff) * POWER) * PRIME + (target[pos + BLOCK_SIZE] & 0xff);
+                    }
+                    pos++;
+                }
+            }
+            writeInsert(out, target, literal, target.length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Apply a delta to the byte sequence it was computed from.
+     *
+     * @param base  the base sequence
+     * @param delta a delta computed from the base sequence
+     * @return the target sequence
+     * @throws IllegalArgumentException if the delta is not valid for
+     *                                  the base sequence
+     */
+    static byte[] decode(byte[] base, byte[] delta) {
+        if (delta.length == 0 || delta[0] != FORMAT) {
+            throw new IllegalArgumentException("Unknown delta format");
+        }
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(delta, 1, delta.length - 1)))) {
+            byte[] target = new byte[readVarInt(in)];
+            int pos = 0;
+            while (pos < target.length) {
+                int op = readVarInt(in);
+                int length = op >>> 1;
+                if (length > target.length - pos) {
+                    throw new IllegalArgumentException("Invalid delta: instruction exceeds target length");
+                }
+                if ((op & 1) == 0) {
+                    in.readFully(target, pos, length);
+                } else {
+                    int offset = readVarInt(in);
+                    if (offset > base.length - length) {
+                        throw new IllegalArgumentException("Invalid delta: copy exceeds base length");
+                    }
+                    System.arraycopy(base, offset, target, pos, length);
+                }
+                pos += length;
+            }
+            return target;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid delta", e);
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK_SIZE; i++) {
+            hash = hash * PRIME + (bytes[i] & 0xff);
+        }
+        return hash;
+    }
+
+    private static boolean matches(byte[] base, int offset, byte[] target, int pos) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if (base[offset + i] != target[pos + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeInsert(DataOutputStream out, byte[] target, int start, int end) throws IOException {
+        if (end > start) {
+            writeVarInt(out, (end - start) << 1);
+            out.write(target, start, end - start);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid delta: malformed integer");
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.persistence;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.tinkerpop.blueprints.Graph;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Graph;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.api.txstate.TxStateHolder;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of serialized item fragments which is shared between
+ * requests, with one instance per database.
+ * <p>
+ * Each fragment records the vertices whose data it was built from.
+ * When a transaction which changes any of those vertices, or the
+ * relationships between them and others, is committed, the fragment
+ * is discarded. This covers every system event, and also changes
+ * made without one (fixture loading, command-line tools, etc.)
+ * Fragments built concurrently with a commit are not cached, and
+ * transactions which have made changes neither read nor add them.
+ * <p>
+ * Graphs which are not backed by Neo4j share an instance which
+ * caches nothing.
+ */
+final class FragmentCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(FragmentCache.class);
+
+    private static final int MAX_ENTRIES = 20000;
+
+    private static final FragmentCache UNCACHED = new FragmentCache(0, null);
+
+    private static final LoadingCache<GraphDatabaseService, FragmentCache> instances = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<GraphDatabaseService, FragmentCache>() {
+                @Override
+                public FragmentCache load(GraphDatabaseService database) {
+                    FragmentCache cache = new FragmentCache(MAX_ENTRIES, database instanceof GraphDatabaseAPI
+                            ? ((GraphDatabaseAPI) database).getDependencyResolver()
+                            .resolveDependency(ThreadToStatementContextBridge.class)
+                            : null);
+                    database.registerTransactionEventHandler(cache.new InvalidationHandler());
+                    return cache;
+                }
+            });
+
+    /**
+     * The vertex and serializer settings a fragment was built with.
+     */
+    static final class Key {
+        private final Object gid;
+        private final int depth;
+        private final int maxDepth;
+        private final boolean lite;
+        private final boolean meta;
+        private final boolean dependentOnly;
+        private final boolean liteMode;
+        private final List<String> includeProps;
+        private final Projection projection;
+        private final boolean json;
+
+        Key(Object gid, int depth, int maxDepth, boolean lite, boolean meta, boolean dependentOnly,
+                boolean liteMode, List<String> includeProps, Projection projection, boolean json) {
+            this.gid = gid;
+            this.depth = depth;
+            this.maxDepth = maxDepth;
+            this.lite = lite;
+            this.meta = meta;
+            this.dependentOnly = dependentOnly;
+            this.liteMode = liteMode;
+            this.includeProps = ImmutableList.copyOf(includeProps);
+            this.projection = projection;
+            this.json = json;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return depth == key.depth
+                    && maxDepth == key.maxDepth
+                    && lite == key.lite
+                    && meta == key.meta
+                    && dependentOnly == key.dependentOnly
+                    && liteMode == key.liteMode
+                    && json == key.json
+                    && gid.equals(key.gid)
+                    && includeProps.equals(key.includeProps)
+                    && projection.equals(key.projection);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(gid, depth, maxDepth, lite, meta, dependentOnly, liteMode, includeProps, projection, json);
+        }
+    }
+
+    /**
+     * A serialized fragment and the vertices it was built from.
+     *
+     * @param <T> the type of the serialized form
+     */
+    static final class Fragment<T> {
+        final T value;
+        final Set<Object> members;
+
+        Fragment(T value, Set<Object> members) {
+            this.value = value;
+            this.members = ImmutableSet.copyOf(members);
+        }
+    }
+
+    private final AtomicLong version = new AtomicLong();
+    private final Cache<Key, Fragment<?>> fragments;
+    private final ThreadToStatementContextBridge transactions;
+
+    private FragmentCache(int maxEntries, ThreadToStatementContextBridge transactions) {
+        this.fragments = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+        this.transactions = transactions;
+    }
+
+    /**
+     * Obtain the cache for the given graph.
+     *
+     * @param graph a base graph
+     * @return the cache instance
+     */
+    static FragmentCache getInstance(Graph graph) {
+        if (graph instanceof Neo4j2Graph) {
+            return instances.getUnchecked(((Neo4j2Graph) graph).getRawGraph());
+        }
+        return UNCACHED;
+    }
+
+    /**
+     * Determine if the cache can be used by the current thread.
+     *
+     * @return whether there is a database to cache data from and
+     * the current thread's transaction, if any, has not made any changes
+     */
+    boolean isAvailable() {
+        if (transactions == null) {
+            return false;
+        }
+        KernelTransaction tx = transactions.getKernelTransactionBoundToThisThread(false);
+        return tx == null || !(tx instanceof TxStateHolder) || !((TxStateHolder) tx).hasTxStateWithChanges();
+    }
+
+    /**
+     * Get the current data version. This must be read before a fragment
+     * is built and passed to {@link #put(Key, Object, Set, long)}, so a
+     * fragment built concurrently with a change is not cached.
+     *
+     * @return the data version
+     */
+    long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Fetch a cached fragment.
+     *
+     * @param key the fragment key
+     * @param <T> the type of the serialized form
+     * @return the fragment, or null if none is cached
+     */
+    @SuppressWarnings("unchecked")
+    <T> Fragment<T> get(Key key) {
+        return (Fragment<T>) fragments.getIfPresent(key);
+    }
+
+    /**
+     * Cache a fragment.
+     *
+     * @param key     the fragment key
+     * @param value   the serialized fragment
+     * @param members the IDs of the vertices it was built from
+     * @param version the data version read before building it
+     * @param <T>     the type of the serialized form
+     */
+    <T> void put(Key key, T value, Set<Object> members, long version) {
+        if (version == this.version.get()) {
+            fragments.put(key, new Fragment<>(value, members));
+        }
+    }
+
+    /**
+     * Discard all fragments built from any of the given vertices.
+     *
+     * @param gids a set of vertex IDs
+     */
+    void invalidate(Set<Object> gids) {
+        version.incrementAndGet();
+        fragments.asMap().values().removeIf(f -> !Sets.intersection(f.members, gids).isEmpty());
+    }
+
+    /**
+     * Discard all fragments.
+     */
+    void invalidateAll() {
+        version.incrementAndGet();
+        fragments.invalidateAll();
+    }
+
+    /**
+     * Get the number of cached fragments.
+     *
+     * @return the approximate number of fragments
+     */
+    long size() {
+        return fragments.size();
+    }
+
+    // Collects the IDs of the nodes changed by a transaction before it
+    // is committed, since deleted items cannot be read afterwards.
+    private class InvalidationHandler extends TransactionEventHandler.Adapter<Set<Object>> {
+        @Override
+        public Set<Object> beforeCommit(TransactionData data) {
+            Set<Object> changed = Sets.newHashSet();
+            try {
+                for (Node node : data.deletedNodes()) {
+                    changed.add(node.getId());
+                }
+                // Stored content hashes are not serialized.
+                for (PropertyEntry<Node> entry : Iterables.concat(
+                        data.assignedNodeProperties(), data.removedNodeProperties())) {
+                    if (!ContentHashes.KEY.equals(entry.key())) {
+                        changed.add(entry.entity().getId());
+                    }
+                }
+                for (Relationship rel : data.createdRelationships()) {
+                    changed.add(rel.getStartNodeId());
+                    changed.add(rel.getEndNodeId());
+                }
+                for (Relationship rel : data.deletedRelationships()) {
+                    changed.add(rel.getStartNodeId());
+                    changed.add(rel.getEndNodeId());
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Unable to read transaction changes: discarding all cached fragments", e);
+                return null;
+            }
+            return changed;
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, Set<Object> changed) {
+            if (changed == null) {
+                invalidateAll();
+            } else if (!changed.isEmpty()) {
+                logger.trace("Graph changed: invalidating fragments for {} vertices", changed.size());
+                invalidate(changed);
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.persistence;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A selection of the properties and relations of an item to
+ * serialize.
+ * <p>
+ * Projections are parsed from a comma-separated list of names,
+ * each of which selects either a property or a relation. The
+ * items of a relation may in turn be projected by following its
+ * name with a parenthesised list, for example:
+ * <pre>
+ * <code>identifier,describes(name,languageCode),heldBy(describes(name))</code>
+ * </pre>
+ * A relation named without a list is serialized in full, and the
+ * name <code>*</code> selects all of an item's properties. Relations
+ * which are not named are not traversed at all, though named ones are
+ * still subject to the limits of their @Fetch annotation. The ID and
+ * type of an item, and its metadata, are not affected.
+ */
+public final class Projection {
+
+    private static final String ALL_FIELDS = "*";
+
+    /**
+     * The projection which selects everything.
+     */
+    public static final Projection ALL = new Projection(ImmutableSortedSet.of(ALL_FIELDS),
+            ImmutableSortedMap.of(), true);
+
+    private final Set<String> names;
+    private final Map<String, Projection> relations;
+    private final boolean allRelations;
+
+    private Projection(Set<String> names, Map<String, Projection> relations, boolean allRelations) {
+        this.names = names;
+        this.relations = relations;
+        this.allRelations = allRelations;
+    }
+
+    /**
+     * Parse a projection.
+     *
+     * @param spec a projection specification
+     * @return a projection
+     * @throws IllegalArgumentException if the specification is not valid
+     */
+    public static Projection parse(String spec) {
+        Parser parser = new Parser(spec);
+        Projection projection = parser.list();
+        if (parser.pos < spec.length()) {
+            throw parser.error();
+        }
+        return projection;
+    }
+
+    /**
+     * Determine if all of an item's properties are selected.
+     *
+     * @return whether all properties are selected
+     */
+    public boolean isAllFields() {
+        return names.contains(ALL_FIELDS);
+    }
+
+    /**
+     * Get the names of the selected properties. Since the names of
+     * relations serialized in full are also given here, not all of
+     * them may exist.
+     *
+     * @return a set of property names
+     */
+    public Set<String> getFields() {
+        return names;
+    }
+
+    /**
+     * Determine if a relation is selected.
+     *
+     * @param relation a relation name
+     * @return whether the relation is selected
+     */
+    public boolean includesRelation(String relation) {
+        return allRelations || relations.containsKey(relation) || names.contains(relation);
+    }
+
+    /**
+     * Get the projection of a relation's items.
+     *
+     * @param relation a relation name
+     * @return the relation's projection
+     */
+    public Projection getRelation(String relation) {
+        return relations.getOrDefault(relation, ALL);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Projection that = (Projection) o;
+        return allRelations == that.allRelations
+                && names.equals(that.names)
+                && relations.equals(that.relations);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(names, relations, allRelations);
+    }
+
+    @Override
+    public String toString() {
+        List<String> parts = Lists.newArrayList(names);
+        relations.forEach((name, projection) -> parts.add(name + "(" + projection + ")"));
+        return Joiner.on(',').join(parts);
+    }
+
+    private static final class Parser {
+        private final String spec;
+        private int pos = 0;
+
+        private Parser(String spec) {
+            this.spec = spec;
+        }
+
+        private Projection list() {
+            Set<String> names = Sets.newTreeSet();
+            Map<String, Projection> relations = Maps.newTreeMap();
+            while (true) {
+                String name = name();
+                if (peek() == '(') {
+                    pos++;
+                    Projection projection = peek() == ')' ? empty() : list();
+                    if (peek() != ')' || relations.put(name, projection) != null) {
+                        throw error();
+                    }
+                    pos++;
+                } else {
+                    names.add(name);
+                }
+                if (peek() != ',') {
+                    break;
+                }
+                pos++;
+            }
+            return new Projection(ImmutableSortedSet.copyOf(names), ImmutableSortedMap.copyOf(relations), false);
+        }
+
+        private Projection empty() {
+            return new Projection(ImmutableSortedSet.of(), ImmutableSortedMap.of(), false);
+        }
+
+        private String name() {
+            skipSpace();
+            int start = pos;
+            while (pos < spec.length() && ",()".indexOf(spec.charAt(pos)) == -1
+                    && !Character.isWhitespace(spec.charAt(pos))) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error();
+            }
+            String name = spec.substring(start, pos);
+            skipSpace();
+            return name;
+        }
+
+        private char peek() {
+            skipSpace();
+            return pos < spec.length() ? spec.charAt(pos) : 0;
+        }
+
+        private void skipSpace() {
+            while (pos < spec.length() && Character.isWhitespace(spec.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error() {
+            return new IllegalArgumentException(
+                    String.format("Invalid projection at position %d: '%s'", pos, spec));
+        }
+    }
+}
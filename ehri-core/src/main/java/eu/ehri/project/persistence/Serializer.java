@@ -19,23 +19,33 @@
 
 package eu.ehri.project.persistence;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.base.Strings;
 import com.google.common.collect.*;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
+import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.SerializationError;
 import eu.ehri.project.models.EntityClass;
-import eu.ehri.project.models.annotations.Dependent;
 import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.annotations.Fetch;
 import eu.ehri.project.models.base.Entity;
-import eu.ehri.project.models.utils.ClassUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Class containing static methods to convert between FramedVertex instances,
@@ -47,6 +57,11 @@ public final class Serializer {
 
     private static final int DEFAULT_CACHE_SIZE = 100;
 
+    // For writing property values. Since many values are written
+    // for each item the generator is not flushed after each one.
+    private static final ObjectMapper valueMapper = new ObjectMapper()
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
     private static class LruCache<A, B> extends LinkedHashMap<A, B> {
         private static final long serialVersionUID = -5094946431180768722L;
         private final int maxEntries;
@@ -62,13 +77,26 @@ public final class Serializer {
         }
     }
 
+    // The vertices read while building a fragment for the shared cache.
+    private static final class Members {
+        private final FragmentCache cache;
+        private final Set<Object> ids = Sets.newHashSet();
+
+        private Members(FragmentCache cache) {
+            this.cache = cache;
+        }
+    }
+
     private final FramedGraph<?> graph;
     private final int maxTraversals;
     private final boolean dependentOnly;
     private final boolean liteMode;
     private final boolean meta;
     private final List<String> includeProps;
+    private final Projection projection;
     private final LruCache<String, Bundle> cache;
+    private final LruCache<String, TokenBuffer> jsonCache;
+    private final boolean sharedCache;
 
 
     /**
@@ -90,7 +118,10 @@ public final class Serializer {
         private boolean liteMode = false;
         private boolean meta = true;
         private List<String> includeProps = Lists.newArrayList();
+        private Projection projection = Projection.ALL;
         private LruCache<String, Bundle> cache;
+        private LruCache<String, TokenBuffer> jsonCache;
+        private boolean sharedCache = false;
 
         public Builder(FramedGraph<?> graph) {
             this.graph = graph;
@@ -127,6 +158,22 @@ public final class Serializer {
 
         public Builder withCache(int size) {
             this.cache = new LruCache<>(size);
+            this.jsonCache = new LruCache<>(size);
+            return this;
+        }
+
+        /**
+         * Share serialized items with other serializers on the same
+         * database, and reuse them until they change.
+         *
+         * @return this builder
+         */
+        public Builder withSharedCache() {
+            return withSharedCache(true);
+        }
+
+        public Builder withSharedCache(boolean sharedCache) {
+            this.sharedCache = sharedCache;
             return this;
         }
 
@@ -135,6 +182,17 @@ public final class Serializer {
             return this;
         }
 
+        /**
+         * Serialize only the selected properties and relations.
+         *
+         * @param projection a projection
+         * @return this builder
+         */
+        public Builder withProjection(Projection projection) {
+            this.projection = projection;
+            return this;
+        }
+
         public Serializer build() {
             return new Serializer(this);
         }
@@ -143,7 +201,8 @@ public final class Serializer {
 
     public Serializer(Builder builder) {
         this(builder.graph, builder.dependentOnly,
-                builder.maxTraversals, builder.liteMode, builder.meta, builder.includeProps, builder.cache);
+                builder.maxTraversals, builder.liteMode, builder.meta, builder.includeProps, builder.projection, builder.cache,
+                builder.jsonCache, builder.sharedCache);
     }
 
     /**
@@ -154,18 +213,26 @@ public final class Serializer {
      * @param dependentOnly Only serialize dependent nodes
      * @param depth         Depth at which to stop recursion
      * @param lite          Only serialize mandatory properties
+     * @param projection    The properties and relations to serialize
      * @param cache         Use a cache - use for single operations serializing many vertices
      *                      with common attributes, and NOT for reusable serializers
+     * @param jsonCache     A cache of the same kind for items written directly as JSON
+     * @param sharedCache   Use the cache of serialized items shared by all serializers
+     *                      on the graph's database
      */
     private Serializer(FramedGraph<?> graph, boolean dependentOnly, int depth, boolean lite,
-                       boolean meta, List<String> includeProps, LruCache<String, Bundle> cache) {
+                       boolean meta, List<String> includeProps, Projection projection, LruCache<String, Bundle> cache,
+                       LruCache<String, TokenBuffer> jsonCache, boolean sharedCache) {
         this.graph = graph;
         this.dependentOnly = dependentOnly;
         this.maxTraversals = depth;
         this.liteMode = lite;
         this.meta = meta;
         this.includeProps = includeProps;
+        this.projection = projection;
         this.cache = cache;
+        this.jsonCache = jsonCache;
+        this.sharedCache = sharedCache;
     }
 
     /**
@@ -176,7 +243,7 @@ public final class Serializer {
      */
     public Serializer withIncludedProperties(List<String> includeProps) {
         return new Serializer(graph, dependentOnly, maxTraversals, liteMode, meta,
-                includeProps, cache);
+                includeProps, projection, cache, jsonCache, sharedCache);
     }
 
     /**
@@ -187,7 +254,7 @@ public final class Serializer {
      */
     public Serializer withDepth(int depth) {
         return new Serializer(graph, dependentOnly, depth, liteMode, meta,
-                includeProps, cache);
+                includeProps, projection, cache, jsonCache, sharedCache);
     }
 
     /**
@@ -199,7 +266,7 @@ public final class Serializer {
      */
     public Serializer withDependentOnly(boolean dependentOnly) {
         return new Serializer(graph, dependentOnly, maxTraversals, liteMode, meta,
-                includeProps, cache);
+                includeProps, projection, cache, jsonCache, sharedCache);
     }
 
     /**
@@ -210,7 +277,18 @@ public final class Serializer {
      */
     public Serializer withMeta(boolean meta) {
         return new Serializer(graph, dependentOnly, maxTraversals, liteMode, meta,
-                includeProps, cache);
+                includeProps, projection, cache, jsonCache, sharedCache);
+    }
+
+    /**
+     * Create a new serializer from this one, with the given projection.
+     *
+     * @param projection the properties and relations to serialize
+     * @return a new serializer
+     */
+    public Serializer withProjection(Projection projection) {
+        return new Serializer(graph, dependentOnly, maxTraversals, liteMode, meta,
+                includeProps, projection, cache, jsonCache, sharedCache);
     }
 
     /**
@@ -222,6 +300,15 @@ public final class Serializer {
         return includeProps;
     }
 
+    /**
+     * Get the projection of properties and relations for this serializer.
+     *
+     * @return a projection
+     */
+    public Projection getProjection() {
+        return projection;
+    }
+
     /**
      * Return a serializer that caches recently-serialized items.
      *
@@ -230,10 +317,12 @@ public final class Serializer {
     public Serializer withCache() {
         return new Builder(graph)
                 .withIncludedProperties(includeProps)
+                .withProjection(projection)
                 .withLiteMode(liteMode)
                 .withMeta(meta)
                 .dependentOnly(dependentOnly)
                 .withDepth(maxTraversals)
+                .withSharedCache(sharedCache)
                 .withCache().build();
     }
 
@@ -270,7 +359,7 @@ public final class Serializer {
      * @throws SerializationError if the data cannot be serialized
      */
     public <T extends Entity> Bundle entityToBundle(T item) throws SerializationError {
-        return vertexToBundle(item.asVertex(), 0, maxTraversals, false, meta);
+        return vertexToBundle(item.asVertex());
     }
 
     /**
@@ -282,7 +371,10 @@ public final class Serializer {
      * @throws SerializationError if the data cannot be serialized
      */
     public Bundle vertexToBundle(Vertex item) throws SerializationError {
-        return vertexToBundle(item, 0, maxTraversals, false, meta);
+        Members members = getSharedMembers();
+        return members != null
+                ? fetchShared(item, 0, maxTraversals, false, meta, projection, members)
+                : vertexToBundle(item, 0, maxTraversals, false, meta, projection, null);
     }
 
     /**
@@ -308,6 +400,40 @@ public final class Serializer {
         return DataConverter.bundleToJson(vertexToBundle(item));
     }
 
+    /**
+     * Write a vertex frame directly to a JSON generator, in the same
+     * form as {@link #entityToData(Entity)}, without building a bundle.
+     *
+     * @param item      The framed item
+     * @param generator A JSON generator
+     * @param <T>       The generic type of the item
+     * @throws SerializationError if the data cannot be serialized
+     */
+    public <T extends Entity> void entityToJson(T item, JsonGenerator generator) throws SerializationError {
+        vertexToJson(item.asVertex(), generator);
+    }
+
+    /**
+     * Write a vertex directly to a JSON generator, in the same
+     * form as {@link #vertexToData(Vertex)}, without building a bundle.
+     *
+     * @param item      The item vertex
+     * @param generator A JSON generator
+     * @throws SerializationError if the data cannot be serialized
+     */
+    public void vertexToJson(Vertex item, JsonGenerator generator) throws SerializationError {
+        try {
+            Members members = getSharedMembers();
+            if (members != null) {
+                writeShared(item, 0, maxTraversals, false, meta, projection, generator, members);
+            } else {
+                writeVertex(item, 0, maxTraversals, false, meta, projection, generator, null);
+            }
+        } catch (IOException e) {
+            throw new SerializationError("Error writing vertex to JSON: " + item, e);
+        }
+    }
+
     /**
      * Run a callback every time a node in a subtree is encountered,
      * excepting the top-level node.
@@ -317,7 +443,46 @@ public final class Serializer {
      * @param <T>  The generic type of the item
      */
     public <T extends Entity> void traverseSubtree(T item, TraversalCallback cb) {
-        traverseSubtree(item, 0, cb);
+        traverseSubtree(item.asVertex(), 0, cb);
+    }
+
+    /**
+     * Get a revision string for an item, without serializing it. This
+     * is a digest of the IDs and latest events of the item and of the
+     * items fetched directly with it and, if metadata is included, of
+     * the item's metadata, such as counts of its children.
+     * <p>
+     * Changes which are not recorded as events, other than to the
+     * item's metadata, and changes to items fetched at a further remove
+     * from the item, are not reflected in its revision.
+     *
+     * @param item The item
+     * @param <T>  The generic type of the item
+     * @return a revision string
+     */
+    public <T extends Entity> String getRevision(T item) {
+        Vertex vertex = item.asVertex();
+        TraversalPlan plan = TraversalPlan.of(EntityClass.withName(vertex.getProperty(EntityType.TYPE_KEY)));
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        putRevision(vertex, hasher);
+        if (meta) {
+            for (Map.Entry<String, Object> entry : new TreeMap<>(getVertexMeta(vertex, plan)).entrySet()) {
+                putRevisionValue(entry.getKey(), hasher);
+                putRevisionValue(String.valueOf(entry.getValue()), hasher);
+            }
+        }
+        if (maxTraversals > 0) {
+            for (TraversalPlan.Relation relation : plan.getRelations()) {
+                boolean isLite = liteMode || relation.lite;
+                if (projection.includesRelation(relation.name) && shouldTraverse(relation, 0, isLite)) {
+                    putRevisionValue(relation.name, hasher);
+                    for (Vertex v : getRelated(vertex, relation, 0)) {
+                        putRevision(v, hasher);
+                    }
+                }
+            }
+        }
+        return hasher.hash().toString();
     }
 
     /**
@@ -329,20 +494,24 @@ public final class Serializer {
      * @return A data bundle
      * @throws SerializationError if the data cannot be serialized
      */
-    private Bundle vertexToBundle(Vertex item, int depth, int maxDepth, boolean lite, boolean meta) throws SerializationError {
+    private Bundle vertexToBundle(Vertex item, int depth, int maxDepth, boolean lite, boolean meta,
+            Projection projection, Members members) throws SerializationError {
+        if (members != null) {
+            members.ids.add(item.getId());
+        }
         try {
             EntityClass type = EntityClass.withName(item.getProperty(EntityType.TYPE_KEY));
             String id = item.getProperty(EntityType.ID_KEY);
             logger.trace("Serializing {} ({}) at depth {}", id, type, depth);
 
-            Class<? extends Entity> cls = type.getJavaClass();
+            TraversalPlan plan = TraversalPlan.of(type);
             Bundle.Builder builder = Bundle.Builder.withClass(type)
                     .setId(id)
-                    .addData(getVertexData(item, type, lite))
-                    .addRelations(getRelationData(item, depth, maxDepth, lite, meta, cls));
+                    .addData(getVertexData(item, type, lite, projection))
+                    .addRelations(getRelationData(item, depth, maxDepth, lite, meta, projection, plan, members));
             if (meta) {
                 builder = builder
-                        .addMetaData(getVertexMeta(item, cls))
+                        .addMetaData(getVertexMeta(item, plan))
                         .addMetaDataValue("gid", item.getId());
             }
             return builder.build();
@@ -352,63 +521,186 @@ public final class Serializer {
         }
     }
 
-    private Bundle fetch(Entity frame, int depth, int maxDepth, boolean isLite, boolean meta) throws SerializationError {
+    /**
+     * Write a vertex, and its @Fetch'd relations, to a JSON generator.
+     * This follows the same traversal as {@link #vertexToBundle(Vertex, int, int, boolean, boolean, Members)}
+     * and writes the same structure as {@link DataConverter#bundleToData(Bundle)}.
+     */
+    private void writeVertex(Vertex item, int depth, int maxDepth, boolean lite, boolean meta,
+            Projection projection, JsonGenerator g, Members members) throws SerializationError, IOException {
+        if (members != null) {
+            members.ids.add(item.getId());
+        }
+        EntityClass type;
+        try {
+            type = EntityClass.withName(item.getProperty(EntityType.TYPE_KEY));
+        } catch (IllegalArgumentException e) {
+            logger.error("Error serializing vertex with data: {}", getVertexData(item));
+            throw new SerializationError("Unable to serialize vertex: " + item, e);
+        }
+        String id = item.getProperty(EntityType.ID_KEY);
+        logger.trace("Writing {} ({}) at depth {}", id, type, depth);
+
+        TraversalPlan plan = TraversalPlan.of(type);
+        g.writeStartObject();
+        g.writeStringField(Bundle.ID_KEY, id);
+        g.writeStringField(Bundle.TYPE_KEY, type.getName());
+        g.writeFieldName(Bundle.DATA_KEY);
+        g.writeStartObject();
+        for (String key : getDataKeys(item, type, lite, projection)) {
+            if (!(key.equals(EntityType.ID_KEY) || key
+                    .equals(EntityType.TYPE_KEY) || key.startsWith("_"))) {
+                writeField(key, getDataValue(item, type, key), g);
+            }
+        }
+        g.writeEndObject();
+        if (meta) {
+            g.writeFieldName(Bundle.META_KEY);
+            g.writeStartObject();
+            for (Map.Entry<String, Object> entry : getVertexMeta(item, plan).entrySet()) {
+                writeField(entry.getKey(), entry.getValue(), g);
+            }
+            writeField("gid", item.getId(), g);
+            g.writeEndObject();
+        }
+        g.writeFieldName(Bundle.REL_KEY);
+        g.writeStartObject();
+        if (depth < maxDepth) {
+            for (TraversalPlan.Relation relation : plan.getRelations()) {
+                boolean isLite = liteMode || lite || relation.lite;
+                if (projection.includesRelation(relation.name) && shouldTraverse(relation, depth, isLite)) {
+                    int nextDepth = depth + 1;
+                    int nextMaxDepth = getNewMaxDepth(relation, nextDepth, maxDepth);
+                    Projection next = projection.getRelation(relation.name);
+                    // As with bundles, relations with no items are omitted.
+                    boolean started = false;
+                    for (Vertex v : getRelated(item, relation, depth)) {
+                        if (!started) {
+                            g.writeFieldName(relation.name);
+                            g.writeStartArray();
+                            started = true;
+                        }
+                        writeFetched(v, nextDepth, nextMaxDepth, isLite, meta, next, g, members);
+                    }
+                    if (started) {
+                        g.writeEndArray();
+                    }
+                }
+            }
+        }
+        g.writeEndObject();
+        g.writeEndObject();
+    }
+
+    private void writeFetched(Vertex item, int depth, int maxDepth, boolean isLite, boolean meta,
+            Projection projection, JsonGenerator g, Members members) throws SerializationError, IOException {
+        if (members != null) {
+            writeShared(item, depth, maxDepth, isLite, meta, projection, g, members);
+        } else if (jsonCache != null) {
+            String key = item.<String>getProperty(EntityType.ID_KEY) + depth + isLite + meta + projection;
+            TokenBuffer buffer = jsonCache.get(key);
+            if (buffer == null) {
+                buffer = new TokenBuffer(g.getCodec(), false);
+                writeVertex(item, depth, maxDepth, isLite, meta, projection, buffer, null);
+                jsonCache.put(key, buffer);
+            }
+            buffer.serialize(g);
+        } else {
+            writeVertex(item, depth, maxDepth, isLite, meta, projection, g, null);
+        }
+    }
+
+    private void writeShared(Vertex item, int depth, int maxDepth, boolean isLite, boolean meta,
+            Projection projection, JsonGenerator g, Members members) throws SerializationError, IOException {
+        FragmentCache.Key key = getFragmentKey(item, depth, maxDepth, isLite, meta, projection, true);
+        FragmentCache.Fragment<TokenBuffer> fragment = members.cache.get(key);
+        if (fragment == null) {
+            long version = members.cache.getVersion();
+            Members own = new Members(members.cache);
+            TokenBuffer buffer = new TokenBuffer(g.getCodec(), false);
+            writeVertex(item, depth, maxDepth, isLite, meta, projection, buffer, own);
+            members.cache.put(key, buffer, own.ids, version);
+            members.ids.addAll(own.ids);
+            buffer.serialize(g);
+        } else {
+            members.ids.addAll(fragment.members);
+            fragment.value.serialize(g);
+        }
+    }
+
+    private static void writeField(String key, Object value, JsonGenerator g) throws IOException {
+        if (value != null) {
+            g.writeFieldName(key);
+            valueMapper.writeValue(g, value);
+        }
+    }
+
+    private Bundle fetch(Vertex item, int depth, int maxDepth, boolean isLite, boolean meta,
+            Projection projection, Members members) throws SerializationError {
+        if (members != null) {
+            return fetchShared(item, depth, maxDepth, isLite, meta, projection, members);
+        }
         if (cache != null) {
-            String key = frame.getId() + depth + isLite + meta;
+            String key = item.<String>getProperty(EntityType.ID_KEY) + depth + isLite + meta + projection;
             if (cache.containsKey(key)) {
                 return cache.get(key);
             }
-            Bundle bundle = vertexToBundle(frame.asVertex(), depth, maxDepth, isLite, meta);
+            Bundle bundle = vertexToBundle(item, depth, maxDepth, isLite, meta, projection, null);
             cache.put(key, bundle);
             return bundle;
         }
-        return vertexToBundle(frame.asVertex(), depth, maxDepth, isLite, meta);
+        return vertexToBundle(item, depth, maxDepth, isLite, meta, projection, null);
+    }
+
+    private Bundle fetchShared(Vertex item, int depth, int maxDepth, boolean isLite, boolean meta,
+            Projection projection, Members members) throws SerializationError {
+        FragmentCache.Key key = getFragmentKey(item, depth, maxDepth, isLite, meta, projection, false);
+        FragmentCache.Fragment<Bundle> fragment = members.cache.get(key);
+        if (fragment == null) {
+            long version = members.cache.getVersion();
+            Members own = new Members(members.cache);
+            Bundle bundle = vertexToBundle(item, depth, maxDepth, isLite, meta, projection, own);
+            members.cache.put(key, bundle, own.ids, version);
+            members.ids.addAll(own.ids);
+            return bundle;
+        }
+        members.ids.addAll(fragment.members);
+        return fragment.value;
+    }
+
+    private FragmentCache.Key getFragmentKey(Vertex item, int depth, int maxDepth, boolean isLite, boolean meta,
+            Projection projection, boolean json) {
+        return new FragmentCache.Key(item.getId(), depth, maxDepth, isLite, meta, dependentOnly, liteMode,
+                includeProps, projection, json);
+    }
+
+    // Get a collector for the shared cache, if this serializer uses
+    // it and it is available to the current transaction.
+    private Members getSharedMembers() {
+        if (sharedCache) {
+            FragmentCache cache = FragmentCache.getInstance(graph.getBaseGraph());
+            if (cache.isAvailable()) {
+                return new Members(cache);
+            }
+        }
+        return null;
     }
 
-    // TODO: Profiling shows that (unsurprisingly) this method is a
-    // performance hotspot. Rewrite it so that instead of using Frames
-    // method invocations to do the traversal, we use regular traversals
-    // wherever possible. Unfortunately the use of @JavaHandler Frame
-    // annotations will make this difficult.
     private ListMultimap<String, Bundle> getRelationData(
-            Vertex item, int depth, int maxDepth, boolean lite, boolean meta, Class<?> cls) {
+            Vertex item, int depth, int maxDepth, boolean lite, boolean meta, Projection projection,
+            TraversalPlan plan, Members members)
+            throws SerializationError {
         ListMultimap<String, Bundle> relations = ArrayListMultimap.create();
         if (depth < maxDepth) {
-            Map<String, Method> fetchMethods = ClassUtils.getFetchMethods(cls);
-            logger.trace(" - Fetch methods: {}", fetchMethods);
-            for (Map.Entry<String, Method> entry : fetchMethods.entrySet()) {
-                String relationName = entry.getKey();
-                Method method = entry.getValue();
-
-                boolean isLite = liteMode || lite || shouldSerializeLite(method);
-
-                if (shouldTraverse(relationName, method, depth, isLite)) {
+            for (TraversalPlan.Relation relation : plan.getRelations()) {
+                boolean isLite = liteMode || lite || relation.lite;
+                if (projection.includesRelation(relation.name) && shouldTraverse(relation, depth, isLite)) {
                     int nextDepth = depth + 1;
-                    int nextMaxDepth = getNewMaxDepth(method, nextDepth, maxDepth);
-                    logger.trace("Fetching relation: {}, depth {}, {}",
-                            relationName, depth, method.getName());
-                    try {
-                        Object result = method.invoke(graph.frame(
-                                item, cls));
-                        // The result of one of these fetchMethods should either
-                        // be a single Frame, or a Iterable<Frame>.
-                        if (result instanceof Iterable<?>) {
-                            for (Object d : (Iterable<?>) result) {
-                                relations.put(relationName, fetch((Entity) d, nextDepth, nextMaxDepth, isLite, meta));
-                            }
-                        } else {
-                            // This relationship could be NULL if, e.g. a
-                            // collection has no holder.
-                            if (result != null) {
-                                relations.put(relationName, fetch((Entity) result, nextDepth, nextMaxDepth, isLite, meta));
-                            }
-                        }
-                    } catch (Exception e) {
-                        logger.error("Error serializing relationship for {} ({}): {}, depth {}, {}",
-                                item, item.getProperty(EntityType.TYPE_KEY),
-                                relationName, depth, method.getName());
-                        throw new RuntimeException(
-                                "Unexpected error serializing Frame " + item, e);
+                    int nextMaxDepth = getNewMaxDepth(relation, nextDepth, maxDepth);
+                    Projection next = projection.getRelation(relation.name);
+                    logger.trace("Fetching relation: {}, depth {}", relation, depth);
+                    for (Vertex v : getRelated(item, relation, depth)) {
+                        relations.put(relation.name, fetch(v, nextDepth, nextMaxDepth, isLite, meta, next, members));
                     }
                 }
             }
@@ -416,59 +708,71 @@ public final class Serializer {
         return relations;
     }
 
-    private int getNewMaxDepth(Method fetchMethod, int currentDepth, int currentMaxDepth) {
-        Fetch fetchProps = fetchMethod.getAnnotation(Fetch.class);
-        int max = fetchProps.numLevels();
+    private static void putRevision(Vertex item, Hasher hasher) {
+        putRevisionValue(item.getProperty(EntityType.ID_KEY), hasher);
+        for (Vertex link : item.getVertices(Direction.OUT, Ontology.ENTITY_HAS_LIFECYCLE_EVENT)) {
+            for (Vertex event : link.getVertices(Direction.OUT, Ontology.ENTITY_HAS_EVENT)) {
+                putRevisionValue(event.getProperty(EntityType.ID_KEY), hasher);
+            }
+        }
+        hasher.putByte((byte) 1);
+    }
+
+    private static void putRevisionValue(String value, Hasher hasher) {
+        hasher.putString(Strings.nullToEmpty(value), StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+
+    private Iterable<Vertex> getRelated(Vertex item, TraversalPlan.Relation relation, int depth) {
+        try {
+            return relation.getVertices(graph, item);
+        } catch (Exception e) {
+            logger.error("Error serializing relationship for {} ({}): {}, depth {}",
+                    item, item.getProperty(EntityType.TYPE_KEY), relation, depth);
+            throw new RuntimeException(
+                    "Unexpected error serializing Frame " + item, e);
+        }
+    }
+
+    private int getNewMaxDepth(TraversalPlan.Relation relation, int currentDepth, int currentMaxDepth) {
+        int max = relation.numLevels;
         int newMax = max == -1
                 ? currentMaxDepth
                 : Math.min(currentDepth + max, currentMaxDepth);
         logger.trace("Current depth {}, fetch levels: {}, current max: {}, new max: {}, {}", currentDepth, max,
-                currentMaxDepth, newMax, fetchMethod.getName());
+                currentMaxDepth, newMax, relation);
         return newMax;
     }
 
-    private boolean shouldSerializeLite(Method method) {
-        Dependent dep = method.getAnnotation(Dependent.class);
-        Fetch fetch = method.getAnnotation(Fetch.class);
-        return dep == null && (fetch == null || !fetch.full());
-    }
-
-    private boolean shouldTraverse(String relationName, Method method, int level, boolean lite) {
+    private boolean shouldTraverse(TraversalPlan.Relation relation, int level, boolean lite) {
         // In order to avoid @Fetching the whole graph we track the
         // depth parameter and increase it for every traversal.
         // However, the @Fetch annotation can also specify a maximum
         // level of traversal beyond which we don't serialize.
-        Fetch fetchProps = method.getAnnotation(Fetch.class);
-        Dependent dep = method.getAnnotation(Dependent.class);
-
-        if (fetchProps == null) {
-            return false;
-        }
-
-        if (dependentOnly && dep == null) {
+        String relationName = relation.name;
+        if (dependentOnly && !relation.dependent) {
             logger.trace(
                     "Terminating fetch dependent only is specified: {}, ifBelowLevel {}, limit {}",
-                    relationName, level, fetchProps.ifBelowLevel());
+                    relationName, level, relation.ifBelowLevel);
             return false;
         }
 
-        if (lite && fetchProps.whenNotLite()) {
+        if (lite && relation.whenNotLite) {
             logger.trace(
                     "Terminating fetch because it specifies whenNotLite: {}, ifBelowLevel {}, limit {}",
-                    relationName, level, fetchProps.ifBelowLevel());
+                    relationName, level, relation.ifBelowLevel);
             return false;
         }
 
-        if (level >= fetchProps.ifBelowLevel()) {
+        if (level >= relation.ifBelowLevel) {
             logger.trace(
                     "Terminating fetch because level exceeded ifBelowLevel on fetch clause: {}, ifBelowLevel {}, limit {}",
-                    relationName, level, fetchProps.ifBelowLevel());
+                    relationName, level, relation.ifBelowLevel);
             return false;
         }
 
         // If the fetch should only be serialized at a certain ifBelowLevel and
         // we've exceeded that, don't serialize.
-        if (fetchProps.ifLevel() != -1 && level > fetchProps.ifLevel()) {
+        if (relation.ifLevel != -1 && level > relation.ifLevel) {
             logger.trace(
                     "Terminating fetch because ifLevel clause found on {}, ifBelowLevel {}",
                     relationName, level);
@@ -480,20 +784,41 @@ public final class Serializer {
     /**
      * Fetch a map of data from a vertex.
      */
-    private Map<String, Object> getVertexData(Vertex item, EntityClass type, boolean lite) {
+    private Map<String, Object> getVertexData(Vertex item, EntityClass type, boolean lite, Projection projection) {
         Map<String, Object> data = Maps.newHashMap();
-        Iterable<String> keys = lite
-                ? getMandatoryOrSpecificProps(type)
-                : item.getPropertyKeys();
-
-        for (String key : keys) {
+        for (String key : getDataKeys(item, type, lite, projection)) {
             if (!(key.equals(EntityType.ID_KEY) || key
                     .equals(EntityType.TYPE_KEY) || key.startsWith("_")))
-                data.put(key, item.getProperty(key));
+                data.put(key, getDataValue(item, type, key));
         }
         return data;
     }
 
+    /**
+     * Fetch a data value from a vertex, reconstructing the data of
+     * versions which are stored as deltas.
+     */
+    private static Object getDataValue(Vertex item, EntityClass type, String key) {
+        return type == EntityClass.VERSION && key.equals(Ontology.VERSION_ENTITY_DATA)
+                ? VersionManager.getEntityData(item)
+                : item.getProperty(key);
+    }
+
+    /**
+     * Get the keys of the properties to serialize: those selected by the
+     * projection, if it does not select all of them, otherwise in lite mode
+     * the mandatory and included ones, and otherwise all the vertex's keys.
+     */
+    private Iterable<String> getDataKeys(Vertex item, EntityClass type, boolean lite, Projection projection) {
+        if (!projection.isAllFields()) {
+            return projection.getFields();
+        }
+        // NB: Included properties may also be mandatory ones.
+        return lite
+                ? Sets.newLinkedHashSet(getMandatoryOrSpecificProps(type))
+                : item.getPropertyKeys();
+    }
+
     /**
      * Get a list of properties with are either given specifically
      * in this serializer's includeProps attr, or are mandatory for
@@ -504,7 +829,7 @@ public final class Serializer {
      */
     private List<String> getMandatoryOrSpecificProps(EntityClass type) {
         return Lists.newArrayList(
-                Iterables.concat(ClassUtils.getMandatoryPropertyKeys(type.getJavaClass()),
+                Iterables.concat(TraversalPlan.of(type).getMandatoryKeys(),
                         includeProps));
     }
 
@@ -513,26 +838,17 @@ public final class Serializer {
      * This is anything that begins with an underscore (but now
      * two underscores)
      */
-    private Map<String, Object> getVertexMeta(Vertex item, Class<?> cls) {
+    private Map<String, Object> getVertexMeta(Vertex item, TraversalPlan plan) {
         Map<String, Object> data = Maps.newHashMap();
         for (String key : item.getPropertyKeys()) {
             if (!key.startsWith("__") && key.startsWith("_")) {
                 data.put(key.substring(1), item.getProperty(key));
             }
         }
-        Map<String, Method> metaMethods = ClassUtils.getMetaMethods(cls);
-        if (!metaMethods.isEmpty()) {
-            try {
-                Object frame = graph.frame(item, cls);
-                for (Map.Entry<String, Method> metaEntry : metaMethods.entrySet()) {
-                    Object value = metaEntry.getValue().invoke(frame);
-                    if (value != null) {
-                        data.put(metaEntry.getKey(), value);
-                    }
-                }
-            } catch (Exception e) {
-                throw new RuntimeException("Error fetching metadata", e);
-            }
+        try {
+            data.putAll(plan.getMeta(graph, item));
+        } catch (Exception e) {
+            throw new RuntimeException("Error fetching metadata", e);
         }
         return data;
     }
@@ -549,38 +865,19 @@ public final class Serializer {
      * Run a callback every time a node in a subtree is encountered, excepting
      * the top-level node.
      */
-    private <T extends Entity> void traverseSubtree(T item, int depth, TraversalCallback cb) {
+    private void traverseSubtree(Vertex item, int depth, TraversalCallback cb) {
         if (depth >= maxTraversals) {
             return;
         }
-        Class<?> cls = EntityClass.withName(item.getProperty(EntityType.TYPE_KEY)).getJavaClass();
-        Map<String, Method> fetchMethods = ClassUtils.getFetchMethods(cls);
-        for (Map.Entry<String, Method> entry : fetchMethods.entrySet()) {
-
-            String relationName = entry.getKey();
-            Method method = entry.getValue();
-            if (shouldTraverse(relationName, method, depth, false)) {
-                try {
-                    Object result = method.invoke(graph.frame(
-                            item.asVertex(), cls));
-                    if (result instanceof Iterable<?>) {
-                        int rnum = 0;
-                        for (Object d : (Iterable<?>) result) {
-                            cb.process((Entity) d, depth,
-                                    entry.getKey(), rnum);
-                            traverseSubtree((Entity) d, depth + 1, cb);
-                            rnum++;
-                        }
-                    } else {
-                        if (result != null) {
-                            cb.process((Entity) result, depth,
-                                    entry.getKey(), 0);
-                            traverseSubtree((Entity) result,
-                                    depth + 1, cb);
-                        }
-                    }
-                } catch (Exception e) {
-                    throw new RuntimeException("Unexpected error serializing Frame", e);
+        TraversalPlan plan = TraversalPlan.of(EntityClass.withName(item.getProperty(EntityType.TYPE_KEY)));
+        for (TraversalPlan.Relation relation : plan.getRelations()) {
+            if (shouldTraverse(relation, depth, false)) {
+                int rnum = 0;
+                for (Vertex v : getRelated(item, relation, depth)) {
+                    Class<? extends Entity> cls = EntityClass
+                            .withName(v.getProperty(EntityType.TYPE_KEY)).getJavaClass();
+                    cb.process(graph.frame(v, cls), depth, relation.name, rnum++);
+                    traverseSubtree(v, depth + 1, cb);
                 }
             }
         }
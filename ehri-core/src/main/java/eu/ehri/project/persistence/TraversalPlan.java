@@ -0,0 +1,224 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.frames.Adjacency;
+import com.tinkerpop.frames.FramedGraph;
+import com.tinkerpop.frames.VertexFrame;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.Dependent;
+import eu.ehri.project.models.annotations.Fetch;
+import eu.ehri.project.models.annotations.UniqueAdjacency;
+import eu.ehri.project.models.utils.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The relations and metadata the serializer reads for a type
+ * of entity, compiled once from the @Fetch, @Dependent and @Meta
+ * annotations on its class.
+ * <p>
+ * Relations and metadata backed by an adjacency are read directly
+ * from the vertex. Only those implemented by a @JavaHandler are
+ * read by invoking the method on a frame.
+ */
+final class TraversalPlan {
+
+    private static final Map<EntityClass, TraversalPlan> plans = Maps.newEnumMap(EntityClass.class);
+
+    static {
+        for (EntityClass type : EntityClass.values()) {
+            plans.put(type, compile(type.getJavaClass()));
+        }
+    }
+
+    private final Class<?> cls;
+    private final List<Relation> relations;
+    private final List<MetaValue> metaValues;
+    private final Collection<String> mandatoryKeys;
+    private final boolean framedMeta;
+
+    private TraversalPlan(Class<?> cls, List<Relation> relations, List<MetaValue> metaValues,
+            Collection<String> mandatoryKeys) {
+        this.cls = cls;
+        this.relations = relations;
+        this.metaValues = metaValues;
+        this.mandatoryKeys = mandatoryKeys;
+        this.framedMeta = metaValues.stream().anyMatch(m -> m.label == null);
+    }
+
+    /**
+     * Get the plan for a type of entity.
+     *
+     * @param type an entity class
+     * @return the type's traversal plan
+     */
+    static TraversalPlan of(EntityClass type) {
+        return plans.get(type);
+    }
+
+    /**
+     * Compile a plan for a frame class.
+     *
+     * @param cls a frame class
+     * @return a traversal plan
+     */
+    static TraversalPlan compile(Class<?> cls) {
+        Map<String, Method> fetchMethods = ClassUtils.getFetchMethods(cls);
+        ImmutableList.Builder<Relation> relations = ImmutableList.builder();
+        for (String name : Ordering.natural().nullsFirst().sortedCopy(fetchMethods.keySet())) {
+            Method method = fetchMethods.get(name);
+            Fetch fetch = method.getAnnotation(Fetch.class);
+            // Methods which are @Dependent but not @Fetch'd are never traversed.
+            if (fetch != null) {
+                relations.add(new Relation(cls, name, method, fetch, method.getAnnotation(Dependent.class) != null));
+            }
+        }
+        ImmutableList.Builder<MetaValue> metaValues = ImmutableList.builder();
+        for (Map.Entry<String, Method> entry : ClassUtils.getMetaMethods(cls).entrySet()) {
+            metaValues.add(new MetaValue(entry.getKey(), entry.getValue()));
+        }
+        return new TraversalPlan(cls, relations.build(), metaValues.build(),
+                ClassUtils.getMandatoryPropertyKeys(cls));
+    }
+
+    /**
+     * The relations to fetch, ordered by name.
+     */
+    List<Relation> getRelations() {
+        return relations;
+    }
+
+    /**
+     * The type's mandatory property keys.
+     */
+    Collection<String> getMandatoryKeys() {
+        return mandatoryKeys;
+    }
+
+    /**
+     * Read the type's @Meta values from a vertex. Null values are omitted.
+     *
+     * @param graph  the framed graph
+     * @param vertex a vertex of this plan's type
+     * @return a map of metadata values
+     */
+    Map<String, Object> getMeta(FramedGraph<?> graph, Vertex vertex) throws Exception {
+        Map<String, Object> data = Maps.newHashMap();
+        Object frame = framedMeta ? graph.frame(vertex, cls) : null;
+        for (MetaValue metaValue : metaValues) {
+            Object value = metaValue.label != null
+                    ? Iterables.size(vertex.getVertices(metaValue.direction, metaValue.label))
+                    : metaValue.method.invoke(frame);
+            if (value != null) {
+                data.put(metaValue.name, value);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * A @Fetch'd relation.
+     */
+    static final class Relation {
+        final String name;
+        final Method method;
+        final int numLevels;
+        final int ifLevel;
+        final int ifBelowLevel;
+        final boolean whenNotLite;
+        final boolean lite;
+        final boolean dependent;
+        private final String label;
+        private final Direction direction;
+        private final boolean single;
+        private final Class<?> cls;
+
+        private Relation(Class<?> cls, String name, Method method, Fetch fetch, boolean dependent) {
+            this.cls = cls;
+            this.name = name;
+            this.method = method;
+            this.numLevels = fetch.numLevels();
+            this.ifLevel = fetch.ifLevel();
+            this.ifBelowLevel = fetch.ifBelowLevel();
+            this.whenNotLite = fetch.whenNotLite();
+            this.lite = !dependent && !fetch.full();
+            this.dependent = dependent;
+            Adjacency adjacency = method.getAnnotation(Adjacency.class);
+            this.label = adjacency != null ? adjacency.label() : null;
+            this.direction = adjacency != null ? adjacency.direction() : null;
+            this.single = !Iterable.class.isAssignableFrom(method.getReturnType());
+        }
+
+        /**
+         * Read the vertices at the other end of this relation.
+         *
+         * @param graph  the framed graph
+         * @param vertex a vertex of the plan's type
+         * @return the related vertices, in the order Frames would give them
+         */
+        Iterable<Vertex> getVertices(FramedGraph<?> graph, Vertex vertex) throws Exception {
+            if (label != null) {
+                Iterable<Vertex> vertices = vertex.getVertices(direction, label);
+                return single ? Iterables.limit(vertices, 1) : vertices;
+            }
+            Object result = method.invoke(graph.frame(vertex, cls));
+            if (result instanceof Iterable<?>) {
+                return Iterables.transform((Iterable<?>) result, f -> ((VertexFrame) f).asVertex());
+            }
+            // A single relation may be null if, e.g. a collection has no holder.
+            return result == null ? ImmutableList.of() : ImmutableList.of(((VertexFrame) result).asVertex());
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + method.getName() + ")";
+        }
+    }
+
+    /**
+     * A value given by a @Meta method.
+     */
+    private static final class MetaValue {
+        private final String name;
+        private final Method method;
+        private final String label;
+        private final Direction direction;
+
+        private MetaValue(String name, Method method) {
+            this.name = name;
+            this.method = method;
+            // Counts of a unique adjacency are just the number of related vertices.
+            UniqueAdjacency adjacency = method.getAnnotation(UniqueAdjacency.class);
+            boolean isCount = adjacency != null && method.getName().startsWith("count");
+            this.label = isCount ? adjacency.label() : null;
+            this.direction = isCount ? adjacency.direction() : null;
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package eu.ehri.project.persistence;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Iterables;
 import com.tinkerpop.blueprints.CloseableIterable;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.util.WrappingCloseableIterable;
 import com.tinkerpop.frames.FramedGraph;
 import eu.ehri.project.core.GraphManager;
@@ -14,12 +17,30 @@ import eu.ehri.project.models.events.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.Optional;
 
+/**
+ * Class for fetching item versions.
+ * <p>
+ * An item's versions form a chain, newest first. The data of the
+ * newest version is stored in full, and when a version is replaced
+ * its data is stored instead as a compressed delta against that of
+ * its replacement, except for every {@value #SNAPSHOT_INTERVAL}th
+ * version, which is kept as a full snapshot. The data of any version
+ * can thus be reconstructed from at most that many others.
+ */
 public class VersionManager {
 
     private static final Logger logger = LoggerFactory.getLogger(ActionManager.class);
 
+    /**
+     * The interval at which versions are stored as full snapshots.
+     */
+    public static final int SNAPSHOT_INTERVAL = 10;
+
     private final FramedGraph<?> graph;
     private final GraphManager manager;
 
@@ -57,6 +78,15 @@ public class VersionManager {
      * @return an iterable of Version frames
      */
     public CloseableIterable<Version> versionsAtDeletion(EntityClass type, String from, String until) {
+        if (from != null) {
+            // Incremental harvests cover a short time range, so read the
+            // deletion events within it rather than every version of the type.
+            Iterable<SystemEvent> events = Iterables.filter(
+                    new ActionManager(graph).getLatestGlobalEvents(from, until),
+                    e -> EventTypes.deletion.equals(e.getEventType()) && from.compareTo(e.getTimestamp()) < 0);
+            return new WrappingCloseableIterable<>(Iterables.concat(Iterables.transform(events,
+                    e -> Iterables.filter(e.getPriorVersions(), v -> type.getName().equals(v.getEntityType())))));
+        }
         CloseableIterable<Version> versions = manager.getEntities(Ontology.VERSION_ENTITY_CLASS, type.getName(),
                 EntityClass.VERSION, Version.class);
         return new WrappingCloseableIterable<>(Iterables.filter(versions, v -> {
@@ -71,4 +101,89 @@ public class VersionManager {
             }
         }));
     }
+
+    /**
+     * Get the serialized data of a version, reconstructing it from
+     * that of newer versions if it is stored as a delta.
+     *
+     * @param version a version vertex
+     * @return the JSON data of the versioned item's sub-graph
+     */
+    public static String getEntityData(Vertex version) {
+        Deque<byte[]> deltas = new ArrayDeque<>();
+        Vertex current = version;
+        Object data = current.getProperty(Ontology.VERSION_ENTITY_DATA);
+        while (isDelta(data)) {
+            deltas.push(toBytes(data));
+            current = Iterables.getFirst(current.getVertices(Direction.IN, Ontology.ENTITY_HAS_PRIOR_VERSION), null);
+            data = current == null ? null : current.getProperty(Ontology.VERSION_ENTITY_DATA);
+            if (data == null) {
+                throw new IllegalStateException("Unable to find data for version delta: " + version.getId());
+            }
+        }
+        if (deltas.isEmpty()) {
+            return (String) data;
+        }
+        byte[] bytes = ((String) data).getBytes(Charsets.UTF_8);
+        while (!deltas.isEmpty()) {
+            bytes = Deltas.decode(bytes, deltas.pop());
+        }
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Store the data of a version which has been replaced as a delta
+     * against that of its replacement, unless it is to be kept as a
+     * full snapshot.
+     *
+     * @param prior the replaced version
+     * @param data  the data of the replacement version
+     */
+    void storeAsDelta(Vertex prior, String data) {
+        Object priorData = prior.getProperty(Ontology.VERSION_ENTITY_DATA);
+        if (!(priorData instanceof String) || isSnapshot(prior)) {
+            return;
+        }
+        byte[] priorBytes = ((String) priorData).getBytes(Charsets.UTF_8);
+        byte[] delta = Deltas.encode(data.getBytes(Charsets.UTF_8), priorBytes);
+        if (delta.length < priorBytes.length) {
+            logger.trace("Storing version {} as delta of {} bytes", prior.getId(), delta.length);
+            manager.setProperty(prior, Ontology.VERSION_ENTITY_DATA, delta);
+        }
+    }
+
+    // A version is kept as a snapshot if it follows the maximum
+    // number of successive deltas.
+    private static boolean isSnapshot(Vertex version) {
+        int deltas = 0;
+        Vertex current = version;
+        while ((current = Iterables.getFirst(current.getVertices(Direction.OUT,
+                Ontology.ENTITY_HAS_PRIOR_VERSION), null)) != null
+                && isDelta(current.getProperty(Ontology.VERSION_ENTITY_DATA))) {
+            if (++deltas == SNAPSHOT_INTERVAL - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDelta(Object data) {
+        return data != null && !(data instanceof String);
+    }
+
+    // Deltas are stored as byte arrays, which graphs may return
+    // as lists.
+    private static byte[] toBytes(Object data) {
+        if (data instanceof byte[]) {
+            return (byte[]) data;
+        } else if (data instanceof List) {
+            List<?> list = (List<?>) data;
+            byte[] bytes = new byte[list.size()];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = ((Number) list.get(i)).byteValue();
+            }
+            return bytes;
+        }
+        throw new IllegalStateException("Unexpected version data type: " + data.getClass());
+    }
 }
@@ -37,12 +37,14 @@ import java.util.HashMap;
 /**
  * Initialize the graph with a minimal set of vertices. This includes:
  * <ul>
+ *     <li>the global event queue</li>
  *     <li>an admin account</li>
  *     <li>permission nodes</li>
  *     <li>content type nodes</li>
  * </ul>
  */
 public class GraphInitializer {
+    private final FramedGraph<?> graph;
     private final GraphManager manager;
 
     private static final String INIT_MESSAGE = "Initialising graph";
@@ -51,6 +53,9 @@ public class GraphInitializer {
     static {
         ImmutableSet.Builder<String> builder = ImmutableSet.builder();
         builder.add(ActionManager.GLOBAL_EVENT_ROOT, Group.ADMIN_GROUP_IDENTIFIER);
+        for (int stripe = 1; stripe < ActionManager.EVENT_QUEUE_STRIPES; stripe++) {
+            builder.add(ActionManager.getEventStripeId(stripe));
+        }
         for (PermissionType t : PermissionType.values()) {
             builder.add(t.getName());
         }
@@ -61,6 +66,7 @@ public class GraphInitializer {
     }
 
     public GraphInitializer(FramedGraph<?> graph) {
+        this.graph = graph;
         manager = GraphManagerFactory.getInstance(graph);
     }
 
@@ -75,6 +81,9 @@ public class GraphInitializer {
                         Ontology.EVENT_LOG_MESSAGE, INIT_MESSAGE
                 ));
 
+        // Create the nodes at the head of its other stripes
+        new ActionManager(graph).createEventStripes();
+
         // Create admin account
         manager.createVertex(Group.ADMIN_GROUP_IDENTIFIER,
                 EntityClass.GROUP, new HashMap<String, Object>() {
@@ -19,6 +19,7 @@
 
 package eu.ehri.project.acl;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -29,6 +30,7 @@ import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.Annotation;
 import eu.ehri.project.models.Country;
 import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.Group;
 import eu.ehri.project.models.PermissionGrant;
 import eu.ehri.project.models.Repository;
@@ -45,6 +47,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 
@@ -57,6 +60,7 @@ import static eu.ehri.project.acl.PermissionType.OWNER;
 import static eu.ehri.project.acl.PermissionType.UPDATE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 
@@ -105,6 +109,24 @@ public class AclManagerTest extends GraphTestBase {
         assertFalse(AclManager.isAnonymous(admin));
     }
 
+    @Test
+    public void testChangesRolledBackAreNotCached() throws Exception {
+        loader.loadTestData();
+        graph.getBaseGraph().commit();
+        UserProfile reto = manager.getEntity("reto", UserProfile.class);
+        Group admin = manager.getEntity(Group.ADMIN_GROUP_IDENTIFIER, Group.class);
+        AclCache cache = AclCache.getInstance(reto.asVertex());
+        assertFalse(cache.getAccessorClosure(reto).contains(admin.asVertex()));
+
+        // A membership added by a transaction, other than via the API, is
+        // seen by the transaction but not kept once it is rolled back.
+        cache.invalidateMembership();
+        reto.asVertex().addEdge(Ontology.ACCESSOR_BELONGS_TO_GROUP, admin.asVertex());
+        assertTrue(cache.getAccessorClosure(reto).contains(admin.asVertex()));
+        graph.getBaseGraph().rollback();
+        assertFalse(cache.getAccessorClosure(reto).contains(admin.asVertex()));
+    }
+
     @Test
     public void testGetAccessControl() throws Exception {
         loader.loadTestData();
@@ -141,6 +163,55 @@ public class AclManagerTest extends GraphTestBase {
         assertTrue(acl.canAccess(c1, user2));
     }
 
+    @Test
+    public void testAccessReflectsGroupMembershipChanges() throws Exception {
+        loader.loadTestData();
+        DocumentaryUnit c1 = manager.getEntity("c1", DocumentaryUnit.class);
+        Group dans = manager.getEntity("dans", Group.class);
+        UserProfile reto = manager.getEntity("reto", UserProfile.class);
+        Accessor admin = manager.getEntity(Group.ADMIN_GROUP_IDENTIFIER, Accessor.class);
+        AclManager acl = new AclManager(graph);
+        acl.setAccessors(c1, Lists.newArrayList(dans));
+        assertFalse(acl.canAccess(c1, reto));
+        api(admin).acl().addAccessorToGroup(dans, reto);
+        assertTrue(acl.canAccess(c1, reto));
+        api(admin).acl().removeAccessorFromGroup(dans, reto);
+        assertFalse(acl.canAccess(c1, reto));
+    }
+
+    @Test
+    public void testAccessReflectsCommittedGroupMembershipChanges() throws Exception {
+        loader.loadTestData();
+        DocumentaryUnit c1 = manager.getEntity("c1", DocumentaryUnit.class);
+        Group dans = manager.getEntity("dans", Group.class);
+        UserProfile reto = manager.getEntity("reto", UserProfile.class);
+        AclManager acl = new AclManager(graph);
+        acl.setAccessors(c1, Lists.newArrayList(dans));
+        assertFalse(acl.canAccess(c1, reto));
+        // Changing membership directly, rather than via the API,
+        // is picked up when the transaction is committed.
+        dans.addMember(reto);
+        graph.getBaseGraph().commit();
+        assertTrue(acl.canAccess(c1, reto));
+    }
+
+    @Test
+    public void testVisibilityKeyIsSharedByMembersOfTheSameGroups() throws Exception {
+        loader.loadTestData();
+        DocumentaryUnit c1 = manager.getEntity("c1", DocumentaryUnit.class);
+        Group kcl = manager.getEntity("kcl", Group.class);
+        UserProfile reto = manager.getEntity("reto", UserProfile.class);
+        UserProfile other = graph.frame(manager.createVertex("other",
+                EntityClass.USER_PROFILE, ImmutableMap.of(Ontology.IDENTIFIER_KEY, "other")),
+                UserProfile.class);
+        kcl.addMember(other);
+        assertEquals(AclManager.getVisibilityKey(reto), AclManager.getVisibilityKey(other));
+
+        // Once an item is restricted to one of them they no longer share a key
+        new AclManager(graph).setAccessors(c1, Lists.newArrayList(reto));
+        assertNotEquals(AclManager.getVisibilityKey(reto), AclManager.getVisibilityKey(other));
+    }
+
     @Test
     public void testGetInheritedEntityPermissions() throws Exception {
         loader.loadTestData();
@@ -252,6 +323,24 @@ public class AclManagerTest extends GraphTestBase {
         assertFalse(filtered.contains(ann3v.asVertex()));
     }
 
+    @Test
+    public void testGetVisibility() throws Exception {
+        loader.loadTestData();
+        UserProfile user = manager.getEntity("reto", UserProfile.class);
+        Accessor admin = manager.getEntity(Group.ADMIN_GROUP_IDENTIFIER, Accessor.class);
+        Vertex ann3v = manager.getVertex("ann3"); // hidden from user
+        Vertex ann4v = manager.getVertex("ann4"); // promoted, thus visible
+        Vertex c1 = manager.getVertex("c1"); // restricted to mike and admin
+        Vertex c4 = manager.getVertex("c4"); // unrestricted
+
+        List<Vertex> vertices = Lists.newArrayList(ann3v, ann4v, c1, c4, ann3v);
+        BitSet visible = AclManager.getVisibility(vertices, user);
+        assertEquals("{1, 3}", visible.toString());
+        assertEquals(vertices.size(), AclManager.getVisibility(vertices, admin).cardinality());
+        assertEquals(Lists.newArrayList(ann4v, c4),
+                Lists.newArrayList(AclManager.filterVisible(vertices, user)));
+    }
+
     @Test
     public void testRevokePermission() throws Exception {
 
@@ -267,6 +356,37 @@ public class AclManagerTest extends GraphTestBase {
         assertFalse(acl.hasPermission(c4, OWNER, user));
     }
 
+    @Test
+    public void testInheritedPermissionReflectsGrantChanges() throws Exception {
+        loader.loadTestData();
+        AclManager acl = new AclManager(graph);
+        Group kcl = manager.getEntity("kcl", Group.class);
+        UserProfile user = manager.getEntity("reto", UserProfile.class);
+        DocumentaryUnit c4 = manager.getEntity("c4", DocumentaryUnit.class);
+
+        assertFalse(acl.hasPermission(c4, UPDATE, user));
+        acl.grantPermission(c4, OWNER, kcl);
+        assertTrue(acl.hasPermission(c4, UPDATE, user));
+        acl.revokePermission(c4, OWNER, kcl);
+        assertFalse(acl.hasPermission(c4, UPDATE, user));
+    }
+
+    @Test
+    public void testPermissionReflectsCommittedGrantChanges() throws Exception {
+        loader.loadTestData();
+        AclManager acl = new AclManager(graph);
+        UserProfile user = manager.getEntity("reto", UserProfile.class);
+        Repository r1 = manager.getEntity("r1", Repository.class);
+        PermissionGrant grant
+                = manager.getEntity("retoKclWriteGrant", PermissionGrant.class);
+        assertTrue(acl.withScope(r1).hasPermission(DOCUMENTARY_UNIT, CREATE, user));
+        // Removing the grant directly, rather than via the ACL manager,
+        // is picked up when the transaction is committed.
+        manager.deleteVertex(grant.asVertex());
+        graph.getBaseGraph().commit();
+        assertFalse(acl.withScope(r1).hasPermission(DOCUMENTARY_UNIT, CREATE, user));
+    }
+
     @Test
     public void testRevokePermissionGrant() throws Exception {
         loader.loadTestData();
@@ -21,6 +21,7 @@ package eu.ehri.project.api;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import eu.ehri.project.acl.AclManager;
 import eu.ehri.project.definitions.EventTypes;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.models.DocumentaryUnit;
@@ -122,6 +123,24 @@ public class EventsApiTest extends AbstractFixtureTest {
         assertEquals(doc1, eventPage.get(0).getFirstSubject());
     }
 
+    @Test
+    public void testListWithProfile() throws Exception {
+        createItemWithIdentifier("foo", user1);
+        createItemWithIdentifier("bar", user1);
+
+        QueryProfile profile = new QueryProfile();
+        List<SystemEvent> list = Lists.newArrayList(events(user1)
+                .withProfile(profile)
+                .withEventTypes(EventTypes.creation)
+                .list());
+        assertEquals(2, list.size());
+        assertEquals("events:global", profile.getSource());
+        assertEquals(2, profile.getCount(QueryProfile.Stage.SCAN));
+        assertEquals(2, profile.getCount(QueryProfile.Stage.FILTER));
+        assertEquals(2, profile.getCount(QueryProfile.Stage.ACL));
+        assertEquals(0, profile.getRejected(QueryProfile.Stage.ACL));
+    }
+
     @Test
     public void testWithFiltersDoesNotMutateSource() throws Exception {
         createItemWithIdentifier("foo", user1);
@@ -157,6 +176,34 @@ public class EventsApiTest extends AbstractFixtureTest {
         assertEquals(doc1, toList.get(0).getFirstSubject());
     }
 
+    @Test
+    public void testTimeRangeReadsOnlyEventsWithinIt() throws Exception {
+        createItemWithIdentifier("foo", user1);
+        Thread.sleep(10);
+        String from = ActionManager.getTimestamp();
+        Thread.sleep(10);
+        DocumentaryUnit doc2 = createItemWithIdentifier("bar", user1);
+        Thread.sleep(10);
+        String to = ActionManager.getTimestamp();
+        Thread.sleep(10);
+        createItemWithIdentifier("baz", user1);
+
+        // Neither the later event, nor any before the earlier one,
+        // should be counted as read.
+        QueryProfile profile = new QueryProfile();
+        List<SystemEvent> list = Lists.newArrayList(events(user1)
+                .withProfile(profile)
+                .from(from)
+                .to(to)
+                .list());
+        assertEquals(1, list.size());
+        assertEquals(doc2, list.get(0).getFirstSubject());
+        assertEquals(1, profile.getCount(QueryProfile.Stage.SCAN));
+
+        assertEquals(0, Iterables.size(events(user1).from(to).to(from).list()));
+        assertEquals(3, Iterables.size(events(user1).to(ActionManager.getTimestamp()).list()));
+    }
+
     @Test
     public void testListAsUserFollowing() throws Exception {
         createItemWithIdentifier("foo", user1);
@@ -250,6 +297,91 @@ public class EventsApiTest extends AbstractFixtureTest {
         assertEquals(1, events2.size());
     }
 
+    @Test
+    public void testStrictAggregationOfFilteredStreams() throws Exception {
+        DocumentaryUnit item1 = createItemWithIdentifier("foo", user1);
+        DocumentaryUnit item2 = createItemWithIdentifier("bar", user1);
+        updateItem(item1, "test", "test1", user1);
+        updateItem(item2, "test", "test1", user1);
+        updateItem(item1, "test", "test2", user1);
+
+        // The updates of the first item are separated by another of
+        // the same user's events in the full stream...
+        List<List<SystemEvent>> all = Lists.newArrayList(events(user1).aggregate());
+        assertEquals(5, all.size());
+
+        // ... but not in the item's history, nor in a stream filtered
+        // to the item, nor in the full stream as seen by a user who
+        // cannot see the other item.
+        List<List<SystemEvent>> history = Lists.newArrayList(events(user1).aggregateForItem(item1));
+        assertEquals(2, history.size());
+        assertEquals(2, history.get(0).size());
+        List<List<SystemEvent>> filtered = Lists.newArrayList(events(user1)
+                .withIds(item1.getId()).aggregate());
+        assertEquals(2, filtered.size());
+        assertEquals(2, filtered.get(0).size());
+        List<List<SystemEvent>> byType = Lists.newArrayList(events(user1)
+                .withEventTypes(EventTypes.modification)
+                .withEntityClasses(EntityClass.DOCUMENTARY_UNIT).aggregate());
+        assertEquals(3, byType.size());
+
+        UserProfile reto = manager.getEntity("reto", UserProfile.class);
+        new AclManager(graph).setAccessors(item2, Lists.newArrayList(user1));
+        List<List<SystemEvent>> visible = Lists.newArrayList(events(reto).aggregate());
+        assertEquals(2, visible.size());
+        assertEquals(2, visible.get(0).size());
+    }
+
+    @Test
+    public void testAggregationFromCursor() throws Exception {
+        DocumentaryUnit item1 = createItemWithIdentifier("foo", user1);
+        DocumentaryUnit item2 = createItemWithIdentifier("bar", user1);
+        for (int i = 0; i < 3; i++) {
+            updateItem(item1, "test", "test1" + i, user1);
+            updateItem(item1, "test", "test2" + i, user1);
+            updateItem(item2, "test", "test3" + i, user2);
+        }
+        List<List<SystemEvent>> all = Lists.newArrayList(events(user1).aggregate());
+        assertEquals(8, all.size());
+
+        // Continuing from the last event of an aggregate gives the same
+        // aggregates as paging, only reading the events after it.
+        for (int i = 0; i < all.size(); i++) {
+            List<SystemEvent> last = all.get(i);
+            QueryProfile profile = new QueryProfile();
+            List<List<SystemEvent>> next = Lists.newArrayList(events(user1)
+                    .withCursor(last.get(last.size() - 1).getId())
+                    .withProfile(profile)
+                    .withRange(0, 2)
+                    .aggregate());
+            assertEquals(all.subList(i + 1, Math.min(all.size(), i + 3)), next);
+            int skipped = 0;
+            for (List<SystemEvent> events : all.subList(0, i + 1)) {
+                skipped += events.size();
+            }
+            assertTrue(profile.getCount(QueryProfile.Stage.SCAN) <= 11 - skipped);
+        }
+
+        // The cursor is combined with other filters, and the offset
+        // applies after it. The second user's remaining updates are
+        // adjacent in their own actions, so they are aggregated.
+        List<SystemEvent> first = all.get(0);
+        List<SystemEvent> remaining = Lists.newArrayList(Iterables.concat(all.get(2), all.get(4)));
+        assertEquals(Lists.<List<SystemEvent>>newArrayList(remaining), Lists.newArrayList(events(user1)
+                .withCursor(first.get(first.size() - 1).getId())
+                .withUsers(user2.getId())
+                .aggregate()));
+        assertEquals(all.subList(2, 8), Lists.newArrayList(events(user1)
+                .withCursor(first.get(first.size() - 1).getId())
+                .withRange(1, -1)
+                .aggregate()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAggregationFromInvalidCursor() throws Exception {
+        events(user1).withCursor("not-an-event");
+    }
+
     @Test
     public void testEventAggregationByUser() throws Exception {
         createItemWithIdentifier("foo", user1);
@@ -297,6 +429,32 @@ public class EventsApiTest extends AbstractFixtureTest {
         assertEquals(doc1, events.get(0).getFirstSubject());
     }
 
+    @Test
+    public void testListForItemEntersHistoryAtOffset() throws Exception {
+        DocumentaryUnit doc1 = createItemWithIdentifier("foo", user1);
+        for (int i = 0; i < 20; i++) {
+            updateItem(doc1, "foo", "bar" + i, user1);
+        }
+        List<SystemEvent> history = Lists.newArrayList(doc1.getHistory());
+        assertEquals(21, history.size());
+
+        // Only the events returned, and the next, which the range reads
+        // to find its end, should be counted as read.
+        QueryProfile profile = new QueryProfile();
+        List<SystemEvent> list = Lists.newArrayList(events(user1)
+                .withProfile(profile)
+                .withRange(15, 3)
+                .listForItem(doc1));
+        assertEquals(history.subList(15, 18), list);
+        assertEquals(4, profile.getCount(QueryProfile.Stage.SCAN));
+
+        assertEquals(history.subList(15, 18), Lists.newArrayList(events(user2)
+                .withRange(15, 3).listForItem(doc1)));
+        assertEquals(history.subList(18, 21), Lists.newArrayList(events(user1)
+                .withEventTypes(EventTypes.modification, EventTypes.creation)
+                .withRange(18, 5).listForItem(doc1)));
+    }
+
     @Test
     public void testAggregateForItem() throws Exception {
         DocumentaryUnit doc1 = createItemWithIdentifier("foo", user1);
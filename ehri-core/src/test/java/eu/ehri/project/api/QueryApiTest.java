@@ -20,11 +20,15 @@
 package eu.ehri.project.api;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.tinkerpop.blueprints.Vertex;
 import eu.ehri.project.acl.AclManager;
 import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DatePeriod;
 import eu.ehri.project.models.DocumentaryUnit;
 import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.base.Accessor;
 import eu.ehri.project.models.base.Entity;
 import eu.ehri.project.test.AbstractFixtureTest;
@@ -132,6 +136,61 @@ public class QueryApiTest extends AbstractFixtureTest {
         assertFalse(list.contains(cantRead));
     }
 
+    @Test
+    public void testEstimatedAndCachedTotals() throws Exception {
+        graph.getBaseGraph().commit();
+        Accessor accessor = manager.getEntity("reto", Accessor.class);
+        QueryApi query = getQuery(accessor).withLimit(1);
+        long all = getQuery().count(EntityClass.DOCUMENTARY_UNIT);
+
+        // An estimated total disregards ACL...
+        assertEquals(all, query.withEstimatedTotal(true).page(DocumentaryUnit.class).getTotal());
+
+        // ... but once the exact total is known it is used instead
+        long visible = query.page(DocumentaryUnit.class).getTotal();
+        assertTrue(visible < all);
+        assertEquals(visible, query.withEstimatedTotal(true).page(DocumentaryUnit.class).getTotal());
+
+        // Committing a change to items of another type keeps them...
+        manager.createVertex("r5", EntityClass.REPOSITORY, Maps.newHashMap());
+        graph.getBaseGraph().commit();
+        assertEquals(visible, query.withEstimatedTotal(true).page(DocumentaryUnit.class).getTotal());
+
+        // ... but a change to items of the same type discards them
+        manager.createVertex("c5", EntityClass.DOCUMENTARY_UNIT, Maps.newHashMap());
+        graph.getBaseGraph().commit();
+        assertEquals(all + 1, query.withEstimatedTotal(true).page(DocumentaryUnit.class).getTotal());
+    }
+
+    @Test
+    public void testProfile() throws Exception {
+        Accessor accessor = manager.getEntity("reto", Accessor.class);
+        QueryProfile profile = new QueryProfile();
+        long all = getQuery().count(EntityClass.DOCUMENTARY_UNIT);
+        List<DocumentaryUnit> list = toList(getQuery(accessor).withProfile(profile)
+                .filter(EntityType.ID_KEY, QueryApi.FilterPredicate.ICONTAINS, "C")
+                .page(DocumentaryUnit.class));
+
+        assertEquals("type:" + EntityClass.DOCUMENTARY_UNIT.getName(), profile.getSource());
+        assertNull(profile.getIndex());
+        assertEquals(all, profile.getCount(QueryProfile.Stage.SCAN));
+        assertTrue(profile.getRejected(QueryProfile.Stage.ACL) > 0);
+        assertEquals(list.size(), profile.getCount(QueryProfile.Stage.FILTER));
+        assertEquals(profile.getCount(QueryProfile.Stage.ACL) - list.size(),
+                profile.getRejected(QueryProfile.Stage.FILTER));
+
+        // Ordering the items uses an index
+        QueryProfile sorted = new QueryProfile();
+        toList(getQuery(accessor).withProfile(sorted)
+                .orderBy(Ontology.IDENTIFIER_KEY, QueryApi.Sort.ASC)
+                .page(DocumentaryUnit.class));
+        assertNotNull(sorted.getIndex());
+
+        // A disabled profile records nothing
+        toList(getQuery().withProfile(QueryProfile.none()).page(DocumentaryUnit.class));
+        assertEquals(0L, QueryProfile.none().getCount(QueryProfile.Stage.SCAN));
+    }
+
     @Test
     public void testListWithFilter() throws Exception {
         QueryApi query = getQuery();
@@ -153,6 +212,18 @@ public class QueryApiTest extends AbstractFixtureTest {
         assertEquals(-1, list.getTotal());
     }
 
+    @Test
+    public void testOrderedStreamCanBeReadTwice() throws Exception {
+        QueryApi.Page<DocumentaryUnit> page = getQuery().withStreaming(true)
+                .orderBy(Ontology.IDENTIFIER_KEY, QueryApi.Sort.ASC)
+                .page(manager.getEntities(EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class),
+                        DocumentaryUnit.class);
+        assertTrue(page.iterator().hasNext());
+        List<DocumentaryUnit> first = toList(page);
+        assertEquals(5, first.size());
+        assertEquals(first, toList(page));
+    }
+
     @Test
     public void testListWithPredicateFilter() throws Exception {
         QueryApi query = getQuery();
@@ -253,6 +324,112 @@ public class QueryApiTest extends AbstractFixtureTest {
                 .getIterable()).get(0).getIdentifier());
     }
 
+    @Test
+    public void testIndexedQueryMatchesInMemoryQuery() throws Exception {
+        QueryApi query = getQuery()
+                .filter(Ontology.IDENTIFIER_KEY, QueryApi.FilterPredicate.STARTSWITH, "c")
+                .filter(EntityType.ID_KEY, QueryApi.FilterPredicate.ICONTAINS, "C")
+                .orderBy(Ontology.IDENTIFIER_KEY, QueryApi.Sort.DESC);
+
+        // Listing by type is planned as an indexed query, whereas
+        // listing from an iterable applies filters and ordering
+        // in memory...
+        QueryApi.Page<DocumentaryUnit> indexed = query
+                .page(EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class);
+        QueryApi.Page<DocumentaryUnit> inMemory = query
+                .page(manager.getEntities(EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class),
+                        DocumentaryUnit.class);
+        assertEquals(inMemory.getTotal(), indexed.getTotal());
+        List<DocumentaryUnit> items = toList(indexed);
+        assertEquals(toList(inMemory), items);
+        assertEquals(4, items.size());
+        assertEquals("c4", items.get(0).getIdentifier());
+        assertEquals("c1", items.get(3).getIdentifier());
+    }
+
+    @Test
+    public void testIndexedQueryComparesDatesAndNumbersLikeInMemoryQuery() throws Exception {
+        // Dates are compared by time, not lexically, and a numeric value
+        // is compared with a string property as a string.
+        QueryApi dates = getQuery().filter(Ontology.DATE_PERIOD_START_DATE,
+                QueryApi.FilterPredicate.GTE, "1939-01-01T00:00:00+14:00");
+        List<DatePeriod> indexed = toList(dates.page(EntityClass.DATE_PERIOD, DatePeriod.class));
+        assertEquals(toList(dates.page(manager.getEntities(
+                EntityClass.DATE_PERIOD, DatePeriod.class), DatePeriod.class)), indexed);
+        assertEquals(5, indexed.size());
+
+        QueryApi numbers = getQuery().filter(Ontology.IDENTIFIER_KEY,
+                QueryApi.FilterPredicate.GT, 100);
+        List<DocumentaryUnit> items = toList(numbers.page(EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class));
+        assertEquals(Sets.newHashSet(toList(numbers.page(manager.getEntities(
+                EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class), DocumentaryUnit.class))), Sets.newHashSet(items));
+        assertEquals(5, items.size());
+    }
+
+    @Test
+    public void testKeysetPaging() throws Exception {
+        List<DocumentaryUnit> all = toList(manager.getEntities(
+                EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class));
+        all.sort(Comparator.comparing(DocumentaryUnit::getIdentifier)
+                .thenComparing(DocumentaryUnit::getId));
+
+        QueryApi query = getQuery().withLimit(2)
+                .orderBy(Ontology.IDENTIFIER_KEY, QueryApi.Sort.ASC);
+        // Both the indexed and in-memory listings should resume
+        // in the same place...
+        List<DocumentaryUnit> indexed = Lists.newArrayList();
+        List<DocumentaryUnit> inMemory = Lists.newArrayList();
+        String cursor = "";
+        String memCursor = "";
+        while (cursor != null) {
+            QueryApi.Page<DocumentaryUnit> page = query.withCursor(cursor)
+                    .page(EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class);
+            QueryApi.Page<DocumentaryUnit> memPage = query.withCursor(memCursor)
+                    .page(manager.getEntities(EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class),
+                            DocumentaryUnit.class);
+            assertEquals(-1L, page.getTotal());
+            indexed.addAll(toList(page));
+            inMemory.addAll(toList(memPage));
+            cursor = page.getNextCursor();
+            memCursor = memPage.getNextCursor();
+            assertEquals(cursor, memCursor);
+        }
+        assertEquals(all, indexed);
+        assertEquals(all, inMemory);
+    }
+
+    @Test
+    public void testKeysetPagingDescending() throws Exception {
+        List<DocumentaryUnit> all = toList(manager.getEntities(
+                EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class));
+        all.sort(Comparator.comparing(DocumentaryUnit::getIdentifier).reversed()
+                .thenComparing(DocumentaryUnit::getId));
+
+        QueryApi query = getQuery().withLimit(2)
+                .orderBy(Ontology.IDENTIFIER_KEY, QueryApi.Sort.DESC);
+        List<DocumentaryUnit> indexed = Lists.newArrayList();
+        String cursor = "";
+        while (cursor != null) {
+            QueryProfile profile = new QueryProfile();
+            QueryApi.Page<DocumentaryUnit> page = query.withCursor(cursor).withProfile(profile)
+                    .page(EntityClass.DOCUMENTARY_UNIT, DocumentaryUnit.class);
+            List<DocumentaryUnit> items = toList(page);
+            // Once resumed, items before the cursor are skipped by the query.
+            if (!cursor.isEmpty()) {
+                assertTrue(profile.getIndex().contains(" <= "));
+                assertTrue(profile.getCount(QueryProfile.Stage.SCAN) <= all.size() - indexed.size() + 1);
+            }
+            indexed.addAll(items);
+            cursor = page.getNextCursor();
+        }
+        assertEquals(all, indexed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeysetPagingWithInvalidCursor() throws Exception {
+        getQuery().withCursor("not-a-cursor");
+    }
+
     @Test
     public void testListWithGlobFilter() throws Exception {
         QueryApi query = getQuery();
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+package eu.ehri.project.api.impl;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+import com.tinkerpop.pipes.util.structures.Pair;
+import eu.ehri.project.api.QueryApi.FilterPredicate;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FilterMatcherTest {
+
+    private Vertex vertex;
+
+    @Before
+    public void setUp() throws Exception {
+        vertex = new TinkerGraph().addVertex("a");
+        vertex.setProperty("name", "Éva Smith");
+        vertex.setProperty("count", 10);
+        vertex.setProperty("public", true);
+        vertex.setProperty("date", "2016-03-01T12:00:00.000+01:00");
+        vertex.setProperty("tags", new String[]{"foo", "bar"});
+        vertex.setProperty("codes", Lists.newArrayList("x1", "y2"));
+    }
+
+    @Test
+    public void testStrings() throws Exception {
+        assertTrue(matches("name", FilterPredicate.EQUALS, "Éva Smith"));
+        assertTrue(matches("name", FilterPredicate.IEQUALS, "éVA SMITH"));
+        assertTrue(matches("name", FilterPredicate.STARTSWITH, "Éva"));
+        assertTrue(matches("name", FilterPredicate.ENDSWITH, "Smith"));
+        assertTrue(matches("name", FilterPredicate.CONTAINS, "a S"));
+        assertTrue(matches("name", FilterPredicate.ICONTAINS, "ÉVA S"));
+        assertFalse(matches("name", FilterPredicate.ICONTAINS, "eva"));
+        assertTrue(matches("name", FilterPredicate.GT, "Ab"));
+        assertFalse(matches("name", FilterPredicate.EQUALS, "Eva"));
+        assertFalse(matches("missing", FilterPredicate.EQUALS, "Eva"));
+    }
+
+    @Test
+    public void testMatches() throws Exception {
+        assertTrue(matches("name", FilterPredicate.MATCHES, "\\S+ S.*"));
+        // The pattern must match the whole value
+        assertFalse(matches("name", FilterPredicate.MATCHES, "Smith"));
+        // Regex characters are not special in a case-insensitive search
+        assertFalse(matches("name", FilterPredicate.ICONTAINS, ".*"));
+    }
+
+    @Test
+    public void testNumbers() throws Exception {
+        assertTrue(matches("count", FilterPredicate.EQUALS, "10"));
+        assertTrue(matches("count", FilterPredicate.EQUALS, 10L));
+        assertTrue(matches("count", FilterPredicate.EQUALS, "10.0"));
+        // Compared by value, not lexically
+        assertTrue(matches("count", FilterPredicate.GT, "9"));
+        assertTrue(matches("count", FilterPredicate.LTE, "10"));
+        assertFalse(matches("count", FilterPredicate.LT, "9"));
+        assertFalse(matches("count", FilterPredicate.LT, "ten"));
+        assertFalse(matches("count", FilterPredicate.GT, "ten"));
+    }
+
+    @Test
+    public void testBooleans() throws Exception {
+        assertTrue(matches("public", FilterPredicate.EQUALS, "true"));
+        assertTrue(matches("public", FilterPredicate.EQUALS, true));
+        assertFalse(matches("public", FilterPredicate.EQUALS, "false"));
+        assertFalse(matches("public", FilterPredicate.EQUALS, "yes"));
+    }
+
+    @Test
+    public void testDates() throws Exception {
+        // The same instant in a different zone
+        assertTrue(matches("date", FilterPredicate.GTE, "2016-03-01T11:00:00.000Z"));
+        assertTrue(matches("date", FilterPredicate.LTE, "2016-03-01T11:00:00.000Z"));
+        assertTrue(matches("date", FilterPredicate.GT, "2016-03-01T10:30:00Z"));
+        assertTrue(matches("date", FilterPredicate.LT, "2016-03-02"));
+        assertFalse(matches("date", FilterPredicate.LT, "2016-03-01"));
+    }
+
+    @Test
+    public void testMultipleValues() throws Exception {
+        assertTrue(matches("tags", FilterPredicate.EQUALS, "bar"));
+        assertFalse(matches("tags", FilterPredicate.EQUALS, "baz"));
+        assertTrue(matches("codes", FilterPredicate.STARTSWITH, "y"));
+        assertFalse(matches("codes", FilterPredicate.STARTSWITH, "z"));
+    }
+
+    @Test
+    public void testAllFiltersMustMatch() throws Exception {
+        FilterMatcher matcher = FilterMatcher.compile(ImmutableSortedMap.of(
+                "name", new Pair<>(FilterPredicate.STARTSWITH, "Éva"),
+                "count", new Pair<>(FilterPredicate.GT, "20")));
+        assertFalse(matcher.matches(vertex));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPattern() throws Exception {
+        matches("name", FilterPredicate.MATCHES, "[");
+    }
+
+    private boolean matches(String key, FilterPredicate predicate, Object value) {
+        return FilterMatcher.compile(ImmutableSortedMap.of(key, new Pair<>(predicate, value)))
+                .matches(vertex);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.api.impl;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+import eu.ehri.project.api.QueryApi;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class SortedRangeTest {
+
+    private List<Vertex> vertices;
+
+    @Before
+    public void setUp() throws Exception {
+        TinkerGraph graph = new TinkerGraph();
+        vertices = Lists.newArrayList();
+        String[][] data = {{"a", "3"}, {"b", "1"}, {"c", null}, {"d", "2"}, {"e", "1"}};
+        for (String[] item : data) {
+            Vertex vertex = graph.addVertex(item[0]);
+            vertex.setProperty("name", item[0]);
+            if (item[1] != null) {
+                vertex.setProperty("rank", item[1]);
+            }
+            vertices.add(vertex);
+        }
+    }
+
+    @Test
+    public void testSelectUnordered() throws Exception {
+        SortedRange range = SortedRange.select(vertices, SortKeys.of(ImmutableSortedMap.of()), 1, 2);
+        assertEquals(5, range.getTotal());
+        assertEquals(Lists.newArrayList("b", "c"), names(range));
+    }
+
+    @Test
+    public void testSelectOrdered() throws Exception {
+        SortedRange all = SortedRange.select(vertices,
+                SortKeys.of(ImmutableSortedMap.of("rank", QueryApi.Sort.ASC)), 0, -1);
+        assertEquals(5, all.getTotal());
+        // Ties keep their stream order and nulls sort last
+        assertEquals(Lists.newArrayList("b", "e", "d", "a", "c"), names(all));
+
+        SortedRange page = SortedRange.select(vertices,
+                SortKeys.of(ImmutableSortedMap.of("rank", QueryApi.Sort.ASC)), 1, 2);
+        assertEquals(5, page.getTotal());
+        assertEquals(Lists.newArrayList("e", "d"), names(page));
+    }
+
+    @Test
+    public void testSelectOrderedDescending() throws Exception {
+        SortedRange range = SortedRange.select(vertices,
+                SortKeys.of(ImmutableSortedMap.of("rank", QueryApi.Sort.DESC)), 0, 3);
+        assertEquals(Lists.newArrayList("c", "a", "d"), names(range));
+    }
+
+    @Test
+    public void testSelectEmptyRange() throws Exception {
+        SortedRange range = SortedRange.select(vertices,
+                SortKeys.of(ImmutableSortedMap.of("rank", QueryApi.Sort.ASC)), 10, 2);
+        assertEquals(5, range.getTotal());
+        assertEquals(0, range.getItems().size());
+        assertEquals(0, SortedRange.select(vertices,
+                SortKeys.of(ImmutableSortedMap.of("rank", QueryApi.Sort.ASC)), 0, 0).getItems().size());
+    }
+
+    private static List<String> names(SortedRange range) {
+        return range.getItems().stream()
+                .map(v -> v.<String>getProperty("name"))
+                .collect(Collectors.toList());
+    }
+}
@@ -169,6 +169,18 @@ public class GraphManagerTest {
             }
         }
 
+        @Test
+        public void testCountVertices() throws Exception {
+            Map<String, String> data = ImmutableMap.of(TEST_KEY, TEST_VALUE);
+            assertEquals(0, manager.countVertices(TEST_TYPE));
+            manager.createVertex(TEST_ID1, TEST_TYPE, data);
+            manager.createVertex("23456789", TEST_TYPE, data);
+            manager.createVertex("other", EntityClass.GROUP, data);
+            assertEquals(2, manager.countVertices(TEST_TYPE));
+            manager.deleteVertex(TEST_ID1);
+            assertEquals(1, manager.countVertices(TEST_TYPE));
+        }
+
         @Test(expected = ItemNotFound.class)
         public void testUpdateNonExistentVertex() throws Exception {
             Map<String, String> data = Maps
@@ -24,9 +24,24 @@ public class SystemEventQueueTest extends AbstractFixtureTest {
     @Test
     public void testGetSystemEvents() throws Exception {
         SystemEventQueue queue = manager.getEntity(ActionManager.GLOBAL_EVENT_ROOT, SystemEventQueue.class);
-        new ActionManager(graph)
+        ActionManager actionManager = new ActionManager(graph);
+        actionManager.createEventStripes();
+        actionManager
                 .newEventContext(adminUser, adminUser.as(Actioner.class), EventTypes.creation)
                 .commit();
-        assertEquals(1, Iterators.size(queue.getSystemEvents().iterator()));
+        Iterable<SystemEvent> events = queue.getSystemEvents();
+        assertEquals(1, Iterators.size(events.iterator()));
+        // The merged stripes can be read more than once
+        assertEquals(1, Iterators.size(events.iterator()));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testTimestampOrder() throws Exception {
+        // The first time is earlier, though it sorts later as a string.
+        String ts1 = "2020-03-29T03:30:00.000+02:00";
+        String ts2 = "2020-03-29T01:45:00.000Z";
+        assertTrue(SystemEventQueue.TIMESTAMP_ORDER.compare(ts1, ts2) < 0);
+        assertTrue(SystemEventQueue.TIMESTAMP_ORDER.compare(ts2, ts1) > 0);
+        assertEquals(0, SystemEventQueue.TIMESTAMP_ORDER.compare(ts2, "2020-03-29T03:45:00.000+02:00"));
+    }
+}
@@ -19,23 +19,35 @@
 
 package eu.ehri.project.persistence;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
 import eu.ehri.project.definitions.EventTypes;
+import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.DeserializationError;
 import eu.ehri.project.exceptions.ValidationError;
 import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.EntityClass;
 import eu.ehri.project.models.Repository;
 import eu.ehri.project.models.UserProfile;
 import eu.ehri.project.models.base.Actioner;
 import eu.ehri.project.models.events.SystemEvent;
+import eu.ehri.project.models.events.SystemEventQueue;
 import eu.ehri.project.models.events.Version;
 import eu.ehri.project.test.AbstractFixtureTest;
 import eu.ehri.project.test.TestData;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Test;
 
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -92,6 +104,165 @@ public class ActionManagerTest extends AbstractFixtureTest {
         assertEquals(first, events.get(1));
     }
 
+    @Test
+    public void testEventsWithoutStripesAreAddedToTheQueue() throws Exception {
+        ActionManager am = new ActionManager(graph);
+        for (Vertex stripe : Lists.newArrayList(am.getEventRoot().asVertex()
+                .getVertices(Direction.OUT, SystemEventQueue.HAS_STRIPE))) {
+            stripe.remove();
+        }
+        List<SystemEvent> events = Lists.newArrayList();
+        for (int i = 0; i < ActionManager.EVENT_QUEUE_STRIPES; i++) {
+            events.add(0, am.newEventContext(graph.frame(adminUser.asVertex(), Actioner.class),
+                    EventTypes.modification).commit());
+        }
+        // Missing stripes are not created by adding events.
+        assertFalse(am.getEventRoot().asVertex()
+                .getVertices(Direction.OUT, SystemEventQueue.HAS_STRIPE).iterator().hasNext());
+        assertEquals(events, toList(am.getLatestGlobalEvents()));
+
+        am.createEventStripes();
+        assertEquals(ActionManager.EVENT_QUEUE_STRIPES - 1, Iterables.size(am.getEventRoot()
+                .asVertex().getVertices(Direction.OUT, SystemEventQueue.HAS_STRIPE)));
+    }
+
+    @Test
+    public void testInTimeRangeIncludesEventsCommittedOutOfOrder() throws Exception {
+        SystemEvent latest = createEvent("e1", "2020-01-01T10:05:00.000Z");
+        SystemEvent early = createEvent("e2", "2020-01-01T09:58:00.000Z");
+        SystemEvent late = createEvent("e3", "2020-01-01T11:02:00.000+01:00");
+        SystemEvent old = createEvent("e4", "2020-01-01T09:40:00.000Z");
+        SystemEvent tooLate = createEvent("e5", "2020-01-01T10:03:00.000Z");
+
+        // Events following one earlier than the range are included
+        // until one is found too early to be out of order...
+        List<SystemEvent> events = Lists.newArrayList(latest, early, late, old, tooLate);
+        assertEquals(Lists.newArrayList(latest, late),
+                toList(ActionManager.inTimeRange(events, "2020-01-01T10:00:00.000Z", null)));
+
+        // ... and the end of the range is also compared by time
+        assertEquals(Lists.newArrayList(late),
+                toList(ActionManager.inTimeRange(events, "2020-01-01T10:00:00.000Z",
+                        "2020-01-01T10:02:30.000Z")));
+    }
+
+    private SystemEvent createEvent(String id, String timestamp) throws Exception {
+        return graph.frame(manager.createVertex(id, EntityClass.SYSTEM_EVENT,
+                ImmutableMap.of(Ontology.EVENT_TIMESTAMP, timestamp)), SystemEvent.class);
+    }
+
+    @Test
+    public void testEventsFromManyThreadsAreMerged() throws Exception {
+        graph.getBaseGraph().commit();
+        List<SystemEvent> events = Lists.newArrayList();
+        for (int i = 0; i < ActionManager.EVENT_QUEUE_STRIPES * 2; i++) {
+            Thread thread = new Thread(() -> {
+                SystemEvent event = new ActionManager(graph).newEventContext(
+                        graph.frame(adminUser.asVertex(), Actioner.class),
+                        EventTypes.modification).commit();
+                graph.getBaseGraph().commit();
+                events.add(0, event);
+            });
+            thread.start();
+            thread.join();
+            // Ensure events have distinct timestamps
+            Thread.sleep(2);
+        }
+
+        ActionManager am = new ActionManager(graph);
+        assertEquals(ActionManager.EVENT_QUEUE_STRIPES - 1, Iterables.size(am.getEventRoot()
+                .asVertex().getVertices(Direction.OUT, SystemEventQueue.HAS_STRIPE)));
+        assertEquals(events, toList(am.getLatestGlobalEvents()));
+        assertEquals(events.get(0), am.getEventRoot().getLatestEvent());
+        String to = events.get(3).getTimestamp();
+        String from = events.get(10).getTimestamp();
+        assertEquals(events.subList(3, 11), toList(am.getLatestGlobalEvents(from, to)));
+    }
+
+    @Test
+    public void testHistoryEnteredBySkipLinks() throws Exception {
+        Bundle docBundle = Bundle.fromData(TestData.getTestDocBundle());
+        DocumentaryUnit doc = new BundleManager(graph).create(docBundle, DocumentaryUnit.class);
+        ActionManager am = new ActionManager(graph);
+        for (int i = 0; i < 40; i++) {
+            am.newEventContext(doc, graph.frame(adminUser.asVertex(), Actioner.class),
+                    EventTypes.modification).commit();
+            // Ensure events have distinct timestamps
+            Thread.sleep(2);
+        }
+        assertHistorySeeks(am, doc);
+
+        // Remove the numbering, as for items with events from before it
+        // was added, and check it is restored by the next event.
+        for (Vertex link : graph.getVertices()) {
+            link.removeProperty(ActionManager.LINK_SEQUENCE);
+            for (Edge skip : Lists.newArrayList(link.getEdges(Direction.OUT, ActionManager.LINK_SKIP))) {
+                graph.removeEdge(skip);
+            }
+        }
+        assertHistorySeeks(am, doc);
+        am.newEventContext(doc, graph.frame(adminUser.asVertex(), Actioner.class),
+                EventTypes.modification).commit();
+        assertEquals(41L, (long) Iterables.getFirst(doc.asVertex().getVertices(Direction.OUT,
+                Ontology.ENTITY_HAS_LIFECYCLE_EVENT), null).getProperty(ActionManager.LINK_SEQUENCE));
+        assertHistorySeeks(am, doc);
+    }
+
+    @Test
+    public void testHistorySeeksAcrossUtcOffsetChange() throws Exception {
+        Bundle docBundle = Bundle.fromData(TestData.getTestDocBundle());
+        DocumentaryUnit doc = new BundleManager(graph).create(docBundle, DocumentaryUnit.class);
+        ActionManager am = new ActionManager(graph);
+        for (int i = 0; i < 40; i++) {
+            am.newEventContext(doc, graph.frame(adminUser.asVertex(), Actioner.class),
+                    EventTypes.modification).commit();
+        }
+        // Give the events a minute each either side of the end of summer
+        // time, so the later ones sort earlier as strings.
+        List<SystemEvent> history = Lists.reverse(toList(doc.getHistory()));
+        DateTime start = new DateTime("2020-10-25T00:30:00.000Z");
+        for (int i = 0; i < history.size(); i++) {
+            DateTimeZone zone = DateTimeZone.forOffsetHours(i < history.size() / 2 ? 2 : 1);
+            history.get(i).asVertex().setProperty(Ontology.EVENT_TIMESTAMP,
+                    ISODateTimeFormat.dateTime().print(start.plusMinutes(i).withZone(zone)));
+        }
+        assertHistorySeeks(am, doc);
+    }
+
+    private void assertHistorySeeks(ActionManager am, DocumentaryUnit doc) {
+        List<SystemEvent> history = toList(doc.getHistory());
+        for (int offset = 0; offset <= history.size(); offset++) {
+            assertEquals(history.subList(offset, history.size()),
+                    toList(am.getHistory(doc, null, offset)));
+        }
+        for (int i = 0; i < history.size(); i += 7) {
+            String to = history.get(i).getTimestamp();
+            assertEquals(history.subList(i, history.size()), toList(am.getHistory(doc, to, 0)));
+            assertEquals(history.subList(Math.min(i + 3, history.size()), history.size()),
+                    toList(am.getHistory(doc, to, 3)));
+        }
+        assertEquals(0, Iterables.size(am.getHistory(doc, "1970-01-01", 0)));
+    }
+
+    @Test
+    public void testAggregationGroups() throws Exception {
+        Bundle docBundle = Bundle.fromData(TestData.getTestDocBundle());
+        DocumentaryUnit doc = new BundleManager(graph).create(docBundle, DocumentaryUnit.class);
+        ActionManager am = new ActionManager(graph);
+        Actioner actioner = graph.frame(adminUser.asVertex(), Actioner.class);
+        SystemEvent first = am.newEventContext(doc, actioner, EventTypes.modification).commit();
+        SystemEvent second = am.newEventContext(doc, actioner, EventTypes.modification).commit();
+        SystemEvent other = am.newEventContext(item, actioner, EventTypes.modification).commit();
+        SystemEvent third = am.newEventContext(doc, actioner, EventTypes.modification).commit();
+
+        assertTrue(ActionManager.inSameGroup(first, second));
+        assertFalse(ActionManager.inSameGroup(second, other));
+        // The same as the first two, but not the next event by their actioner
+        assertTrue(ActionManager.sameAs(second, third));
+        assertFalse(ActionManager.inSameGroup(second, third));
+        assertFalse(ActionManager.inSameGroup(other, third));
+    }
+
     @Test
     public void testEventsHaveCorrectScope() throws Exception {
         Repository r1 = manager.getEntity("r1", Repository.class);
@@ -164,4 +335,32 @@ public class ActionManagerTest extends AbstractFixtureTest {
         assertEquals(1, Iterables.size(event2.getPriorVersions()));
         assertEquals(2, Iterables.size(doc.getAllPriorVersions()));
     }
+
+    @Test
+    public void testVersionsStoredAsDeltas() throws Exception {
+        Bundle docBundle = Bundle.fromData(TestData.getTestDocBundle());
+        DocumentaryUnit doc = new BundleManager(graph).create(docBundle, DocumentaryUnit.class);
+        ActionManager am = new ActionManager(graph);
+        List<String> data = Lists.newArrayList();
+        int count = VersionManager.SNAPSHOT_INTERVAL * 2 + 5;
+        for (int i = 0; i < count; i++) {
+            Bundle version = docBundle.withId(doc.getId()).withDataValue("identifier", "version-" + i);
+            am.newEventContext(doc, graph.frame(adminUser.asVertex(), Actioner.class),
+                    EventTypes.modification).createVersion(doc, version).commit();
+            data.add(0, version.toJson());
+        }
+
+        List<Version> versions = Lists.newArrayList(doc.getAllPriorVersions());
+        assertEquals(count, versions.size());
+        Serializer serializer = new Serializer(graph);
+        for (int i = 0; i < count; i++) {
+            Object stored = versions.get(i).asVertex().getProperty(Ontology.VERSION_ENTITY_DATA);
+            // The newest version, and every nth one from the oldest, are stored in full.
+            assertEquals(i == 0 || (count - i) % VersionManager.SNAPSHOT_INTERVAL == 0,
+                    stored instanceof String);
+            assertEquals(data.get(i), versions.get(i).getEntityData());
+            assertEquals(data.get(i), serializer.entityToBundle(versions.get(i))
+                    .getDataValue(Ontology.VERSION_ENTITY_DATA));
+        }
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.MaintenanceEventType;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BundleDataTest {
+
+    private final Map<String, Object> data = ImmutableMap.of(
+            Ontology.IDENTIFIER_KEY, "foo",
+            "other", "bar",
+            "another", 1);
+
+    @Test
+    public void testOf() throws Exception {
+        BundleData bundleData = BundleData.of(EntityClass.DOCUMENTARY_UNIT, data);
+        assertEquals(data, bundleData);
+        assertEquals(data.hashCode(), bundleData.hashCode());
+        assertEquals(3, bundleData.size());
+        assertEquals("foo", bundleData.get(Ontology.IDENTIFIER_KEY));
+        assertEquals(1, bundleData.get("another"));
+        assertTrue(bundleData.containsKey("other"));
+        assertFalse(bundleData.containsKey(Ontology.NAME_KEY));
+        assertFalse(bundleData.containsKey("missing"));
+        assertNull(bundleData.get(1));
+        assertSame(bundleData, BundleData.of(EntityClass.DOCUMENTARY_UNIT, bundleData));
+        assertEquals(bundleData, BundleData.of(EntityClass.REPOSITORY, bundleData));
+    }
+
+    @Test
+    public void testWith() throws Exception {
+        BundleData bundleData = BundleData.of(EntityClass.DOCUMENTARY_UNIT, data);
+        BundleData changed = bundleData
+                .with(Ontology.IDENTIFIER_KEY, "baz")
+                .with("other", "qux")
+                .with("new", MaintenanceEventType.created);
+        assertEquals("foo", bundleData.get(Ontology.IDENTIFIER_KEY));
+        assertEquals("bar", bundleData.get("other"));
+        assertFalse(bundleData.containsKey("new"));
+        assertEquals(ImmutableMap.of(Ontology.IDENTIFIER_KEY, "baz", "other", "qux",
+                "another", 1, "new", "created"), changed);
+    }
+
+    @Test
+    public void testWithout() throws Exception {
+        BundleData bundleData = BundleData.of(EntityClass.DOCUMENTARY_UNIT, data);
+        assertSame(bundleData, bundleData.without("missing"));
+        assertSame(bundleData, bundleData.without(Ontology.NAME_KEY));
+        BundleData changed = bundleData.without(Ontology.IDENTIFIER_KEY).without("another");
+        assertEquals(ImmutableMap.of("other", "bar"), changed);
+        assertEquals(data, bundleData);
+    }
+
+    @Test
+    public void testNullValues() throws Exception {
+        Map<String, Object> withNulls = Maps.newHashMap(data);
+        withNulls.put(Ontology.NAME_KEY, null);
+        withNulls.put("null", null);
+        BundleData bundleData = BundleData.of(EntityClass.DOCUMENTARY_UNIT, withNulls);
+        assertEquals(withNulls, bundleData);
+        assertTrue(bundleData.containsKey("null"));
+        assertEquals(data, bundleData.withoutNulls());
+        BundleData noNulls = BundleData.of(EntityClass.DOCUMENTARY_UNIT, data);
+        assertSame(noNulls, noNulls.withoutNulls());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() throws Exception {
+        BundleData.of(EntityClass.DOCUMENTARY_UNIT, data).put("test", "value");
+    }
+}
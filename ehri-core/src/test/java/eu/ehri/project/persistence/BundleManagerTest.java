@@ -20,6 +20,7 @@
 package eu.ehri.project.persistence;
 
 import com.google.common.collect.Iterables;
+import eu.ehri.project.core.impl.neo4j.Neo4j2Graph;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.exceptions.DeserializationError;
 import eu.ehri.project.exceptions.IntegrityError;
@@ -44,6 +45,8 @@ import java.util.List;
 import java.util.NoSuchElementException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -131,6 +134,113 @@ public class BundleManagerTest extends ModelTestBase {
         assertEquals(2, toList(c1.getDescriptions()).size());
     }
 
+    @Test
+    public void testUpdatingWithStoredContentHash() throws Exception {
+        DocumentaryUnit c1 = manager.getEntity(ID, DocumentaryUnit.class);
+        Bundle bundle = serializer.entityToBundle(c1).withDataValue("foo", "baz");
+        BundleManager bundleManager = new BundleManager(graph);
+        ContentHashes hashes = ContentHashes.getInstance(graph.getBaseGraph());
+        assertEquals(MutationState.UPDATED, bundleManager.update(bundle, DocumentaryUnit.class).getState());
+        graph.getBaseGraph().commit();
+        assertEquals(bundle.getContentHash(), hashes.getStoredHash(c1.asVertex()));
+
+        // Updating an item with an unchanged bundle does not write to it,
+        // even to store a missing hash.
+        c1.asVertex().removeProperty(ContentHashes.KEY);
+        graph.getBaseGraph().commit();
+        assertEquals(MutationState.UNCHANGED, bundleManager.update(bundle, DocumentaryUnit.class).getState());
+        assertFalse(((Neo4j2Graph) graph.getBaseGraph()).hasChanges());
+        assertNull(hashes.getStoredHash(c1.asVertex()));
+        assertEquals(MutationState.UPDATED, bundleManager.update(bundle.withDataValue("foo", "qux"),
+                DocumentaryUnit.class).getState());
+        assertEquals(MutationState.UPDATED, bundleManager.update(bundle, DocumentaryUnit.class).getState());
+        graph.getBaseGraph().commit();
+        assertEquals(bundle.getContentHash(), hashes.getStoredHash(c1.asVertex()));
+
+        // Once committed, the stored hash is used without comparing the
+        // item with its serialized form. Storing the hash of a changed
+        // bundle makes the change appear to have already been made...
+        Bundle changed = bundle.withDataValue("foo", "bar");
+        hashes.setStoredHash(c1.asVertex(), changed.getContentHash());
+        graph.getBaseGraph().commit();
+        assertEquals(MutationState.UNCHANGED, bundleManager.update(changed, DocumentaryUnit.class).getState());
+
+        // ... including in a transaction which has changed other items,
+        // while the unchanged item is not written to.
+        manager.getEntity("c2", DocumentaryUnit.class).asVertex().setProperty("other", "value");
+        assertEquals(MutationState.UNCHANGED, bundleManager.update(changed, DocumentaryUnit.class).getState());
+        assertEquals(changed.getContentHash(), hashes.getStoredHash(c1.asVertex()));
+
+        // ... though not in one which has changed the item or its dependents.
+        manager.getEntity("cd1", DocumentaryUnitDescription.class).asVertex().setProperty("other", "value");
+        assertNull(hashes.getStoredHash(c1.asVertex()));
+        assertEquals(MutationState.UPDATED, bundleManager.update(changed, DocumentaryUnit.class).getState());
+        assertEquals("bar", c1.asVertex().getProperty("foo"));
+    }
+
+    @Test
+    public void testContentHashesAreKeptWhenTheDatabaseIsRestarted() throws Exception {
+        DocumentaryUnit c1 = manager.getEntity(ID, DocumentaryUnit.class);
+        Bundle bundle = serializer.entityToBundle(c1).withDataValue("foo", "bar");
+        new BundleManager(graph).update(bundle, DocumentaryUnit.class);
+        graph.getBaseGraph().commit();
+
+        // A new instance for the same store, as after a restart, uses
+        // the hashes stored by the previous one.
+        ContentHashes hashes = ContentHashes.track(((Neo4j2Graph) graph.getBaseGraph()).getRawGraph());
+        assertEquals(bundle.getContentHash(), hashes.getStoredHash(c1.asVertex()));
+    }
+
+    @Test
+    public void testContentHashesNotStoredWhileTrackedAreIgnored() throws Exception {
+        DocumentaryUnit c1 = manager.getEntity(ID, DocumentaryUnit.class);
+        Bundle bundle = serializer.entityToBundle(c1);
+        Bundle changed = bundle.withDataValue("foo", "bar");
+        BundleManager bundleManager = new BundleManager(graph);
+
+        // A hash stored other than by a tracking instance, such as one
+        // left by a process which did not remove those of changed items,
+        // is not relied on.
+        c1.asVertex().setProperty(ContentHashes.KEY, changed.getContentHash());
+        graph.getBaseGraph().commit();
+        assertNull(ContentHashes.getInstance(graph.getBaseGraph()).getStoredHash(c1.asVertex()));
+        assertEquals(MutationState.UPDATED, bundleManager.update(changed, DocumentaryUnit.class).getState());
+        assertEquals("bar", c1.asVertex().getProperty("foo"));
+    }
+
+    @Test
+    public void testContentHashesRemovedByDependentChanges() throws Exception {
+        DocumentaryUnit c1 = manager.getEntity(ID, DocumentaryUnit.class);
+        Bundle bundle = serializer.entityToBundle(c1);
+        BundleManager bundleManager = new BundleManager(graph);
+        bundleManager.update(bundle.withDataValue("foo", "bar"), DocumentaryUnit.class);
+        graph.getBaseGraph().commit();
+        DocumentaryUnitDescription cd1 = manager.getEntity("cd1", DocumentaryUnitDescription.class);
+        ContentHashes hashes = ContentHashes.getInstance(graph.getBaseGraph());
+        assertEquals(bundle.withDataValue("foo", "bar").getContentHash(), hashes.getStoredHash(c1.asVertex()));
+        assertTrue(cd1.asVertex().getPropertyKeys().contains(ContentHashes.KEY));
+
+        // Changing a dependent of an item directly removes its hash, and its parent's.
+        String name = cd1.asVertex().getProperty(Ontology.NAME_KEY);
+        cd1.asVertex().setProperty(Ontology.NAME_KEY, "Changed");
+        graph.getBaseGraph().commit();
+        assertNull(cd1.asVertex().getProperty(ContentHashes.KEY));
+        assertNull(c1.asVertex().getProperty(ContentHashes.KEY));
+
+        Mutation<DocumentaryUnit> mutation = bundleManager.update(bundle, DocumentaryUnit.class);
+        assertEquals(MutationState.UPDATED, mutation.getState());
+        assertEquals(name, cd1.asVertex().getProperty(Ontology.NAME_KEY));
+        graph.getBaseGraph().commit();
+        assertEquals(bundle.getContentHash(), hashes.getStoredHash(c1.asVertex()));
+
+        // Likewise removing a dependent.
+        c1.removeDescription(cd1);
+        graph.getBaseGraph().commit();
+        assertNull(c1.asVertex().getProperty(ContentHashes.KEY));
+        assertEquals(MutationState.UPDATED, bundleManager.update(bundle, DocumentaryUnit.class).getState());
+        assertEquals(2, toList(c1.getDescriptions()).size());
+    }
+
     @Test
     public void testDeletingDependents() throws SerializationError, ValidationError, IntegrityError, ItemNotFound {
         DocumentaryUnit c1 = manager.getEntity(ID, DocumentaryUnit.class);
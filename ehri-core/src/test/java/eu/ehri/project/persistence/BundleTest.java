@@ -168,6 +168,32 @@ public class BundleTest {
         assertNotSame(bundle1, bundle3);
     }
 
+    @Test
+    public void testContentHash() throws Exception {
+        Bundle bundle1 = Bundle.fromData(TestData.getTestDocBundle());
+        Bundle dp = DataUtils.getItem(bundle1, "describes[0]/hasDate[0]");
+        Bundle reordered = DataUtils.setItem(DataUtils.deleteItem(bundle1, "describes[0]/hasDate[0]"),
+                "describes[0]/hasDate[-1]", dp);
+        assertEquals(bundle1.getContentHash(), reordered.getContentHash());
+        assertEquals(bundle1.getContentHash(), bundle1.withId("foo")
+                .withDataValue(Bundle.MANAGED_PREFIX + "someKey", "foobar")
+                .withMetaDataValue("foo", "bar").getContentHash());
+        assertEquals(bundle1.getContentHash(), bundle1.dependentsOnly().getContentHash());
+
+        // Changes to data, including types, and dependents count...
+        assertNotEquals(bundle1.getContentHash(), bundle1.withDataValue("foo", "1").getContentHash());
+        assertNotEquals(bundle1.withDataValue("foo", "1").getContentHash(),
+                bundle1.withDataValue("foo", 1).getContentHash());
+        assertNotEquals(bundle1.getContentHash(), DataUtils.set(bundle1,
+                "describes[0]/hasDate[0]/" + Ontology.DATE_PERIOD_START_DATE, "1900-01-01").getContentHash());
+        assertNotEquals(bundle1.getContentHash(),
+                DataUtils.deleteItem(bundle1, "describes[0]/hasDate[0]").getContentHash());
+
+        // ... but not non-dependent relations.
+        assertEquals(bundle1.getContentHash(), bundle1
+                .withRelation(Ontology.DOC_HELD_BY_REPOSITORY, Bundle.of(EntityClass.REPOSITORY)).getContentHash());
+    }
+
     @Test
     public void testMergeDataWith() throws Exception {
         Bundle target = bundle.withDataValue("remove", "test");
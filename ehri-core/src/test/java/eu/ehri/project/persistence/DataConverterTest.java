@@ -19,12 +19,15 @@
 
 package eu.ehri.project.persistence;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.collect.Lists;
 import com.tinkerpop.blueprints.CloseableIterable;
+import eu.ehri.project.models.DocumentaryUnit;
 import eu.ehri.project.test.AbstractFixtureTest;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.util.Collections;
 import java.util.Iterator;
@@ -62,6 +65,33 @@ public class DataConverterTest extends AbstractFixtureTest {
         }
     }
 
+    @Test
+    public void testBinaryFormats() throws Exception {
+        Bundle bundle = new Serializer(graph).entityToBundle(manager.getEntity("c1", DocumentaryUnit.class));
+        for (DataFormat format : DataFormat.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DataConverter.bundleToStream(bundle, out, format);
+            Bundle result = DataConverter.streamToBundle(new ByteArrayInputStream(out.toByteArray()), format);
+            assertEquals(format.toString(), bundle, result);
+
+            out = new ByteArrayOutputStream();
+            try (JsonGenerator generator = format.getFactory().createGenerator(out)) {
+                generator.writeStartArray();
+                generator.writeObject(DataConverter.bundleToData(bundle));
+                generator.writeObject(DataConverter.bundleToData(bundle.withId("other")));
+                generator.writeEndArray();
+            }
+            List<String> ids = Lists.newArrayList();
+            try (CloseableIterable<Bundle> bundles = DataConverter
+                    .bundleStream(new ByteArrayInputStream(out.toByteArray()), format)) {
+                for (Bundle item : bundles) {
+                    ids.add(item.getId());
+                }
+            }
+            assertEquals(Lists.newArrayList("c1", "other"), ids);
+        }
+    }
+
     @Test
     public void testIsEmptySequence() throws Exception {
         Object t1 = "a string";
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+
+package eu.ehri.project.persistence;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeltasTest {
+
+    private static byte[] roundTrip(String base, String target) {
+        byte[] baseBytes = base.getBytes(Charsets.UTF_8);
+        byte[] targetBytes = target.getBytes(Charsets.UTF_8);
+        byte[] delta = Deltas.encode(baseBytes, targetBytes);
+        assertArrayEquals(targetBytes, Deltas.decode(baseBytes, delta));
+        return delta;
+    }
+
+    @Test
+    public void testEncodeAndDecode() {
+        String base = Strings.repeat("{\"name\":\"Some item\",\"identifier\":\"c1\"},", 50);
+        roundTrip(base, base);
+        roundTrip(base, "");
+        roundTrip("", base);
+        roundTrip("", "");
+        roundTrip("short", "shorter");
+        roundTrip(base, base.replace("c1", "c2"));
+        roundTrip(base, "prefix" + base.substring(100, 500) + base.substring(0, 100) + "suffix");
+    }
+
+    @Test
+    public void testDeltaIsSmall() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        String base = sb.toString();
+        String target = base.substring(0, 5000) + "an edit" + base.substring(5100);
+        assertTrue(roundTrip(base, target).length < 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeWithInvalidDelta() {
+        Deltas.decode(new byte[0], new byte[]{1, 2, 3});
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProjectionTest {
+
+    @Test
+    public void testParse() throws Exception {
+        Projection projection = Projection.parse("identifier, describes(name,languageCode),heldBy(describes(name))");
+        assertFalse(projection.isAllFields());
+        assertEquals(Sets.newHashSet("identifier"), projection.getFields());
+        assertTrue(projection.includesRelation("describes"));
+        assertTrue(projection.includesRelation("heldBy"));
+        assertFalse(projection.includesRelation("childOf"));
+        assertEquals(Sets.newHashSet("name", "languageCode"),
+                projection.getRelation("describes").getFields());
+        assertFalse(projection.getRelation("describes").includesRelation("relatesTo"));
+        assertEquals(Projection.parse("name"),
+                projection.getRelation("heldBy").getRelation("describes"));
+        assertEquals("identifier,describes(languageCode,name),heldBy(describes(name))",
+                projection.toString());
+        assertEquals(projection, Projection.parse(projection.toString()));
+    }
+
+    @Test
+    public void testParseUnprojectedRelation() throws Exception {
+        Projection projection = Projection.parse("*,describes");
+        assertTrue(projection.isAllFields());
+        assertTrue(projection.includesRelation("describes"));
+        assertFalse(projection.includesRelation("heldBy"));
+        assertEquals(Projection.ALL, projection.getRelation("describes"));
+    }
+
+    @Test
+    public void testParseEmptyRelation() throws Exception {
+        Projection projection = Projection.parse("describes()");
+        assertTrue(projection.getFields().isEmpty());
+        assertTrue(projection.includesRelation("describes"));
+        assertTrue(projection.getRelation("describes").getFields().isEmpty());
+        assertFalse(projection.getRelation("describes").includesRelation("describes"));
+    }
+
+    @Test
+    public void testAll() throws Exception {
+        assertTrue(Projection.ALL.isAllFields());
+        assertTrue(Projection.ALL.includesRelation("anything"));
+        assertEquals(Projection.ALL, Projection.ALL.getRelation("anything"));
+        assertNotEquals(Projection.ALL, Projection.parse("*"));
+    }
+
+    @Test
+    public void testParseErrors() throws Exception {
+        for (String spec : new String[]{"", ",", "a,", "a(", "a(b", "a)", "a(b))", "a(b),a(c)", "a b"}) {
+            try {
+                Projection.parse(spec);
+                fail("Projection should not parse: '" + spec + "'");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(spec));
+            }
+        }
+    }
+}
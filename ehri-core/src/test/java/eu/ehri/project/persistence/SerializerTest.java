@@ -19,14 +19,23 @@
 
 package eu.ehri.project.persistence;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import eu.ehri.project.definitions.EventTypes;
 import eu.ehri.project.models.DocumentaryUnit;
 import eu.ehri.project.models.Link;
+import eu.ehri.project.models.Repository;
+import eu.ehri.project.models.base.Actioner;
+import eu.ehri.project.models.base.Entity;
 import eu.ehri.project.models.VirtualUnit;
 import eu.ehri.project.persistence.utils.DataUtils;
 import eu.ehri.project.test.AbstractFixtureTest;
 import org.junit.Test;
 
+import java.io.StringWriter;
+
 import static org.junit.Assert.*;
 
 /**
@@ -158,4 +167,113 @@ public class SerializerTest extends AbstractFixtureTest {
         Bundle serialized2 = noMeta.entityToBundle(doc);
         assertFalse(serialized2.getMetaData().containsKey("gid"));
     }
+
+    @Test
+    public void testProjection() throws Exception {
+        DocumentaryUnit doc = manager.getEntity("c1", DocumentaryUnit.class);
+        Serializer serializer = new Serializer.Builder(graph)
+                .withProjection(Projection.parse("identifier,describes(name,languageCode),heldBy(describes)"))
+                .build();
+        Bundle serialized = serializer.entityToBundle(doc);
+        assertEquals(Sets.newHashSet("identifier"), serialized.getData().keySet());
+        assertEquals(Sets.newHashSet("describes", "heldBy"), serialized.getRelations().keySet());
+        assertEquals(Sets.newHashSet("name", "languageCode"),
+                serialized.getRelations("describes").get(0).getData().keySet());
+        assertTrue(serialized.getRelations("describes").get(0).getRelations().isEmpty());
+        Bundle repo = serialized.getRelations("heldBy").get(0);
+        assertTrue(repo.getData().isEmpty());
+        assertEquals(Sets.newHashSet("describes"), repo.getRelations().keySet());
+        // Relations named without a projection are serialized in full
+        assertEquals("NIOD Description", DataUtils.get(repo, "describes[0]/name"));
+        assertEquals(serialized.getMetaData(), new Serializer(graph).entityToBundle(doc).getMetaData());
+
+        ObjectMapper mapper = new ObjectMapper();
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(writer)) {
+            serializer.entityToJson(doc, generator);
+        }
+        assertEquals(mapper.readTree(mapper.writeValueAsString(serializer.entityToData(doc))),
+                mapper.readTree(writer.toString()));
+        assertEquals(serializer.getProjection(), serializer.withCache().getProjection());
+    }
+
+    @Test
+    public void testStreamingJson() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Serializer serializer = new Serializer.Builder(graph).build();
+        for (Serializer s : Lists.newArrayList(serializer, serializer.withCache(),
+                new Serializer.Builder(graph).withLiteMode(true).build(), serializer.withMeta(false).withCache(),
+                new Serializer.Builder(graph).withSharedCache().build())) {
+            for (String id : Lists.newArrayList("c1", "c1", "vu1", "link3")) {
+                Entity item = manager.getEntity(id, Entity.class);
+                StringWriter writer = new StringWriter();
+                try (JsonGenerator generator = mapper.getFactory().createGenerator(writer)) {
+                    s.entityToJson(item, generator);
+                }
+                assertEquals(mapper.readTree(mapper.writeValueAsString(s.entityToData(item))),
+                        mapper.readTree(writer.toString()));
+            }
+        }
+    }
+
+    @Test
+    public void testSharedCache() throws Exception {
+        graph.getBaseGraph().commit();
+        Serializer serializer = new Serializer.Builder(graph).withSharedCache().build();
+        DocumentaryUnit doc = manager.getEntity("c1", DocumentaryUnit.class);
+        Repository repo = manager.getEntity("r2", Repository.class);
+        Bundle docBundle = serializer.entityToBundle(doc);
+        Bundle repoBundle = serializer.entityToBundle(repo);
+
+        // Fragments are shared between serializers with the same settings...
+        Serializer other = new Serializer.Builder(graph).withSharedCache().build();
+        assertSame(docBundle, other.entityToBundle(doc));
+        assertSame(docBundle, other.withCache().entityToBundle(doc));
+        assertNotSame(docBundle, other.withMeta(false).entityToBundle(doc));
+
+        // ... until one of the items they were built from changes. Here
+        // the description of c1's repository:
+        manager.getVertex("rd1").setProperty("name", "Changed");
+        assertEquals("Changed", DataUtils.get(serializer.entityToBundle(doc), "heldBy[0]/describes[0]/name"));
+        graph.getBaseGraph().commit();
+        Bundle changed = serializer.entityToBundle(doc);
+        assertNotSame(docBundle, changed);
+        assertEquals("Changed", DataUtils.get(changed, "heldBy[0]/describes[0]/name"));
+        assertSame(changed, serializer.entityToBundle(doc));
+        assertSame(repoBundle, serializer.entityToBundle(repo));
+    }
+
+    @Test
+    public void testSharedCacheIgnoresUncommittedChanges() throws Exception {
+        graph.getBaseGraph().commit();
+        Serializer serializer = new Serializer.Builder(graph).withSharedCache().build();
+        DocumentaryUnit doc = manager.getEntity("c1", DocumentaryUnit.class);
+        Bundle bundle = serializer.entityToBundle(doc);
+
+        doc.asVertex().setProperty("identifier", "changed");
+        assertEquals("changed", serializer.entityToBundle(doc).getDataValue("identifier"));
+        graph.getBaseGraph().rollback();
+        assertSame(bundle, serializer.entityToBundle(manager.getEntity("c1", DocumentaryUnit.class)));
+    }
+
+    @Test
+    public void testRevision() throws Exception {
+        Serializer serializer = new Serializer.Builder(graph).build();
+        DocumentaryUnit doc = manager.getEntity("c1", DocumentaryUnit.class);
+        String revision = serializer.getRevision(doc);
+        assertEquals(revision, serializer.getRevision(doc));
+        assertNotEquals(revision, serializer.getRevision(manager.getEntity("c2", DocumentaryUnit.class)));
+
+        // An event on an item fetched with the item changes its revision...
+        ActionManager am = new ActionManager(graph);
+        am.newEventContext(doc.getRepository(), graph.frame(adminUser.asVertex(), Actioner.class),
+                EventTypes.modification).commit();
+        String repoRevision = serializer.getRevision(doc);
+        assertNotEquals(revision, repoRevision);
+
+        // ... as does one on the item itself.
+        am.newEventContext(doc, graph.frame(adminUser.asVertex(), Actioner.class),
+                EventTypes.modification).commit();
+        assertNotEquals(repoRevision, serializer.getRevision(doc));
+    }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.persistence;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.frames.VertexFrame;
+import eu.ehri.project.definitions.Ontology;
+import eu.ehri.project.models.DatePeriod;
+import eu.ehri.project.models.DocumentaryUnit;
+import eu.ehri.project.models.DocumentaryUnitDescription;
+import eu.ehri.project.models.EntityClass;
+import eu.ehri.project.models.annotations.EntityType;
+import eu.ehri.project.models.utils.ClassUtils;
+import eu.ehri.project.test.AbstractFixtureTest;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraversalPlanTest extends AbstractFixtureTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(TraversalPlanTest.class);
+
+    private interface Step {
+        Iterable<Vertex> apply(TraversalPlan.Relation relation, Vertex vertex) throws Exception;
+    }
+
+    @Test
+    public void testPlanMatchesFrames() throws Exception {
+        for (Vertex vertex : graph.getVertices()) {
+            String type = vertex.getProperty(EntityType.TYPE_KEY);
+            if (type == null) {
+                continue;
+            }
+            Class<?> cls = EntityClass.withName(type).getJavaClass();
+            TraversalPlan plan = TraversalPlan.of(EntityClass.withName(type));
+            for (TraversalPlan.Relation relation : plan.getRelations()) {
+                assertEquals(relation.toString(),
+                        Lists.newArrayList(framed(relation, vertex)),
+                        Lists.newArrayList(relation.getVertices(graph, vertex)));
+            }
+            Map<String, Object> meta = Maps.newHashMap();
+            for (Map.Entry<String, Method> entry : ClassUtils.getMetaMethods(cls).entrySet()) {
+                Object value = entry.getValue().invoke(graph.frame(vertex, cls));
+                if (value != null) {
+                    meta.put(entry.getKey(), value);
+                }
+            }
+            assertEquals(type, meta.keySet(), plan.getMeta(graph, vertex).keySet());
+            for (Map.Entry<String, Object> entry : meta.entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    assertEquals(entry.getValue(), plan.getMeta(graph, vertex).get(entry.getKey()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPlanMatchesFramesInDeepSubtree() throws Exception {
+        List<Vertex> leaves = createSubtree();
+        assertEquals(64, leaves.size());
+
+        Serializer serializer = new Serializer.Builder(graph).withDepth(10).build();
+        for (Vertex leaf : leaves) {
+            List<String> planned = Lists.newArrayList();
+            walk(leaf, 0, (rel, v) -> rel.getVertices(graph, v), planned);
+            List<String> reflective = Lists.newArrayList();
+            walk(leaf, 0, this::framed, reflective);
+            assertEquals(reflective, planned);
+
+            // The serialized leaf includes its whole chain of parents
+            Bundle bundle = serializer.vertexToBundle(leaf);
+            for (int level = 0; level < 6; level++) {
+                List<Bundle> parents = bundle.getRelations(Ontology.DOC_IS_CHILD_OF);
+                assertEquals(1, parents.size());
+                bundle = parents.get(0);
+            }
+            assertEquals(item.getId(), bundle.getId());
+            assertTrue(bundle.getRelations(Ontology.DOC_IS_CHILD_OF).isEmpty());
+        }
+    }
+
+    // Not run with the unit tests: compares the time taken to traverse
+    // a deep subtree with traversal plans and by invoking frame methods.
+    @Test
+    @Ignore
+    public void testBenchmarkDeepSubtree() throws Exception {
+        List<Vertex> leaves = createSubtree();
+        Serializer serializer = new Serializer.Builder(graph).withDepth(10).build();
+        for (Vertex leaf : leaves) {
+            serializer.vertexToBundle(leaf);
+        }
+
+        int rounds = 5;
+        long planned = 0, reflective = 0;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            for (Vertex leaf : leaves) {
+                walk(leaf, 0, (rel, v) -> rel.getVertices(graph, v), Lists.newArrayList());
+            }
+            planned += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Vertex leaf : leaves) {
+                walk(leaf, 0, this::framed, Lists.newArrayList());
+            }
+            reflective += System.nanoTime() - start;
+        }
+        logger.info("Traversing {} leaves: planned {}ms, reflective {}ms", leaves.size(),
+                planned / rounds / 1_000_000.0, reflective / rounds / 1_000_000.0);
+    }
+
+    // Build a hierarchy six levels deep below the test item, each item
+    // with a description and a date period, and return its leaves.
+    private List<Vertex> createSubtree() throws Exception {
+        List<Vertex> leaves = Lists.newArrayList(item.asVertex());
+        for (int level = 0; level < 6; level++) {
+            List<Vertex> next = Lists.newArrayList();
+            for (Vertex parent : leaves) {
+                for (int i = 0; i < 2; i++) {
+                    next.add(createChild(parent, parent.getProperty(EntityType.ID_KEY) + "-" + i));
+                }
+            }
+            leaves = next;
+        }
+        return leaves;
+    }
+
+    private Vertex createChild(Vertex parent, String id) throws Exception {
+        DocumentaryUnit child = graph.frame(manager.createVertex(id, EntityClass.DOCUMENTARY_UNIT,
+                ImmutableMap.of("identifier", id)), DocumentaryUnit.class);
+        graph.frame(parent, DocumentaryUnit.class).addChild(child);
+        DocumentaryUnitDescription desc = graph.frame(manager.createVertex(id + "-desc",
+                EntityClass.DOCUMENTARY_UNIT_DESCRIPTION,
+                ImmutableMap.of("name", id, "languageCode", "eng")), DocumentaryUnitDescription.class);
+        child.addDescription(desc);
+        desc.addDatePeriod(graph.frame(manager.createVertex(id + "-date", EntityClass.DATE_PERIOD,
+                ImmutableMap.of("startDate", "1939-01-01")), DatePeriod.class));
+        return child.asVertex();
+    }
+
+    // Collect the ids of the vertices reachable from a vertex
+    // through its fetched relations, to a fixed depth.
+    private void walk(Vertex vertex, int depth, Step step, List<String> ids) throws Exception {
+        ids.add(vertex.getProperty(EntityType.ID_KEY));
+        if (depth >= 6) {
+            return;
+        }
+        TraversalPlan plan = TraversalPlan.of(EntityClass.withName(vertex.getProperty(EntityType.TYPE_KEY)));
+        for (TraversalPlan.Relation relation : plan.getRelations()) {
+            for (Vertex v : step.apply(relation, vertex)) {
+                walk(v, depth + 1, step, ids);
+            }
+        }
+    }
+
+    // Read a relation by invoking its method on a frame, as the
+    // serializer did before it used traversal plans.
+    private Iterable<Vertex> framed(TraversalPlan.Relation relation, Vertex vertex) throws Exception {
+        Class<?> cls = EntityClass.withName(vertex.getProperty(EntityType.TYPE_KEY)).getJavaClass();
+        Object result = relation.method.invoke(graph.frame(vertex, cls));
+        List<Vertex> out = Lists.newArrayList();
+        if (result instanceof Iterable<?>) {
+            for (Object frame : (Iterable<?>) result) {
+                out.add(((VertexFrame) frame).asVertex());
+            }
+        } else if (result != null) {
+            out.add(((VertexFrame) result).asVertex());
+        }
+        return out;
+    }
+}
@@ -18,6 +18,7 @@ import eu.ehri.project.models.base.PermissionScope;
 import eu.ehri.project.persistence.ActionManager;
 import eu.ehri.project.persistence.Bundle;
 import eu.ehri.project.persistence.BundleManager;
+import eu.ehri.project.persistence.DataFormat;
 import eu.ehri.project.persistence.Mutation;
 import eu.ehri.project.persistence.Serializer;
 import org.slf4j.Logger;
@@ -138,10 +139,28 @@ public class BatchOperations {
      */
     public ImportLog batchImport(InputStream inputStream, Actioner actioner, Optional<String> logMessage)
             throws DeserializationError, ValidationError {
+        return batchImport(inputStream, DataFormat.JSON, actioner, logMessage);
+    }
+
+    /**
+     * Create or update a batch of items.
+     *
+     * @param inputStream an input stream containing a list of bundles,
+     *                    in the given format, corresponding to the items
+     *                    to update or create.
+     * @param format      the format of the input stream
+     * @param actioner    the current user
+     * @param logMessage  a log message
+     * @return an import log
+     * @throws DeserializationError if the input stream is not well-formed
+     * @throws ValidationError      if data constraints are not met
+     */
+    public ImportLog batchImport(InputStream inputStream, DataFormat format, Actioner actioner,
+            Optional<String> logMessage) throws DeserializationError, ValidationError {
         ActionManager.EventContext ctx = actionManager.newEventContext(actioner,
                 EventTypes.modification, logMessage);
         ImportLog log = new ImportLog(logMessage.orElse(null));
-        try (CloseableIterable<Bundle> bundleIter = Bundle.bundleStream(inputStream)) {
+        try (CloseableIterable<Bundle> bundleIter = Bundle.bundleStream(inputStream, format)) {
             for (Bundle bundle : bundleIter) {
                 try {
                     Mutation<Accessible> mutation = dao.createOrUpdate(bundle, Accessible.class);
@@ -176,7 +195,7 @@ public class BatchOperations {
             }
             return log.committing(ctx);
         } catch (RuntimeJsonMappingException e) {
-            throw new DeserializationError("Error reading JSON stream:", e);
+            throw new DeserializationError("Error reading bundle stream:", e);
         }
     }
 
@@ -194,10 +213,29 @@ public class BatchOperations {
      */
     public ImportLog batchUpdate(InputStream inputStream, Actioner actioner, Optional<String> logMessage)
             throws DeserializationError, ItemNotFound, ValidationError {
+        return batchUpdate(inputStream, DataFormat.JSON, actioner, logMessage);
+    }
+
+    /**
+     * Update a batch of items.
+     *
+     * @param inputStream an input stream containing a list of bundles,
+     *                    in the given format, corresponding to the items
+     *                    to update.
+     * @param format      the format of the input stream
+     * @param actioner    the current user
+     * @param logMessage  a log message
+     * @return an import log
+     * @throws ItemNotFound         if one of the items in the input stream does not exist
+     * @throws DeserializationError if the input stream is not well-formed
+     * @throws ValidationError      if data constraints are not met
+     */
+    public ImportLog batchUpdate(InputStream inputStream, DataFormat format, Actioner actioner,
+            Optional<String> logMessage) throws DeserializationError, ItemNotFound, ValidationError {
         ActionManager.EventContext ctx = actionManager.newEventContext(actioner,
                 EventTypes.modification, logMessage);
         ImportLog log = new ImportLog(logMessage.orElse(null));
-        try (CloseableIterable<Bundle> bundleIter = Bundle.bundleStream(inputStream)) {
+        try (CloseableIterable<Bundle> bundleIter = Bundle.bundleStream(inputStream, format)) {
             for (Bundle bundle : bundleIter) {
                 try {
                     Entity entity = manager.getEntity(bundle.getId(), bundle.getType().getJavaClass());
@@ -231,7 +269,7 @@ public class BatchOperations {
         } catch (SerializationError serializationError) {
             throw new RuntimeException(serializationError);
         } catch (RuntimeJsonMappingException e) {
-            throw new DeserializationError("Error reading JSON stream:", e);
+            throw new DeserializationError("Error reading bundle stream:", e);
         }
     }
 
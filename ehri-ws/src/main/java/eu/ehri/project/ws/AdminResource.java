@@ -113,7 +113,7 @@ public class AdminResource extends AbstractResource {
      * @return A new user
      */
     @POST
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("create-default-user-profile")
     public Response createDefaultUserProfile(String jsonData, @QueryParam(GROUP_PARAM) List<String> groups) {
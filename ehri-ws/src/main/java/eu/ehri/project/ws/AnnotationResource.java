@@ -62,7 +62,7 @@ public class AnnotationResource extends AbstractAccessibleResource<Annotation>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response get(@PathParam("id") String id) throws ItemNotFound {
@@ -70,7 +70,7 @@ public class AnnotationResource extends AbstractAccessibleResource<Annotation>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Override
     public Response list() {
         return listItems();
@@ -91,8 +91,8 @@ public class AnnotationResource extends AbstractAccessibleResource<Annotation>
      * @throws DeserializationError if the input data is not valid
      */
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     public Response createAnnotation(
             @QueryParam(TARGET_PARAM) String id,
             @QueryParam(BODY_PARAM) String did,
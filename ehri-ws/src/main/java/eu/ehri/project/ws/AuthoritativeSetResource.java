@@ -60,7 +60,7 @@ public class AuthoritativeSetResource extends
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response get(@PathParam("id") String id) throws ItemNotFound {
@@ -68,14 +68,14 @@ public class AuthoritativeSetResource extends
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Override
     public Response list() {
         return listItems();
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/list")
     @Override
     public Response listChildren(
@@ -91,8 +91,8 @@ public class AuthoritativeSetResource extends
     }
 
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Override
     public Response create(Bundle bundle,
                            @QueryParam(ACCESSOR_PARAM) List<String> accessors)
@@ -105,8 +105,8 @@ public class AuthoritativeSetResource extends
     }
 
     @PUT
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response update(@PathParam("id") String id, Bundle bundle)
@@ -148,8 +148,8 @@ public class AuthoritativeSetResource extends
     }
 
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response createChild(@PathParam("id") String id,
@@ -168,7 +168,7 @@ public class AuthoritativeSetResource extends
     }
 
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Produces(MediaType.APPLICATION_JSON)
     @Path("{id:[^/]+}/list")
     public ImportLog addChildren(
@@ -189,7 +189,7 @@ public class AuthoritativeSetResource extends
                 set.addItem(accessible.as(HistoricalAgent.class));
             };
             ImportLog log = new BatchOperations(graph, set, version, tolerant,
-                    Lists.newArrayList(cb)).batchImport(data, user, getLogMessage());
+                    Lists.newArrayList(cb)).batchImport(data, getRequestDataFormat(), user, getLogMessage());
             if (commit) {
                 logger.debug("Committing batch ingest transaction...");
                 tx.success();
@@ -59,15 +59,15 @@ public class BatchResource extends AbstractResource {
     }
 
     /**
-     * Update a batch of items via JSON containing (partial)
-     * data bundles.
+     * Update a batch of items via JSON, Smile or CBOR containing
+     * (partial) data bundles.
      *
      * @param scope       the ID of the item's permission scope
      * @param tolerant    whether to allow individual validation failures
      * @param version     whether to create a version prior to delete
      * @param log         an optional log message
      * @param commit      actually change the graph
-     * @param inputStream a JSON document containing partial bundles containing
+     * @param inputStream a document containing partial bundles containing
      *                    the needed data transformations
      * @return an import log describing the changes committed
      * @throws IOException          if an error occurs reading the stream
@@ -76,7 +76,7 @@ public class BatchResource extends AbstractResource {
      * @throws ValidationError      if data constraints are not met
      */
     @PUT
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Produces(MediaType.APPLICATION_JSON)
     @Path("update")
     public ImportLog batchUpdate(
@@ -93,7 +93,7 @@ public class BatchResource extends AbstractResource {
                     ? manager.getEntity(scope, PermissionScope.class)
                     : null;
             ImportLog importLog = new BatchOperations(graph, parent, version, tolerant, Collections.emptyList())
-                    .batchUpdate(inputStream, user, getLogMessage(log));
+                    .batchUpdate(inputStream, getRequestDataFormat(), user, getLogMessage(log));
             if (commit) {
                 logger.debug("Committing batch update transaction...");
                 tx.success();
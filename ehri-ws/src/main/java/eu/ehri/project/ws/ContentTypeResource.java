@@ -50,7 +50,7 @@ public class ContentTypeResource extends AbstractAccessibleResource<ContentType>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response get(@PathParam("id") String id) throws ItemNotFound {
@@ -58,7 +58,7 @@ public class ContentTypeResource extends AbstractAccessibleResource<ContentType>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Override
     public Response list() {
         return listItems();
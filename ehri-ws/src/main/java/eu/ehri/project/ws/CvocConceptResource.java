@@ -49,7 +49,7 @@ public class CvocConceptResource extends AbstractAccessibleResource<Concept>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response get(@PathParam("id") String id) throws ItemNotFound {
@@ -57,15 +57,15 @@ public class CvocConceptResource extends AbstractAccessibleResource<Concept>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Override
     public Response list() {
         return listItems();
     }
 
     @PUT
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response update(@PathParam("id") String id, Bundle bundle)
@@ -110,7 +110,7 @@ public class CvocConceptResource extends AbstractAccessibleResource<Concept>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/list")
     @Override
     public Response listChildren(@PathParam("id") String id,
@@ -125,8 +125,8 @@ public class CvocConceptResource extends AbstractAccessibleResource<Concept>
     }
 
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response createChild(@PathParam("id") String id,
@@ -145,7 +145,7 @@ public class CvocConceptResource extends AbstractAccessibleResource<Concept>
     }
 
     @POST
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}/parent")
     @Override
     public Response setParents(
@@ -160,7 +160,7 @@ public class CvocConceptResource extends AbstractAccessibleResource<Concept>
     }
 
     @POST
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}/broader")
     public Response setBroaderCvocConcepts(
             @PathParam("id") String id,
@@ -174,7 +174,7 @@ public class CvocConceptResource extends AbstractAccessibleResource<Concept>
     }
 
     @POST
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}/narrower")
     public Response addNarrowerCvocConcept(
             @PathParam("id") String id,
@@ -203,7 +203,7 @@ public class CvocConceptResource extends AbstractAccessibleResource<Concept>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/broader")
     public Response getCvocBroaderConcepts(@PathParam("id") String id)
             throws ItemNotFound {
@@ -216,7 +216,7 @@ public class CvocConceptResource extends AbstractAccessibleResource<Concept>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/related")
     public Response getCvocRelatedConcepts(@PathParam("id") String id) throws ItemNotFound {
         try (final Tx tx = beginTx()) {
@@ -228,7 +228,7 @@ public class CvocConceptResource extends AbstractAccessibleResource<Concept>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/relatedBy")
     public Response getCvocRelatedByConcepts(@PathParam("id") String id) throws ItemNotFound {
         try (final Tx tx = beginTx()) {
@@ -80,7 +80,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * found or inaccessible.
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     public Response list(@QueryParam("id") List<String> ids, @QueryParam("gid") List<Long> gids) {
         try (Tx tx = beginTx()) {
             // Check auth...
@@ -115,7 +115,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws IOException          if the input cannot be read
      */
     @POST
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Consumes(MediaType.APPLICATION_JSON)
     public Response listFromJson(String json) throws DeserializationError, IOException {
         IdSet set = parseGraphIds(json);
@@ -131,7 +131,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws AccessDenied if the user cannot access the item
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     public Response get(@PathParam("id") String id) throws ItemNotFound, AccessDenied {
         try (final Tx tx = beginTx()) {
@@ -159,7 +159,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws ItemNotFound if the item does not exist
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/access")
     public Response visibility(@PathParam("id") String id) throws ItemNotFound {
         try (final Tx tx = beginTx()) {
@@ -181,7 +181,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws ItemNotFound     if the item does not exist
      */
     @POST
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}/access")
     public Response setVisibility(@PathParam("id") String id,
                                   @QueryParam(ACCESSOR_PARAM) List<String> accessorIds)
@@ -206,7 +206,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws ItemNotFound     if the item does not exist
      */
     @POST
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}/promote")
     public Response addPromotion(@PathParam("id") String id)
             throws PermissionDenied, ItemNotFound {
@@ -229,7 +229,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws ItemNotFound     if the item does not exist
      */
     @DELETE
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}/promote")
     public Response removePromotion(@PathParam("id") String id)
             throws PermissionDenied, ItemNotFound {
@@ -249,7 +249,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws ItemNotFound     if the item does not exist
      */
     @POST
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}/demote")
     public Response addDemotion(@PathParam("id") String id)
             throws PermissionDenied, ItemNotFound {
@@ -272,7 +272,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws ItemNotFound     if the item does not exist
      */
     @DELETE
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}/demote")
     public Response removeDemotion(@PathParam("id") String id)
             throws PermissionDenied, ItemNotFound {
@@ -293,7 +293,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws AccessDenied if the user cannot access the item
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/events")
     public Response events(
             @PathParam("id") String id,
@@ -317,7 +317,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws ItemNotFound if the item does not exist
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/annotations")
     public Response annotations(@PathParam("id") String id) throws ItemNotFound {
         try (final Tx tx = beginTx()) {
@@ -337,7 +337,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws ItemNotFound if the item does not exist
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/links")
     public Response links(@PathParam("id") String id) throws ItemNotFound {
         try (final Tx tx = beginTx()) {
@@ -356,7 +356,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws ItemNotFound if the item does not exist
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/permission-grants")
     public Response permissionGrants(@PathParam("id") String id) throws ItemNotFound {
         try (final Tx tx = beginTx()) {
@@ -377,7 +377,7 @@ public class GenericResource extends AbstractAccessibleResource<Accessible> {
      * @throws ItemNotFound if one of the given items does not exist
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/scope-permission-grants")
     public Response permissionGrantsAsScope(@PathParam("id") String id) throws ItemNotFound {
         try (final Tx tx = beginTx()) {
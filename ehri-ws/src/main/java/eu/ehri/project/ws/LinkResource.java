@@ -55,7 +55,7 @@ public class LinkResource extends AbstractAccessibleResource<Link>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response get(@PathParam("id") String id) throws ItemNotFound {
@@ -63,7 +63,7 @@ public class LinkResource extends AbstractAccessibleResource<Link>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     public Response list() {
         return listItems();
     }
@@ -95,8 +95,8 @@ public class LinkResource extends AbstractAccessibleResource<Link>
      * @throws ValidationError      if data constraints are not met
      */
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     public Response create(
             Bundle bundle,
             @QueryParam(SOURCE_PARAM) String source,
@@ -248,7 +248,7 @@ public class PermissionsResource extends AbstractResource {
      * @throws ItemNotFound if the user or group does not exist
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{userOrGroup:[^/]+}/permission-grants")
     public Response listPermissionGrants(@PathParam("userOrGroup") String id) throws ItemNotFound {
         try (final Tx tx = beginTx()) {
@@ -61,7 +61,7 @@ public class RepositoryResource extends AbstractAccessibleResource<Repository>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response get(@PathParam("id") String id) throws ItemNotFound {
@@ -69,14 +69,14 @@ public class RepositoryResource extends AbstractAccessibleResource<Repository>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Override
     public Response list() {
         return listItems();
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/list")
     @Override
     public Response listChildren(
@@ -97,8 +97,8 @@ public class RepositoryResource extends AbstractAccessibleResource<Repository>
     }
 
     @PUT
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response update(@PathParam("id") String id, Bundle bundle)
@@ -151,8 +151,8 @@ public class RepositoryResource extends AbstractAccessibleResource<Repository>
      * @throws ValidationError      if data constraints are not met
      */
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response createChild(@PathParam("id") String id,
@@ -185,7 +185,7 @@ public class RepositoryResource extends AbstractAccessibleResource<Repository>
      *                              perform the action
      */
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Produces(MediaType.APPLICATION_JSON)
     @Path("{id:[^/]+}/list")
     public ImportLog addChildren(
@@ -205,7 +205,7 @@ public class RepositoryResource extends AbstractAccessibleResource<Repository>
                 repository.addTopLevelDocumentaryUnit(accessible.as(DocumentaryUnit.class));
             };
             ImportLog log = new BatchOperations(graph, repository, true, tolerant,
-                    Lists.newArrayList(cb)).batchImport(data, user, getLogMessage());
+                    Lists.newArrayList(cb)).batchImport(data, getRequestDataFormat(), user, getLogMessage());
             if (commit) {
                 logger.debug("Committing batch ingest transaction...");
                 tx.success();
@@ -84,7 +84,7 @@ public class SystemEventResource extends AbstractAccessibleResource<SystemEvent>
     }
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE})
     @Path("{id:[^/]+}")
     @Override
     public Response get(@PathParam("id") String id) throws ItemNotFound {
@@ -93,6 +93,8 @@ public class SystemEventResource extends AbstractAccessibleResource<SystemEvent>
 
     /**
      * List aggregated global events. Standard list parameters for paging apply.
+     * Given the ID of the last event of the last aggregate read as the cursor
+     * parameter, the list continues with the aggregates after it.
      *
      * @param aggregation The manner in which to aggregate the results, accepting
      *                    "user", "strict" or "off" (no aggregation). Default is
@@ -100,7 +102,7 @@ public class SystemEventResource extends AbstractAccessibleResource<SystemEvent>
      * @return a list of events
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     public Response list(@QueryParam(AGGREGATION_PARAM) @DefaultValue("user") EventsApi.Aggregation aggregation) {
         try (final Tx tx = beginTx()) {
             Response list = streamingListOfLists(() -> getEventsApi().withAggregation(aggregation).aggregate());
@@ -117,7 +119,7 @@ public class SystemEventResource extends AbstractAccessibleResource<SystemEvent>
      * @throws ItemNotFound if the item does not exist
      */
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, SMILE_MEDIA_TYPE, CBOR_MEDIA_TYPE, NDJSON_MEDIA_TYPE})
     @Path("{id:[^/]+}/subjects")
     public Response pageSubjectsForEvent(@PathParam("id") String id) throws ItemNotFound {
         try (final Tx tx = beginTx()) {
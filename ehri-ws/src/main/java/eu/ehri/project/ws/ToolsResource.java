@@ -38,6 +38,7 @@ import eu.ehri.project.models.*;
 import eu.ehri.project.models.base.*;
 import eu.ehri.project.models.cvoc.Vocabulary;
 import eu.ehri.project.models.idgen.DescriptionIdGenerator;
+import eu.ehri.project.persistence.ActionManager;
 import eu.ehri.project.persistence.Bundle;
 import eu.ehri.project.persistence.Serializer;
 import eu.ehri.project.tools.DbUpgrader1to2;
@@ -527,6 +528,21 @@ public class ToolsResource extends AbstractResource {
         }
     }
 
+    /**
+     * Create the stripes of the global event queue for a graph
+     * initialised without them.
+     */
+    @POST
+    @Produces("text/plain")
+    @Path("create-event-stripes")
+    public void createEventStripes() {
+        try (final Tx tx = beginTx()) {
+            logger.info("Creating global event queue stripes...");
+            new ActionManager(graph).createEventStripes();
+            tx.success();
+        }
+    }
+
     @POST
     @Produces("text/plain")
     @Path("upgrade-1to2")
@@ -40,6 +40,7 @@ import eu.ehri.project.utils.Table;
 import org.joda.time.DateTime;
 import org.neo4j.graphdb.GraphDatabaseService;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
@@ -343,7 +344,8 @@ public class AbstractAccessibleResource<E extends Accessible> extends AbstractRe
         List<String> toStrings = getStringListQueryParam(TO_PARAM);
         List<String> users = getStringListQueryParam(USER_PARAM);
         List<String> ids = getStringListQueryParam(ITEM_ID_PARAM);
-        return api()
+        String cursor = uriInfo.getQueryParameters().getFirst(CURSOR_PARAM);
+        EventsApi events = api()
                 .events()
                 .withRange(getIntQueryParam(OFFSET_PARAM, 0),
                         getIntQueryParam(LIMIT_PARAM, DEFAULT_LIST_LIMIT))
@@ -353,7 +355,13 @@ public class AbstractAccessibleResource<E extends Accessible> extends AbstractRe
                 .to(toStrings.isEmpty() ? null : toStrings.get(0))
                 .withUsers(users.toArray(new String[0]))
                 .withIds(ids.toArray(new String[0]))
-                .withShowType(showTypes.toArray(new EventsApi.ShowType[0]));
+                .withShowType(showTypes.toArray(new EventsApi.ShowType[0]))
+                .withProfile(getProfile());
+        try {
+            return cursor == null || cursor.isEmpty() ? events : events.withCursor(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+        }
     }
 
     protected E fetchAndCheckType(String id) throws ItemNotFound {
@@ -22,20 +22,26 @@ package eu.ehri.project.ws.base;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.frames.FramedGraph;
 import com.tinkerpop.frames.FramedGraphFactory;
 import com.tinkerpop.frames.modules.javahandler.JavaHandlerModule;
 import eu.ehri.project.ws.errors.MissingOrInvalidUser;
+import eu.ehri.project.acl.AclManager;
 import eu.ehri.project.acl.AnonymousAccessor;
 import eu.ehri.project.api.Api;
 import eu.ehri.project.api.ApiFactory;
 import eu.ehri.project.api.QueryApi;
+import eu.ehri.project.api.QueryProfile;
 import eu.ehri.project.core.GraphManager;
 import eu.ehri.project.core.GraphManagerFactory;
 import eu.ehri.project.core.Tx;
@@ -48,14 +54,22 @@ import eu.ehri.project.models.UserProfile;
 import eu.ehri.project.models.base.Accessible;
 import eu.ehri.project.models.base.Accessor;
 import eu.ehri.project.models.base.Actioner;
+import eu.ehri.project.models.annotations.EntityType;
 import eu.ehri.project.models.base.Entity;
 import eu.ehri.project.models.utils.CustomAnnotationsModule;
+import eu.ehri.project.persistence.DataFormat;
+import eu.ehri.project.persistence.Projection;
 import eu.ehri.project.persistence.Serializer;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLDecoder;
@@ -73,6 +87,7 @@ public abstract class AbstractResource implements TxCheckedResource {
 
     public static final int DEFAULT_LIST_LIMIT = QueryApi.DEFAULT_LIMIT;
     public static final int ITEM_CACHE_TIME = 60 * 5; // 5 minutes
+    public static final int DEFAULT_FLUSH_INTERVAL = 100; // NDJSON lines
 
     public static final String RESOURCE_ENDPOINT_PREFIX = "classes";
 
@@ -83,6 +98,9 @@ public abstract class AbstractResource implements TxCheckedResource {
     private static final FramedGraphFactory graphFactory = new FramedGraphFactory(new JavaHandlerModule(), new CustomAnnotationsModule());
 
     public static final String CSV_MEDIA_TYPE = "text/csv";
+    public static final String SMILE_MEDIA_TYPE = "application/x-jackson-smile";
+    public static final String CBOR_MEDIA_TYPE = "application/cbor";
+    public static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
 
     /**
      * RDF Mimetypes and formatting mappings
@@ -107,6 +125,7 @@ public abstract class AbstractResource implements TxCheckedResource {
     public static final String FILTER_PARAM = "filter";
     public static final String LIMIT_PARAM = "limit";
     public static final String OFFSET_PARAM = "offset";
+    public static final String CURSOR_PARAM = "cursor";
     public static final String ACCESSOR_PARAM = "accessibleTo";
     public static final String GROUP_PARAM = "group";
     public static final String ALL_PARAM = "all";
@@ -117,6 +136,7 @@ public abstract class AbstractResource implements TxCheckedResource {
     public static final String TOLERANT_PARAM = "tolerant";
     public static final String LANG_PARAM = "lang";
     public static final String COMMIT_PARAM = "commit";
+    public static final String FLUSH_PARAM = "flush";
 
     /**
      * Default to English... can't set this through config
@@ -130,15 +150,20 @@ public abstract class AbstractResource implements TxCheckedResource {
     public static final String INCLUDE_PROPS_PARAM = "_ip";
     public static final String DEPENDENT_ONLY_PARAM = "_dep";
     public static final String NO_META_PARAM = "_noMeta";
+    public static final String PROJECTION_PARAM = "_fields";
 
     /**
      * Header names
      */
     public static final String RANGE_HEADER_NAME = "Content-Range";
+    public static final String LINK_HEADER_NAME = "Link";
     public static final String PATCH_HEADER_NAME = "X-Patch";
     public static final String AUTH_HEADER_NAME = "X-User";
     public static final String LOG_MESSAGE_HEADER_NAME = "X-LogMessage";
     public static final String STREAM_HEADER_NAME = "X-Stream";
+    public static final String ESTIMATE_HEADER_NAME = "X-Estimate";
+    public static final String PROFILE_HEADER_NAME = "X-Profile";
+    public static final String PARALLEL_HEADER_NAME = "X-Parallel";
 
 
     /**
@@ -160,6 +185,8 @@ public abstract class AbstractResource implements TxCheckedResource {
     protected final FramedGraph<? extends TxGraph> graph;
     protected final GraphManager manager;
     private final Serializer serializer;
+    private QueryProfile profile;
+    private Boolean adminRequester;
 
     /**
      * Constructer.
@@ -169,7 +196,7 @@ public abstract class AbstractResource implements TxCheckedResource {
     public AbstractResource(@Context GraphDatabaseService database) {
         graph = graphFactory.create(new TxNeo4jGraph(database));
         manager = GraphManagerFactory.getInstance(graph);
-        serializer = new Serializer.Builder(graph).build();
+        serializer = new Serializer.Builder(graph).withSharedCache().build();
     }
 
     public FramedGraph<? extends TxGraph> getGraph() {
@@ -196,6 +223,9 @@ public abstract class AbstractResource implements TxCheckedResource {
      *     <dd>If true, exclude metadata from the output</dd>
      *     <dt>_dep</dt>
      *     <dd>If true, only include dependent relations</dd>
+     *     <dt>_fields</dt>
+     *     <dd>Only include the given properties and relations, e.g.
+     *     <code>identifier,describes(name)</code></dd>
      * </dl>
      *
      * @return a vertex serializer
@@ -205,9 +235,18 @@ public abstract class AbstractResource implements TxCheckedResource {
                 .get(INCLUDE_PROPS_PARAM));
         boolean depOnly = getBoolQueryParam(DEPENDENT_ONLY_PARAM, false);
         boolean noMeta = getBoolQueryParam(NO_META_PARAM, false);
-        return includeProps.map(serializer::withIncludedProperties).orElse(serializer)
-                .withDependentOnly(depOnly)
-                .withMeta(!noMeta);
+        List<String> fields = getStringListQueryParam(PROJECTION_PARAM);
+        try {
+            Projection projection = fields.isEmpty()
+                    ? Projection.ALL
+                    : Projection.parse(String.join(",", fields));
+            return includeProps.map(serializer::withIncludedProperties).orElse(serializer)
+                    .withDependentOnly(depOnly)
+                    .withMeta(!noMeta)
+                    .withProjection(projection);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+        }
 
     }
 
@@ -258,16 +297,26 @@ public abstract class AbstractResource implements TxCheckedResource {
 
     /**
      * Get a query object configured according to incoming parameters.
+     * If a cursor parameter is given, which may be empty, the query
+     * uses keyset paging and the offset parameter is ignored.
      *
      * @return a query object
      */
     protected QueryApi getQuery() {
-        return api().query()
+        QueryApi query = api().query()
                 .withOffset(getIntQueryParam(OFFSET_PARAM, 0))
                 .withLimit(getIntQueryParam(LIMIT_PARAM, DEFAULT_LIST_LIMIT))
                 .filter(getStringListQueryParam(FILTER_PARAM))
                 .orderBy(getStringListQueryParam(SORT_PARAM))
-                .withStreaming(isStreaming());
+                .withStreaming(isStreaming())
+                .withEstimatedTotal(isEstimating())
+                .withProfile(getProfile());
+        String cursor = uriInfo.getQueryParameters().getFirst(CURSOR_PARAM);
+        try {
+            return cursor == null ? query : query.withCursor(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+        }
     }
 
     /**
@@ -401,6 +450,156 @@ public abstract class AbstractResource implements TxCheckedResource {
         return false;
     }
 
+    /**
+     * Determine if the X-Estimate header is present. This allows
+     * the total of paged results to be estimated, so a full count
+     * need not be made for the first page of a large listing.
+     *
+     * @return whether an estimated total will do
+     */
+    protected boolean isEstimating() {
+        List<String> list = requestHeaders.getRequestHeader(ESTIMATE_HEADER_NAME);
+        if (list != null && !list.isEmpty()) {
+            return Boolean.parseBoolean(list.get(0));
+        }
+        return false;
+    }
+
+    /**
+     * Determine if the X-Profile header is present and the requester
+     * is an admin. If so, the work done to list items is recorded and
+     * logged once the response has been written, and the profile of a
+     * page is given in the response's X-Profile header.
+     *
+     * @return whether queries are to be profiled
+     */
+    protected boolean isProfiling() {
+        List<String> list = requestHeaders.getRequestHeader(PROFILE_HEADER_NAME);
+        if (list != null && !list.isEmpty()) {
+            return Boolean.parseBoolean(list.get(0)) && isAdminRequester();
+        }
+        return false;
+    }
+
+    /**
+     * Determine if the X-Parallel header is present and the requester
+     * is an admin. If so, the items of a streaming list are serialized
+     * ahead of the response being written on a pool of worker threads,
+     * for large listings where serialization rather than the query is
+     * the bottleneck.
+     *
+     * @return whether items may be serialized in parallel
+     */
+    protected boolean isParallel() {
+        List<String> list = requestHeaders.getRequestHeader(PARALLEL_HEADER_NAME);
+        if (list != null && !list.isEmpty()) {
+            return Boolean.parseBoolean(list.get(0)) && isAdminRequester();
+        }
+        return false;
+    }
+
+    // Determine if the requester belongs to the admin group, which
+    // is required for options that use more of the server's resources
+    // than a request otherwise would, or reveal how data is stored.
+    private boolean isAdminRequester() {
+        if (adminRequester == null) {
+            if (!getRequesterIdentifier().isPresent()) {
+                adminRequester = false;
+            } else if (graph.getBaseGraph().isInTransaction()) {
+                adminRequester = AclManager.belongsToAdmin(getRequesterUserProfile());
+            } else {
+                try (Tx tx = beginTx()) {
+                    adminRequester = AclManager.belongsToAdmin(getRequesterUserProfile());
+                    tx.success();
+                }
+            }
+        }
+        return adminRequester;
+    }
+
+    /**
+     * Get the format in which to write items, according to
+     * the request's acceptable media types. Clients which ask for
+     * Smile or CBOR in preference to JSON get binary responses.
+     *
+     * @return a data format, which defaults to JSON
+     */
+    protected DataFormat getDataFormat() {
+        for (MediaType mediaType : requestHeaders.getAcceptableMediaTypes()) {
+            Optional<DataFormat> format = getDataFormat(mediaType);
+            if (format.isPresent()) {
+                return format.get();
+            }
+        }
+        return DataFormat.JSON;
+    }
+
+    /**
+     * Get the format in which the request body is written, according
+     * to its content type.
+     *
+     * @return a data format, which defaults to JSON
+     */
+    protected DataFormat getRequestDataFormat() {
+        return getDataFormat(requestHeaders.getMediaType()).orElse(DataFormat.JSON);
+    }
+
+    /**
+     * Determine if the client prefers a list to be written as
+     * newline-delimited JSON, with one item per line and no
+     * enclosing array, to any other format.
+     *
+     * @return whether to write NDJSON
+     */
+    protected boolean isNdjson() {
+        for (MediaType mediaType : requestHeaders.getAcceptableMediaTypes()) {
+            if (NDJSON_MEDIA_TYPE.equals(mediaType.getType() + "/" + mediaType.getSubtype())) {
+                return true;
+            } else if (getDataFormat(mediaType).isPresent()) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the data format for a media type.
+     *
+     * @param mediaType a media type
+     * @return the data format, if there is one
+     */
+    public static Optional<DataFormat> getDataFormat(MediaType mediaType) {
+        return mediaType == null
+                ? Optional.empty()
+                : DataFormat.fromMediaType(mediaType.getType() + "/" + mediaType.getSubtype());
+    }
+
+    /**
+     * Start a new line between items in a streamed list. Binary
+     * formats have no lines, so nothing is written to them.
+     *
+     * @param generator a generator
+     */
+    static void writeNewline(JsonGenerator generator) throws IOException {
+        if (!generator.canWriteBinaryNatively()) {
+            generator.writeRaw('\n');
+        }
+    }
+
+    /**
+     * Get the profile in which the queries made for the current
+     * response are recorded.
+     *
+     * @return a profile, which is disabled unless the request
+     * asked for profiling
+     */
+    protected QueryProfile getProfile() {
+        if (profile == null) {
+            profile = isProfiling() ? new QueryProfile() : QueryProfile.none();
+        }
+        return profile;
+    }
+
     /**
      * Retrieve the id string of the requester's user profile.
      *
@@ -424,10 +623,22 @@ public abstract class AbstractResource implements TxCheckedResource {
      */
     protected <T extends Entity> Response single(T item) {
         try {
+            DataFormat format = getDataFormat();
+            Date lastModified = lastModified(item);
+            EntityTag tag = getEntityTag(item);
+            Response.ResponseBuilder notModified = evaluatePreconditions(lastModified, tag);
+            if (notModified != null) {
+                return notModified
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                        .cacheControl(getCacheControl(item)).build();
+            }
             return Response.status(Response.Status.OK)
-                    .entity(getSerializer().entityToJson(item).getBytes(Charsets.UTF_8))
+                    .entity(serialize(item, format))
+                    .type(format.getMediaType())
                     .location(getItemUri(item))
-                    .lastModified(lastModified(item))
+                    .lastModified(lastModified)
+                    .tag(tag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
                     .cacheControl(getCacheControl(item)).build();
         } catch (SerializationError e) {
             throw new RuntimeException(e);
@@ -456,8 +667,21 @@ public abstract class AbstractResource implements TxCheckedResource {
      */
     protected <T extends Entity> Response streamingPage(
             final Supplier<QueryApi.Page<T>> page, final Serializer serializer) {
-        return streamingList(() -> page.get().getIterable(), serializer,
-                streamingResponseBuilder(page.get()));
+        // NB: The page is fetched once for its headers and again,
+        // with a fresh profile, when the response is written.
+        QueryApi.Page<T> headerPage = page.get();
+        Response.ResponseBuilder builder = streamingResponseBuilder(headerPage);
+        // Unbounded pages are not tagged, since that would mean
+        // reading every item an extra time.
+        if (headerPage.getLimit() >= 0) {
+            EntityTag tag = getPageTag(headerPage, serializer);
+            Response.ResponseBuilder notModified = evaluatePreconditions(null, tag);
+            if (notModified != null) {
+                return notModified.header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+            }
+            builder = builder.tag(tag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        return streamingList(() -> page.get().getIterable(), serializer, builder);
     }
 
     /**
@@ -537,9 +761,11 @@ public abstract class AbstractResource implements TxCheckedResource {
      */
     protected Response creationResponse(Entity frame) {
         try {
+            DataFormat format = getDataFormat();
             return Response.status(Response.Status.CREATED)
                     .location(getItemUri(frame))
-                    .entity(getSerializer().entityToJson(frame))
+                    .entity(serialize(frame, format))
+                    .type(format.getMediaType())
                     .build();
         } catch (SerializationError serializationError) {
             throw new RuntimeException(serializationError);
@@ -567,6 +793,46 @@ public abstract class AbstractResource implements TxCheckedResource {
         return cc;
     }
 
+    /**
+     * Get a strong entity tag for the representation of an item,
+     * without serializing it.
+     * <p>
+     * The tag is a digest of the item's revision, as given by the
+     * serializer, which covers the item's latest event and metadata,
+     * such as counts of its children, and the latest events of the
+     * items fetched with it, along with the format and query parameters
+     * of the request and, for restricted items, the visibility key of
+     * the requester, whose view of the item it is.
+     *
+     * @param item the item
+     * @param <T>  the item's generic type
+     * @return an entity tag
+     */
+    protected <T extends Entity> EntityTag getEntityTag(T item) {
+        Hasher hasher = getVariantHasher(isRestricted(item));
+        putTagValue(hasher, getSerializer().getRevision(item));
+        return new EntityTag(hasher.hash().toString());
+    }
+
+    /**
+     * Get a strong entity tag for a page of items, from the revisions
+     * of its items, the page's range and total, the format and query
+     * parameters of the request, and the requester's visibility key.
+     *
+     * @param page       a page of items
+     * @param serializer the serializer with which the page is written
+     * @param <T>        the items' generic type
+     * @return an entity tag
+     */
+    protected <T extends Entity> EntityTag getPageTag(QueryApi.Page<T> page, Serializer serializer) {
+        Hasher hasher = getVariantHasher(true);
+        putTagValue(hasher, String.format("%d;%d;%d", page.getOffset(), page.getLimit(), page.getTotal()));
+        for (T item : page.getIterable()) {
+            putTagValue(hasher, item == null ? "" : serializer.getRevision(item));
+        }
+        return new EntityTag(hasher.hash().toString());
+    }
+
     protected <T extends Entity> Date lastModified(T item) {
         try {
             String ts = item.as(Accessible.class).getLatestEvent().getTimestamp();
@@ -600,6 +866,9 @@ public abstract class AbstractResource implements TxCheckedResource {
 
     private <T> Response.ResponseBuilder streamingResponseBuilder(QueryApi.Page<T> page) {
         Response.ResponseBuilder builder = Response.ok();
+        if (getProfile().isEnabled()) {
+            builder = builder.header(PROFILE_HEADER_NAME, getProfile().toString());
+        }
         for (Map.Entry<String, Object> entry : getHeaders(page).entrySet()) {
             builder = builder.header(entry.getKey(), entry.getValue());
         }
@@ -607,68 +876,264 @@ public abstract class AbstractResource implements TxCheckedResource {
     }
 
     private Map<String, Object> getHeaders(QueryApi.Page<?> page) {
-        return ImmutableMap.of(
+        ImmutableMap.Builder<String, Object> headers = ImmutableMap.<String, Object>builder().put(
                 RANGE_HEADER_NAME,
                 String.format("offset=%d; limit=%d; total=%d",
                         page.getOffset(), page.getLimit(), page.getTotal()));
+        if (page.getNextCursor() != null) {
+            URI next = uriInfo.getRequestUriBuilder()
+                    .replaceQueryParam(OFFSET_PARAM)
+                    .replaceQueryParam(CURSOR_PARAM, page.getNextCursor())
+                    .build();
+            headers.put(LINK_HEADER_NAME, String.format("<%s>; rel=\"next\"", next));
+        }
+        return headers.build();
+    }
+
+    // Begin a new profile for a query which is about to be run
+    // (again) to write a response.
+    private QueryProfile resetProfile() {
+        profile = null;
+        return getProfile();
+    }
+
+    // Check the request's conditional headers against the given
+    // validators, which may be null. Only safe requests are checked.
+    // Returns a builder for a 304 response if the representation
+    // has not been modified.
+    private Response.ResponseBuilder evaluatePreconditions(Date lastModified, EntityTag tag) {
+        if (!HttpMethod.GET.equals(request.getMethod()) && !HttpMethod.HEAD.equals(request.getMethod())) {
+            return null;
+        } else if (tag != null && lastModified != null) {
+            return request.evaluatePreconditions(lastModified, tag);
+        } else if (tag != null) {
+            return request.evaluatePreconditions(tag);
+        } else if (lastModified != null) {
+            return request.evaluatePreconditions(lastModified);
+        }
+        return null;
+    }
+
+    private boolean isRestricted(Entity item) {
+        return item instanceof Accessible && ((Accessible) item).hasAccessRestriction();
+    }
+
+    // Start a digest of the variant of a representation which is
+    // requested: its format, its parameters and, if it is restricted,
+    // which items are visible to the requester.
+    private Hasher getVariantHasher(boolean restricted) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        putTagValue(hasher, isNdjson() ? NDJSON_MEDIA_TYPE : getDataFormat().getMediaType());
+        putTagValue(hasher, Strings.nullToEmpty(uriInfo.getRequestUri().getRawQuery()));
+        putTagValue(hasher, restricted ? AclManager.getVisibilityKey(getRequesterUserProfile()) : "");
+        return hasher;
+    }
+
+    private static void putTagValue(Hasher hasher, String value) {
+        hasher.putString(value, StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+
+    private void logProfile(QueryProfile profile) {
+        if (profile.isEnabled()) {
+            logger.info("Profile for {}: {}", uriInfo.getRequestUri(), profile);
+        }
+    }
+
+    // Serialize a single item. JSON is pretty-printed, as it
+    // always has been.
+    private byte[] serialize(Entity item, DataFormat format) throws SerializationError {
+        if (!format.isBinary()) {
+            return getSerializer().entityToJson(item).getBytes(Charsets.UTF_8);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator g = format.getFactory().createGenerator(out)) {
+            getSerializer().entityToJson(item, g);
+        } catch (IOException e) {
+            throw new SerializationError("Error encoding " + format, e);
+        }
+        return out.toByteArray();
+    }
+
+    private <T> void writeParallel(Supplier<Iterable<T>> page, Serializer serializer,
+            PipelinedWriter.ItemWriter<T> itemWriter, OutputStream outputStream, DataFormat format,
+            QueryProfile profile) throws IOException {
+        try (Tx tx = beginTx(); JsonGenerator g = format.getFactory().createGenerator(outputStream)) {
+            new PipelinedWriter<>(graph.getBaseGraph(), serializer, itemWriter).write(page.get(), g, profile);
+            tx.success();
+            logProfile(profile);
+        } catch (SerializationError e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Write each of a list's values as a line of JSON, flushing the
+    // output every so many lines so clients can process it as it comes.
+    private <T> void writeNdjson(Supplier<? extends Iterable<? extends T>> page, LineWriter<T> lineWriter,
+            OutputStream outputStream, QueryProfile profile) throws IOException {
+        int flushInterval = Math.max(1, getIntQueryParam(FLUSH_PARAM, DEFAULT_FLUSH_INTERVAL));
+        try (Tx tx = beginTx(); JsonGenerator g = jsonFactory.createGenerator(outputStream)) {
+            g.setRootValueSeparator(null);
+            int count = 0;
+            for (T value : page.get()) {
+                long start = System.nanoTime();
+                lineWriter.write(g, value);
+                g.writeRaw('\n');
+                profile.serialized(System.nanoTime() - start);
+                if (++count % flushInterval == 0) {
+                    g.flush();
+                }
+            }
+            tx.success();
+            logProfile(profile);
+        }
+    }
+
+    // Write an item by way of a buffer, so that if it cannot be
+    // serialized an error can be written in its place rather than
+    // the output being left incomplete.
+    private <T> void writeItemOrError(Serializer serializer, PipelinedWriter.ItemWriter<T> itemWriter, T item,
+            JsonGenerator g) throws IOException {
+        if (item == null) {
+            g.writeNull();
+            return;
+        }
+        TokenBuffer buffer = new TokenBuffer(g.getCodec(), false);
+        try {
+            itemWriter.write(serializer, item, buffer);
+            buffer.serialize(g);
+        } catch (SerializationError e) {
+            String id = item instanceof Entity
+                    ? ((Entity) item).getId()
+                    : ((Vertex) item).getProperty(EntityType.ID_KEY);
+            logger.error("Error serializing item: {}", id, e);
+            g.writeObject(ImmutableMap.of(
+                    "error", "Serialization error",
+                    "details", ImmutableMap.of(
+                            "message", Strings.nullToEmpty(e.getMessage()),
+                            "key", "id",
+                            "value", Strings.nullToEmpty(id))));
+        }
+    }
+
+    private interface LineWriter<T> {
+        void write(JsonGenerator generator, T value) throws IOException;
     }
 
     private Response streamingVertexList(Supplier<Iterable<Vertex>> page, Serializer serializer, Response.ResponseBuilder responseBuilder) {
+        final DataFormat format = getDataFormat();
+        final boolean ndjson = isNdjson();
+        final boolean parallel = isParallel();
         return responseBuilder.entity((StreamingOutput) outputStream -> {
             final Serializer cacheSerializer = serializer.withCache();
-            try (Tx tx = beginTx(); JsonGenerator g = jsonFactory.createGenerator(outputStream)) {
+            final QueryProfile profile = resetProfile();
+            if (ndjson) {
+                writeNdjson(page, (g, item) -> writeItemOrError(cacheSerializer, Serializer::vertexToJson, item, g),
+                        outputStream, profile);
+                return;
+            } else if (parallel) {
+                writeParallel(page, serializer, Serializer::vertexToJson, outputStream, format, profile);
+                return;
+            }
+            try (Tx tx = beginTx(); JsonGenerator g = format.getFactory().createGenerator(outputStream)) {
                 g.writeStartArray();
                 for (Vertex item : page.get()) {
-                    g.writeRaw('\n');
-                    jsonMapper.writeValue(g, item == null ? null : cacheSerializer.vertexToData(item));
+                    long start = System.nanoTime();
+                    writeNewline(g);
+                    if (item == null) {
+                        g.writeNull();
+                    } else {
+                        cacheSerializer.vertexToJson(item, g);
+                    }
+                    profile.serialized(System.nanoTime() - start);
                 }
                 g.writeEndArray();
                 tx.success();
+                logProfile(profile);
             } catch (SerializationError e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
             }
-        }).type(MediaType.APPLICATION_JSON_TYPE).build();
+        }).type(ndjson ? NDJSON_MEDIA_TYPE : format.getMediaType()).build();
     }
 
     private <T extends Entity> Response streamingList(Supplier<Iterable<T>> page, Serializer serializer, Response.ResponseBuilder responseBuilder) {
+        final DataFormat format = getDataFormat();
+        final boolean ndjson = isNdjson();
+        final boolean parallel = isParallel();
         return responseBuilder.entity((StreamingOutput) outputStream -> {
             final Serializer cacheSerializer = serializer.withCache();
-            try (Tx tx = beginTx(); JsonGenerator g = jsonFactory.createGenerator(outputStream)) {
+            final QueryProfile profile = resetProfile();
+            if (ndjson) {
+                writeNdjson(page, (g, item) -> writeItemOrError(cacheSerializer, Serializer::entityToJson, item, g),
+                        outputStream, profile);
+                return;
+            } else if (parallel) {
+                writeParallel(page, serializer, Serializer::entityToJson, outputStream, format, profile);
+                return;
+            }
+            try (Tx tx = beginTx(); JsonGenerator g = format.getFactory().createGenerator(outputStream)) {
                 g.writeStartArray();
                 for (T item : page.get()) {
-                    g.writeRaw('\n');
-                    jsonMapper.writeValue(g, item == null ? null : cacheSerializer.entityToData(item));
+                    long start = System.nanoTime();
+                    writeNewline(g);
+                    if (item == null) {
+                        g.writeNull();
+                    } else {
+                        cacheSerializer.entityToJson(item, g);
+                    }
+                    profile.serialized(System.nanoTime() - start);
                 }
                 g.writeEndArray();
                 tx.success();
+                logProfile(profile);
             } catch (SerializationError e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
             }
-        }).type(MediaType.APPLICATION_JSON_TYPE).build();
+        }).type(ndjson ? NDJSON_MEDIA_TYPE : format.getMediaType()).build();
     }
 
     private <T extends Entity> Response streamingGroup(Supplier<Iterable<? extends Collection<T>>> groups, Serializer serializer, Response.ResponseBuilder responseBuilder) {
+        final DataFormat format = getDataFormat();
+        final boolean ndjson = isNdjson();
         return responseBuilder.entity((StreamingOutput) outputStream -> {
             final Serializer cacheSerializer = serializer.withCache();
-            try (Tx tx = beginTx(); JsonGenerator g = jsonFactory.createGenerator(outputStream)) {
+            final QueryProfile profile = resetProfile();
+            if (ndjson) {
+                writeNdjson(groups, (g, collect) -> {
+                    g.writeStartArray();
+                    for (T item : collect) {
+                        writeItemOrError(cacheSerializer, Serializer::entityToJson, item, g);
+                    }
+                    g.writeEndArray();
+                }, outputStream, profile);
+                return;
+            }
+            try (Tx tx = beginTx(); JsonGenerator g = format.getFactory().createGenerator(outputStream)) {
                 g.writeStartArray();
                 for (Collection<T> collect : groups.get()) {
+                    long start = System.nanoTime();
                     g.writeStartArray();
                     for (T item : collect) {
-                        jsonMapper.writeValue(g, item == null ? null : cacheSerializer.entityToData(item));
+                        if (item == null) {
+                            g.writeNull();
+                        } else {
+                            cacheSerializer.entityToJson(item, g);
+                        }
                     }
                     g.writeEndArray();
-                    g.writeRaw('\n');
+                    writeNewline(g);
+                    profile.serialized(System.nanoTime() - start);
                 }
                 g.writeEndArray();
 
                 tx.success();
+                logProfile(profile);
             } catch (SerializationError e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
             }
-        }).type(MediaType.APPLICATION_JSON_TYPE).build();
+        }).type(ndjson ? NDJSON_MEDIA_TYPE : format.getMediaType()).build();
     }
 }
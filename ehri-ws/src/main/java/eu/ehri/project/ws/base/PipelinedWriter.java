@@ -0,0 +1,202 @@
+/*
+ * Copyright 2022 Data Archiving and Networked Services (an institute of
+ * Koninklijke Nederlandse Akademie van Wetenschappen), King's College London,
+ * Georg-August-Universitaet Goettingen Stiftung Oeffentlichen Rechts
+ *
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing
+ * permissions and limitations under the Licence.
+ */
+
+package eu.ehri.project.ws.base;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import eu.ehri.project.api.QueryProfile;
+import eu.ehri.project.core.Tx;
+import eu.ehri.project.core.TxGraph;
+import eu.ehri.project.exceptions.SerializationError;
+import eu.ehri.project.persistence.Serializer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes a list of items as a JSON array, serializing upcoming items
+ * ahead of the writer on a shared pool of worker threads.
+ * <p>
+ * Each worker serializes items into a buffer inside its own read
+ * transaction. The writing thread keeps a bounded window of items in
+ * flight and writes their buffers in the list's original order. When
+ * the item at the head of the window has not yet been picked up, the
+ * writing thread serializes it itself, so a busy pool slows a response
+ * down but never stalls it. Workers are started as items are queued,
+ * up to a fixed number per response, and finish when they find the
+ * queue empty, so none holds a pool thread while waiting for items.
+ *
+ * @param <T> the type of the items
+ */
+final class PipelinedWriter<T> {
+
+    /**
+     * Writes a single item with a given serializer.
+     */
+    interface ItemWriter<T> {
+        void write(Serializer serializer, T item, JsonGenerator generator) throws SerializationError, IOException;
+    }
+
+    private static final int WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final int WINDOW = WORKERS * 8;
+
+    private static final ExecutorService pool = Executors.newFixedThreadPool(WORKERS,
+            new ThreadFactoryBuilder().setNameFormat("ehri-serializer-%d").setDaemon(true).build());
+
+    private final TxGraph graph;
+    private final Serializer serializer;
+    private final ItemWriter<T> itemWriter;
+    private final Queue<Slot<T>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger workers = new AtomicInteger();
+
+    PipelinedWriter(TxGraph graph, Serializer serializer, ItemWriter<T> itemWriter) {
+        this.graph = graph;
+        this.serializer = serializer;
+        this.itemWriter = itemWriter;
+    }
+
+    /**
+     * Write items to a generator, each on a new line, in the order of
+     * the iterable. The iterable is read on the calling thread, which
+     * must hold a transaction.
+     *
+     * @param items     the items, which may include nulls
+     * @param generator a JSON generator
+     * @param profile   a profile in which to record serialization times
+     */
+    void write(Iterable<T> items, JsonGenerator generator, QueryProfile profile)
+            throws SerializationError, IOException {
+        Serializer cacheSerializer = serializer.withCache();
+        Deque<Slot<T>> window = new ArrayDeque<>(WINDOW);
+        try {
+            generator.writeStartArray();
+            for (T item : items) {
+                Slot<T> slot = new Slot<>(item);
+                window.add(slot);
+                queue.add(slot);
+                if (claimWorker()) {
+                    pool.execute(this::work);
+                }
+                if (window.size() >= WINDOW) {
+                    writeNext(window.remove(), cacheSerializer, generator, profile);
+                }
+            }
+            while (!window.isEmpty()) {
+                writeNext(window.remove(), cacheSerializer, generator, profile);
+            }
+            generator.writeEndArray();
+        } finally {
+            // Items which have not been picked up are no longer needed.
+            queue.clear();
+        }
+    }
+
+    private void writeNext(Slot<T> slot, Serializer cacheSerializer, JsonGenerator generator, QueryProfile profile)
+            throws SerializationError, IOException {
+        // Items are queued in order, so until the head of the window
+        // has been taken by a worker it is the next one in the queue.
+        while (!slot.result.isDone()) {
+            Slot<T> next = queue.poll();
+            if (next == null) {
+                break;
+            }
+            next.serialize(cacheSerializer, itemWriter);
+        }
+        try {
+            TokenBuffer buffer = slot.result.get();
+            AbstractResource.writeNewline(generator);
+            buffer.serialize(generator);
+            profile.serialized(slot.nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while serializing items");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), SerializationError.class, IOException.class);
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // Count a new worker in, unless there are enough already.
+    private boolean claimWorker() {
+        int count;
+        while ((count = workers.get()) < WORKERS) {
+            if (workers.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void work() {
+        try (Tx tx = graph.beginTx()) {
+            Serializer cacheSerializer = serializer.withCache();
+            do {
+                Slot<T> slot;
+                while ((slot = queue.poll()) != null) {
+                    slot.serialize(cacheSerializer, itemWriter);
+                }
+                workers.decrementAndGet();
+                // Carry on with any items queued after finding the queue
+                // empty, for which no worker may have been started.
+            } while (!queue.isEmpty() && claimWorker());
+            tx.success();
+        }
+    }
+
+    private static final class Slot<T> {
+        private final T item;
+        private final CompletableFuture<TokenBuffer> result = new CompletableFuture<>();
+        private long nanos;
+
+        private Slot(T item) {
+            this.item = item;
+        }
+
+        // Serialize the item into a buffer. Without a codec of its own
+        // the buffer holds any objects as they are, and they are written
+        // by the codec of the generator it is eventually written to.
+        private void serialize(Serializer serializer, ItemWriter<T> itemWriter) {
+            long start = System.nanoTime();
+            TokenBuffer buffer = new TokenBuffer(null, false);
+            try {
+                if (item == null) {
+                    buffer.writeNull();
+                } else {
+                    itemWriter.write(serializer, item, buffer);
+                }
+                nanos = System.nanoTime() - start;
+                result.complete(buffer);
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -19,10 +19,12 @@
 
 package eu.ehri.project.ws.providers;
 
+import eu.ehri.project.ws.base.AbstractResource;
 import eu.ehri.project.ws.errors.WebDeserializationError;
 import eu.ehri.project.exceptions.DeserializationError;
 import eu.ehri.project.exceptions.SerializationError;
 import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.DataFormat;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
@@ -40,8 +42,8 @@ import java.lang.reflect.Type;
 
 
 @Provider
-@Consumes(MediaType.APPLICATION_JSON)
-@Produces(MediaType.APPLICATION_JSON)
+@Consumes({MediaType.APPLICATION_JSON, AbstractResource.SMILE_MEDIA_TYPE, AbstractResource.CBOR_MEDIA_TYPE})
+@Produces({MediaType.APPLICATION_JSON, AbstractResource.SMILE_MEDIA_TYPE, AbstractResource.CBOR_MEDIA_TYPE})
 public class BundleProvider implements MessageBodyReader<Bundle>, MessageBodyWriter<Bundle> {
     @Override
     public boolean isReadable(Class<?> aClass, Type type, Annotation[] annotations, MediaType mediaType) {
@@ -53,7 +55,7 @@ public class BundleProvider implements MessageBodyReader<Bundle>, MessageBodyWri
                            MediaType mediaType, MultivaluedMap<String,
             String> headers, InputStream stream) throws WebApplicationException {
         try {
-            return Bundle.fromStream(stream);
+            return Bundle.fromStream(stream, AbstractResource.getDataFormat(mediaType).orElse(DataFormat.JSON));
         } catch (DeserializationError deserializationError) {
             throw new WebDeserializationError(deserializationError);
         }
@@ -79,7 +81,7 @@ public class BundleProvider implements MessageBodyReader<Bundle>, MessageBodyWri
             MultivaluedMap<String, Object> multivaluedMap,
             OutputStream outputStream) throws WebApplicationException {
         try {
-            Bundle.toStream(bundle, outputStream);
+            Bundle.toStream(bundle, outputStream, AbstractResource.getDataFormat(mediaType).orElse(DataFormat.JSON));
         } catch (SerializationError serializationError) {
             throw new WebApplicationException(serializationError);
         }
@@ -19,6 +19,8 @@
 
 package eu.ehri.project.ws.test;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.sun.jersey.api.client.ClientResponse;
@@ -27,13 +29,16 @@ import eu.ehri.project.ws.GenericResource;
 import eu.ehri.project.definitions.Entities;
 import eu.ehri.project.importers.ImportLog;
 import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.DataFormat;
 import eu.ehri.project.utils.Table;
 import org.junit.Test;
 
 import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.Collections;
+import java.util.List;
 
 import static eu.ehri.project.ws.BatchResource.COMMIT_PARAM;
 import static eu.ehri.project.ws.BatchResource.LOG_PARAM;
@@ -67,6 +72,27 @@ public class BatchResourceClientTest extends AbstractResourceClientTest {
         assertEquals(logText, log.getLogMessage().orElse(null));
     }
 
+    @Test
+    public void testBatchUpdateWithCbor() throws Exception {
+        InputStream payloadStream = getClass()
+                .getClassLoader().getResourceAsStream("import-patch-test.json");
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (JsonGenerator generator = DataFormat.CBOR.getFactory().createGenerator(payload)) {
+            generator.writeObject(new ObjectMapper().readValue(payloadStream, List.class));
+        }
+        URI jsonUri = ehriUriBuilder(BatchResource.ENDPOINT, "update")
+                .queryParam(COMMIT_PARAM, true).build();
+        ClientResponse response = callAs(getAdminUserProfileId(), jsonUri)
+                .type(DataFormat.CBOR.getMediaType())
+                .entity(payload.toByteArray())
+                .put(ClientResponse.class);
+
+        assertStatus(ClientResponse.Status.OK, response);
+        ImportLog log = response.getEntity(ImportLog.class);
+        assertEquals(1, log.getUpdated());
+        assertEquals(1, log.getUnchanged());
+    }
+
     @Test
     public void testBatchUpdateToUnsetValues() throws Exception {
         Bundle before = getEntity(Entities.REPOSITORY, "r1",
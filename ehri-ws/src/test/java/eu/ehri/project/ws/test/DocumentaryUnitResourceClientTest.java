@@ -21,14 +21,17 @@ package eu.ehri.project.ws.test;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.net.HttpHeaders;
 import com.sun.jersey.api.client.ClientResponse;
+import com.tinkerpop.blueprints.CloseableIterable;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.core.util.StringKeyIgnoreCaseMultivaluedMap;
 import eu.ehri.project.ws.base.AbstractResource;
 import eu.ehri.project.definitions.Entities;
 import eu.ehri.project.definitions.Ontology;
 import eu.ehri.project.persistence.Bundle;
+import eu.ehri.project.persistence.DataFormat;
 import eu.ehri.project.persistence.ErrorSet;
 import eu.ehri.project.utils.Table;
 import org.junit.Before;
@@ -36,6 +39,7 @@ import org.junit.Test;
 
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayOutputStream;
 import java.net.URI;
 import java.util.List;
 
@@ -45,6 +49,9 @@ import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 
 public class DocumentaryUnitResourceClientTest extends AbstractResourceClientTest {
@@ -84,6 +91,52 @@ public class DocumentaryUnitResourceClientTest extends AbstractResourceClientTes
         assertStatus(OK, response);
     }
 
+    @Test
+    public void testBinaryFormats() throws Exception {
+        Bundle doc = getEntity(Entities.DOCUMENTARY_UNIT, FIRST_DOC_ID, getAdminUserProfileId());
+        List<String> ids = Lists.newArrayList();
+        for (Bundle item : decodeList(client.resource(entityUri(Entities.DOCUMENTARY_UNIT))
+                .accept(MediaType.APPLICATION_JSON)
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .get(String.class))) {
+            ids.add(item.getId());
+        }
+
+        for (DataFormat format : Lists.newArrayList(DataFormat.SMILE, DataFormat.CBOR)) {
+            ClientResponse response = client.resource(entityUri(Entities.DOCUMENTARY_UNIT, FIRST_DOC_ID))
+                    .accept(format.getMediaType(), MediaType.APPLICATION_JSON)
+                    .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                    .get(ClientResponse.class);
+            assertStatus(OK, response);
+            assertEquals(format.getMediaType(), response.getType().toString());
+            assertEquals(doc, Bundle.fromStream(response.getEntityInputStream(), format));
+
+            response = client.resource(entityUri(Entities.DOCUMENTARY_UNIT))
+                    .accept(format.getMediaType())
+                    .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                    .get(ClientResponse.class);
+            assertStatus(OK, response);
+            List<String> formatIds = Lists.newArrayList();
+            try (CloseableIterable<Bundle> items = Bundle.bundleStream(response.getEntityInputStream(), format)) {
+                for (Bundle item : items) {
+                    formatIds.add(item.getId());
+                }
+            }
+            assertEquals(ids, formatIds);
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Bundle.toStream(Bundle.fromString(jsonDocumentaryUnitTestStr), data, DataFormat.CBOR);
+        ClientResponse response = client.resource(getCreationUri())
+                .type(DataFormat.CBOR.getMediaType())
+                .accept(DataFormat.SMILE.getMediaType())
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .post(ClientResponse.class, data.toByteArray());
+        assertStatus(CREATED, response);
+        Bundle created = Bundle.fromStream(response.getEntityInputStream(), DataFormat.SMILE);
+        assertEquals(CREATED_ID, created.getDataValue(Ontology.IDENTIFIER_KEY));
+    }
+
     @Test
     public void testNotFoundWithValidUrl() throws Exception {
         // Create
@@ -230,6 +283,29 @@ public class DocumentaryUnitResourceClientTest extends AbstractResourceClientTes
         assertEquals(0, doc.getRelations("heldBy").size());
     }
 
+    @Test
+    public void testGetDocumentaryUnitWithProjection() throws Exception {
+        ClientResponse response = client.resource(
+                        entityUri(Entities.DOCUMENTARY_UNIT, TEST_JSON_IDENTIFIER))
+                .queryParam(AbstractResource.PROJECTION_PARAM, "identifier,describes(name)")
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .header(HttpHeaders.ACCEPT, "application/json")
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        Bundle doc = Bundle.fromString(response.getEntity(String.class));
+        assertEquals(Sets.newHashSet(Ontology.IDENTIFIER_KEY), doc.getData().keySet());
+        assertEquals(Sets.newHashSet(Ontology.DESCRIPTION_FOR_ENTITY), doc.getRelations().keySet());
+        assertEquals(Sets.newHashSet(Ontology.NAME_KEY),
+                doc.getRelations(Ontology.DESCRIPTION_FOR_ENTITY).get(0).getData().keySet());
+
+        ClientResponse bad = client.resource(
+                        entityUri(Entities.DOCUMENTARY_UNIT, TEST_JSON_IDENTIFIER))
+                .queryParam(AbstractResource.PROJECTION_PARAM, "describes(name")
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .get(ClientResponse.class);
+        assertStatus(BAD_REQUEST, bad);
+    }
+
     @Test
     public void testUpdateDocumentaryUnitByIdentifier() throws Exception {
         // Update doc unit c1 with the test json values, which should change
@@ -248,6 +324,105 @@ public class DocumentaryUnitResourceClientTest extends AbstractResourceClientTes
         assertEquals(CREATED_ID, errValue.textValue());
     }
 
+    @Test
+    public void testListDocumentaryUnitAsNdjson() throws Exception {
+        List<Bundle> items = decodeList(client.resource(entityUri(Entities.DOCUMENTARY_UNIT))
+                .accept(MediaType.APPLICATION_JSON)
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .get(String.class));
+        ClientResponse response = client.resource(entityUri(Entities.DOCUMENTARY_UNIT))
+                .queryParam(AbstractResource.FLUSH_PARAM, "2")
+                .accept(AbstractResource.NDJSON_MEDIA_TYPE, MediaType.APPLICATION_JSON)
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertEquals(AbstractResource.NDJSON_MEDIA_TYPE, response.getType().toString());
+        List<Bundle> lines = Lists.newArrayList();
+        for (String line : response.getEntity(String.class).split("\n")) {
+            lines.add(Bundle.fromString(line));
+        }
+        assertEquals(items, lines);
+    }
+
+    @Test
+    public void testConditionalGet() throws Exception {
+        URI uri = entityUri(Entities.DOCUMENTARY_UNIT, TEST_JSON_IDENTIFIER);
+        assertStatus(OK, jsonCallAs(getAdminUserProfileId(), uri)
+                .entity(jsonDocumentaryUnitTestStr).put(ClientResponse.class));
+
+        ClientResponse response = jsonCallAs(getAdminUserProfileId(), uri).get(ClientResponse.class);
+        assertStatus(OK, response);
+        String tag = response.getHeaders().getFirst(HttpHeaders.ETAG);
+        assertNotNull(tag);
+        assertNotNull(response.getLastModified());
+
+        response = jsonCallAs(getAdminUserProfileId(), uri)
+                .header(HttpHeaders.IF_NONE_MATCH, tag)
+                .get(ClientResponse.class);
+        assertStatus(NOT_MODIFIED, response);
+        assertEquals(tag, response.getHeaders().getFirst(HttpHeaders.ETAG));
+
+        // Other representations of the item have other tags...
+        response = client.resource(uri)
+                .accept(DataFormat.SMILE.getMediaType())
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .header(HttpHeaders.IF_NONE_MATCH, tag)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertNotEquals(tag, response.getHeaders().getFirst(HttpHeaders.ETAG));
+
+        // ... as does the item once it has changed.
+        assertStatus(OK, jsonCallAs(getAdminUserProfileId(), uri)
+                .header(AbstractResource.PATCH_HEADER_NAME, Boolean.TRUE.toString())
+                .entity(partialJsonDocumentaryUnitTestStr).put(ClientResponse.class));
+        response = jsonCallAs(getAdminUserProfileId(), uri)
+                .header(HttpHeaders.IF_NONE_MATCH, tag)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertNotEquals(tag, response.getHeaders().getFirst(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testConditionalGetWithNewChild() throws Exception {
+        URI uri = entityUri(Entities.DOCUMENTARY_UNIT, FIRST_DOC_ID);
+        ClientResponse response = jsonCallAs(getAdminUserProfileId(), uri).get(ClientResponse.class);
+        assertStatus(OK, response);
+        String tag = response.getHeaders().getFirst(HttpHeaders.ETAG);
+        assertNotNull(tag);
+
+        // The item's child count is part of its representation, so
+        // adding a child changes its tag.
+        assertStatus(CREATED, jsonCallAs(getAdminUserProfileId(), uri)
+                .entity(jsonDocumentaryUnitTestStr).post(ClientResponse.class));
+        response = jsonCallAs(getAdminUserProfileId(), uri)
+                .header(HttpHeaders.IF_NONE_MATCH, tag)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertNotEquals(tag, response.getHeaders().getFirst(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testConditionalGetPage() throws Exception {
+        URI uri = entityUri(Entities.DOCUMENTARY_UNIT);
+        ClientResponse response = jsonCallAs(getAdminUserProfileId(), uri).get(ClientResponse.class);
+        assertStatus(OK, response);
+        String tag = response.getHeaders().getFirst(HttpHeaders.ETAG);
+        assertNotNull(tag);
+
+        response = jsonCallAs(getAdminUserProfileId(), uri)
+                .header(HttpHeaders.IF_NONE_MATCH, tag)
+                .get(ClientResponse.class);
+        assertStatus(NOT_MODIFIED, response);
+
+        assertStatus(OK, jsonCallAs(getAdminUserProfileId(), entityUri(Entities.DOCUMENTARY_UNIT, FIRST_DOC_ID))
+                .entity(jsonDocumentaryUnitTestStr).put(ClientResponse.class));
+        response = jsonCallAs(getAdminUserProfileId(), uri)
+                .header(HttpHeaders.IF_NONE_MATCH, tag)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertEquals(5, decodeList(response.getEntity(String.class)).size());
+    }
+
     @Test
     public void testListDocumentaryUnit() throws Exception {
         MultivaluedMap<String, String> params = new StringKeyIgnoreCaseMultivaluedMap<>();
@@ -315,6 +490,84 @@ public class DocumentaryUnitResourceClientTest extends AbstractResourceClientTes
         assertEquals("c2", data.get(0).getDataValue(Ontology.IDENTIFIER_KEY));
     }
 
+    @Test
+    public void testListDocumentaryUnitWithCursor() throws Exception {
+        MultivaluedMap<String, String> params = new StringKeyIgnoreCaseMultivaluedMap<>();
+        params.add(AbstractResource.CURSOR_PARAM, "");
+        params.add(AbstractResource.LIMIT_PARAM, "1");
+        params.add(AbstractResource.SORT_PARAM, Ontology.IDENTIFIER_KEY);
+        ClientResponse response = client.resource(entityUri(Entities.DOCUMENTARY_UNIT)).queryParams(params)
+                .accept(MediaType.APPLICATION_JSON)
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertEquals(-1, getPaginationTotal(response));
+        List<Bundle> data = decodeList(response.getEntity(String.class));
+        assertEquals(1, data.size());
+        assertEquals(FIRST_DOC_ID, data.get(0).getDataValue(Ontology.IDENTIFIER_KEY));
+
+        // Follow the link to the next page (c2)
+        String link = response.getHeaders().getFirst(AbstractResource.LINK_HEADER_NAME);
+        assertThat(link, containsString("rel=\"next\""));
+        URI next = URI.create(link.substring(link.indexOf('<') + 1, link.indexOf('>')));
+        response = jsonCallAs(getAdminUserProfileId(), next).get(ClientResponse.class);
+        assertStatus(OK, response);
+        data = decodeList(response.getEntity(String.class));
+        assertEquals(1, data.size());
+        assertEquals("c2", data.get(0).getDataValue(Ontology.IDENTIFIER_KEY));
+    }
+
+    @Test
+    public void testListDocumentaryUnitWithBadCursor() throws Exception {
+        ClientResponse response = jsonCallAs(getAdminUserProfileId(),
+                entityUriBuilder(Entities.DOCUMENTARY_UNIT)
+                        .queryParam(AbstractResource.CURSOR_PARAM, "bad").build())
+                .get(ClientResponse.class);
+        assertStatus(BAD_REQUEST, response);
+    }
+
+    @Test
+    public void testListDocumentaryUnitWithProfile() throws Exception {
+        ClientResponse response = client.resource(entityUri(Entities.DOCUMENTARY_UNIT))
+                .accept(MediaType.APPLICATION_JSON)
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .header(AbstractResource.PROFILE_HEADER_NAME, "true")
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        String profile = response.getHeaders().getFirst(AbstractResource.PROFILE_HEADER_NAME);
+        assertThat(profile, containsString("source=type:" + Entities.DOCUMENTARY_UNIT));
+        assertThat(profile, containsString("scan=5"));
+        assertEquals(5, decodeList(response.getEntity(String.class)).size());
+    }
+
+    @Test
+    public void testListDocumentaryUnitWithProfileAsNonAdmin() throws Exception {
+        ClientResponse response = client.resource(entityUri(Entities.DOCUMENTARY_UNIT))
+                .accept(MediaType.APPLICATION_JSON)
+                .header(AbstractResource.AUTH_HEADER_NAME, getRegularUserProfileId())
+                .header(AbstractResource.PROFILE_HEADER_NAME, "true")
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        assertNull(response.getHeaders().getFirst(AbstractResource.PROFILE_HEADER_NAME));
+    }
+
+    @Test
+    public void testListDocumentaryUnitInParallel() throws Exception {
+        String serial = client.resource(entityUri(Entities.DOCUMENTARY_UNIT))
+                .queryParam(AbstractResource.LIMIT_PARAM, "-1")
+                .accept(MediaType.APPLICATION_JSON)
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .get(String.class);
+        String parallel = client.resource(entityUri(Entities.DOCUMENTARY_UNIT))
+                .queryParam(AbstractResource.LIMIT_PARAM, "-1")
+                .accept(MediaType.APPLICATION_JSON)
+                .header(AbstractResource.AUTH_HEADER_NAME, getAdminUserProfileId())
+                .header(AbstractResource.PARALLEL_HEADER_NAME, "true")
+                .get(String.class);
+        assertEquals(5, decodeList(parallel).size());
+        assertEquals(jsonMapper.readTree(serial), jsonMapper.readTree(parallel));
+    }
+
     @Test
     public void testCountDocumentaryUnits() throws Exception {
         Long data = getEntityCount(
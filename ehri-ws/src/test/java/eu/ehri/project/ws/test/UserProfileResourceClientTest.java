@@ -305,4 +305,30 @@ public class UserProfileResourceClientTest extends AbstractResourceClientTest {
         watching = getItemList(watchersUrl, user1);
         assertEquals(1, watching.size());
     }
+
+    @Test
+    public void testActionsAsNdjson() throws Exception {
+        String user = getAdminUserProfileId();
+        // Make some actions to list
+        for (int i = 0; i < 2; i++) {
+            assertStatus(CREATED, jsonCallAs(user, entityUri(Entities.USER_PROFILE))
+                    .entity(Bundle.fromString(jsonUserProfileTestString)
+                            .withDataValue(Ontology.IDENTIFIER_KEY, "ndjson" + i).toJson())
+                    .post(ClientResponse.class));
+        }
+
+        URI actionsUrl = entityUri(Entities.USER_PROFILE, user, "actions");
+        JsonNode json = jsonMapper.readTree(jsonCallAs(user, actionsUrl).get(String.class));
+        assertTrue(json.size() > 0);
+        ClientResponse response = client.resource(actionsUrl)
+                .accept(AbstractResource.NDJSON_MEDIA_TYPE)
+                .header(AbstractResource.AUTH_HEADER_NAME, user)
+                .get(ClientResponse.class);
+        assertStatus(OK, response);
+        String[] lines = response.getEntity(String.class).split("\n");
+        assertEquals(json.size(), lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(json.get(i), jsonMapper.readTree(lines[i]));
+        }
+    }
 }